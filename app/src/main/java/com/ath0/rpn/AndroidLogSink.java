@@ -0,0 +1,15 @@
+package com.ath0.rpn;
+
+import android.util.Log;
+
+/**
+ * Forwards the calculator engine's log messages to the Android log.
+ */
+public class AndroidLogSink implements Logger.Sink {
+
+  @Override
+  public void log(final int level, final String tag, final String message) {
+    Log.println(level, tag, message);
+  }
+
+}
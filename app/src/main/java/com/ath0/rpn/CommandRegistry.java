@@ -0,0 +1,99 @@
+package com.ath0.rpn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Maps keys to the commands they perform. Commands are registered once
+ * under the tag of their on-screen key, and single character tags are also
+ * entered in a table indexed by character, for the hardware keyboard and
+ * paste. bind() then attaches each on-screen key's command to its View, so
+ * a key press is dispatched with a single lookup and no string comparison.
+ * Adding an operation means registering one more command.
+ */
+public class CommandRegistry {
+
+  /**
+   * Something a key does.
+   */
+  public static interface Command {
+
+    /**
+     * Performs the command.
+     */
+    void execute();
+  }
+
+  // Covers the ASCII characters, which is all the single character tags.
+  private static final int CHARS = 128;
+
+  private final Map<String, Command> byTag = new HashMap<String, Command>();
+  private final Command[] byChar = new Command[CHARS];
+
+  /**
+   * Registers a command, replacing any previously registered under the
+   * same tag.
+   * @param tag the tag of the on-screen key, or the character typed for it
+   * @param command the command
+   */
+  public void register(final String tag, final Command command) {
+    this.byTag.put(tag, command);
+    if (tag.length() == 1 && tag.charAt(0) < CHARS) {
+      this.byChar[tag.charAt(0)] = command;
+    }
+  }
+
+  /**
+   * Looks up the command for a key tag.
+   * @return the command, or null if there is none
+   */
+  public Command forTag(final String tag) {
+    return this.byTag.get(tag);
+  }
+
+  /**
+   * Looks up the command for a typed character.
+   * @return the command, or null if there is none
+   */
+  public Command forChar(final char c) {
+    return c < CHARS ? this.byChar[c] : null;
+  }
+
+  /**
+   * Looks up the command for a View, which has either been bound, or has a
+   * tag naming its command.
+   * @return the command, or null if there is none
+   */
+  public Command forView(final View v) {
+    final Object command = v.getTag(R.id.command);
+    if (command != null) {
+      return (Command) command;
+    }
+    final Object tag = v.getTag();
+    return tag instanceof String ? forTag((String) tag) : null;
+  }
+
+  /**
+   * Attaches commands to the Views under a root whose tags name them.
+   * @param root a View, normally the key layout
+   */
+  public void bind(final View root) {
+    final Object tag = root.getTag();
+    if (tag instanceof String) {
+      final Command command = forTag((String) tag);
+      if (command != null) {
+        root.setTag(R.id.command, command);
+      }
+    }
+    if (root instanceof ViewGroup) {
+      final ViewGroup group = (ViewGroup) root;
+      for (int i = 0; i < group.getChildCount(); i++) {
+        bind(group.getChildAt(i));
+      }
+    }
+  }
+
+}
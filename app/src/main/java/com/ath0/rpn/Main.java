@@ -1,14 +1,19 @@
 package com.ath0.rpn;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipDescription;
 import android.content.ClipboardManager;
@@ -17,14 +22,14 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.KeyEvent;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnKeyListener;
 import android.widget.FrameLayout;
-import android.widget.HorizontalScrollView;
-import android.widget.TextView;
+import android.widget.ListView;
 import android.widget.Toast;
 
 /**
@@ -32,10 +37,58 @@ import android.widget.Toast;
  */
 public class Main extends Activity implements OnKeyListener {
 
+  // Names of the state files in the cache directory.
+  private static final String STATE_FILE = "state";
+  // State written with Java serialization by versions before StateCodec.
+  private static final String LEGACY_STATE_FILE = "stack";
+  // File the stack is exported to and imported from.
+  private static final String STACK_FILE = "stack.csv";
+  private static final String STACK_ENCODING = "UTF-8";
+  private static final int WRITE_BUFFER = 65536;
+  // Suffix of the file an export is written to before it replaces the
+  // stack file.
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // Number of journal entries between snapshots of the full state.
+  private static final int SNAPSHOT_INTERVAL = 1000;
+
+  // Longest time an operation may run in the background, in milliseconds.
+  private static final long TIME_LIMIT = 10000;
+
+  // Number of keystrokes which can be undone.
+  private static final int UNDO_LEVELS = 100;
+  // Stack levels kept in memory; deeper ones spill to the cache directory.
+  private static final int SPILL_LEVELS = 10000;
+
+  private static StatePersister persister;
+
+  private Journal journal;
+  private OperationRunner runner;
+  private final CommandRegistry commands = new CommandRegistry();
+  private final CommandRegistry.Command enterCommand =
+      new CommandRegistry.Command() {
+        @Override
+        public void execute() {
+          keyEnter();
+        }
+      };
+  private final CommandRegistry.Command deleteCommand =
+      new CommandRegistry.Command() {
+        @Override
+        public void execute() {
+          keyDelete();
+        }
+      };
   private InputBuffer buffer;
   private CalculatorStack stack;
   private String error;
   private int screenlines;
+  private StackDisplay display;
+  // Reused array of display lines, top first.
+  private String[] lines;
+  // Zero at the current display scale, for an empty stack.
+  private String zeroText;
+  private int zeroScale;
 
   /**
    * Typical onCreate for an Android app. Shows an EULA, mostly for the
@@ -45,14 +98,19 @@ public class Main extends Activity implements OnKeyListener {
   public void onCreate(final Bundle savedInstanceState) {
     Log.d("Main", "onCreate");
     super.onCreate(savedInstanceState);
+    Logger.setSink(new AndroidLogSink());
     Eula.show(this);
     setContentView(R.layout.main);
+    this.runner = new OperationRunner(TIME_LIMIT);
+    registerCommands();
+    this.commands.bind(findViewById(R.id.keygrid));
     loadState();
+    this.stack.setUndoLevels(UNDO_LEVELS);
   }
 
   /**
    * Accesses the FrameLayout containing the calculator display and the 
-   * TextView within it, and calculates the number of lines of text that can 
+   * display within it, and calculates the number of lines of text that can 
    * be shown given the font size.
    * Catching onWindowFocusChanged is the best way to get access to the final
    * sizing of one or more widgets.
@@ -61,7 +119,7 @@ public class Main extends Activity implements OnKeyListener {
   public void onWindowFocusChanged(final boolean hasFocus) {
     super.onWindowFocusChanged(hasFocus);
     // At this point we are guaranteed to have been laid out on screen
-    final TextView disp = (TextView) findViewById(R.id.Display);
+    final StackDisplay disp = (StackDisplay) findViewById(R.id.Display);
     final FrameLayout hsv = (FrameLayout) findViewById(R.id.TopFrame);
     this.screenlines = 1 + Math.round((float) hsv.getHeight() / 
         (float) disp.getLineHeight());
@@ -86,48 +144,71 @@ public class Main extends Activity implements OnKeyListener {
     inflater.inflate(R.menu.main, menu);
     // Set the display to have a context menu. This will cause our
     // onCreateContextMenu method to be called when the display is long pressed
-    final TextView disp = (TextView) findViewById(R.id.Display);
-    registerForContextMenu(disp);
+    registerForContextMenu(findViewById(R.id.Display));
     return true;
   }
 
   /**
-   * Updates the N-level stack display on screen.
+   * Updates the N-level stack display on screen. Works out the text of each
+   * line, and leaves it to the display to measure only the lines which have
+   * changed.
    */
   public void updateDisplay() {
-    final TextView disp = (TextView) findViewById(R.id.Display);
-    StringBuilder text;
-    if (this.buffer.isEmpty() && this.error == null) {
-      if (this.stack.isEmpty()) {
-        // Display zero rather than a totally empty display
-        text = new StringBuilder();
-        for (int i = 1; i < this.screenlines - 1; i++) {
-          text.append('\n');
-        }
-        text.append('0');
-        final int scale = this.stack.getScale();
-        if (scale > 0) {
-          text.append('.');
-          for (int i = 0; i < scale; i++) {
-            text.append('0');
-          }
-        }
+    if (this.screenlines < 1) {
+      // Not laid out yet; onWindowFocusChanged will call back.
+      return;
+    }
+    if (this.display == null) {
+      this.display = (StackDisplay) findViewById(R.id.Display);
+    }
+    if (this.lines == null || this.lines.length != this.screenlines) {
+      this.lines = new String[this.screenlines];
+    }
+    final String[] text = this.lines;
+    int levels = this.screenlines;
+    final boolean busy = this.runner.isBusy();
+    if (!this.buffer.isEmpty() || this.error != null || busy) {
+      // The bottom line shows the input buffer or an error message, or that
+      // an operation is running, for as long as it runs.
+      levels--;
+      if (this.error != null) {
+        text[levels] = this.error;
+        this.error = null;
+      } else if (busy) {
+        text[levels] = getString(R.string.busy);
       } else {
-        text = this.stack.toString(this.screenlines);
+        text[levels] = this.buffer.get();
       }
-    } else {
-      text = this.stack.toString(this.screenlines - 1);
-      text.append("\n");
-      if (this.error == null) {
-        text.append(this.buffer.get());
-      } else {
-        text.append(this.error);
-        this.error = null;
+    }
+    final int depth = this.stack.size();
+    for (int i = 0; i < levels; i++) {
+      final int level = levels - 1 - i;
+      text[i] = level < depth ? this.stack.format(level) : "";
+    }
+    if (depth == 0 && levels == this.screenlines) {
+      // Display zero rather than a totally empty display
+      text[levels - 1] = zero();
+    }
+    this.display.render(text);
+  }
+
+  /**
+   * Gets zero formatted to the current display scale.
+   */
+  private String zero() {
+    final int scale = this.stack.getScale();
+    if (this.zeroText == null || this.zeroScale != scale) {
+      final StringBuilder text = new StringBuilder("0");
+      if (scale > 0) {
+        text.append('.');
+        for (int i = 0; i < scale; i++) {
+          text.append('0');
+        }
       }
+      this.zeroText = text.toString();
+      this.zeroScale = scale;
     }
-    disp.setLines(this.screenlines);
-    disp.setText(text);
-    scrollToRight();
+    return this.zeroText;
   }
 
   /**
@@ -139,6 +220,40 @@ public class Main extends Activity implements OnKeyListener {
       final String num = this.buffer.get();
       this.stack.push(num);
       this.buffer.zap();
+      record(Journal.ENTER);
+    }
+  }
+
+  /**
+   * Records an operation in the journal, and takes a snapshot of the state if
+   * the journal has grown long enough.
+   * @param op a Journal opcode
+   */
+  private void record(final byte op) {
+    this.journal.record(op);
+    if (this.journal.needsSnapshot()) {
+      saveState();
+    }
+  }
+
+  /**
+   * Records the results of a background computation in the journal, so that
+   * recovery doesn't have to compute them again.
+   */
+  private void recordCommit(final int arity, final Decimal[] results) {
+    this.journal.recordCommit(arity, results);
+    if (this.journal.needsSnapshot()) {
+      saveState();
+    }
+  }
+
+  /**
+   * Records the current input buffer contents in the journal.
+   */
+  private void recordBuffer() {
+    this.journal.recordBuffer(this.buffer);
+    if (this.journal.needsSnapshot()) {
+      saveState();
     }
   }
 
@@ -150,8 +265,10 @@ public class Main extends Activity implements OnKeyListener {
   private void keyDelete() {
     if (this.buffer.isEmpty()) {
       this.stack.drop();
+      record(Journal.DROP);
     } else {
       this.buffer.delete();	
+      recordBuffer();
     }
     this.updateDisplay();
   }
@@ -165,115 +282,169 @@ public class Main extends Activity implements OnKeyListener {
   private void keyEnter() {
     if (this.buffer.isEmpty()) {
       this.stack.dup();
+      record(Journal.DUP);
     } else {
       final String num = this.buffer.get();
       this.stack.push(num);
       this.buffer.zap();
+      record(Journal.ENTER);
     }
     this.updateDisplay();
   }
 
   /**
-   * Handles keyboard operations which can be represented by simple single
-   * character labels -- the digits, / + - * and .
-   * @param c the char on the key; a digit, '/' '+' '-' '*' or '.'.
-   * @return true if the keystroke was handled.
+   * Performs a stack operation, first pushing any number being typed. Slow
+   * operations run in the background.
    */
-  private boolean keyOther(final char c) {
-    boolean handled = false;
-    switch (c) {
-    case '+':
-      implicitPush();
-      this.stack.add();
-      this.updateDisplay();
-      handled = true;
-      break;
-    case '-':
-      implicitPush();
-      this.stack.subtract();
-      this.updateDisplay();
-      handled = true;
-      break;
-    case '*':
-      implicitPush();
-      this.stack.multiply();
-      this.updateDisplay();
-      handled = true;
-      break;
-    case '/':
+  private class OpCommand implements CommandRegistry.Command {
+
+    private final Op op;
+
+    OpCommand(final Op op) {
+      this.op = op;
+    }
+
+    @Override
+    public void execute() {
       implicitPush();
-      this.error = this.stack.divide();
-      this.updateDisplay();
-      handled = true;
-      break;
-    default:
-      if ((c >= '0' && c <= '9') || c == '.') {
-        this.buffer.append(c);
-        this.updateDisplay();
-        handled = true;
+      final Computation c = this.op.getComputation(Main.this.stack);
+      if (c != null) {
+        compute(c);
+      } else {
+        Main.this.error = this.op.apply(Main.this.stack);
+        record(this.op.getOpcode());
+        updateDisplay();
+      }
+    }
+  }
+
+  /**
+   * Types a digit or decimal point into the input buffer.
+   */
+  private class DigitCommand implements CommandRegistry.Command {
+
+    private final char digit;
+
+    DigitCommand(final char digit) {
+      this.digit = digit;
+    }
+
+    @Override
+    public void execute() {
+      Main.this.buffer.append(this.digit);
+      recordBuffer();
+      updateDisplay();
+    }
+  }
+
+  /**
+   * A copy of the stack which a program runs on in the background. After a
+   * timeout or cancel the worker may still be using it, so of the worker
+   * finishing and the UI giving it up, whichever comes second closes it.
+   */
+  private static final class Scratch {
+
+    final CalculatorStack stack;
+    private boolean finished;
+    private boolean abandoned;
+
+    Scratch(final CalculatorStack stack) {
+      this.stack = stack;
+    }
+
+    /**
+     * Called by the worker once it no longer uses the copy.
+     */
+    synchronized void finished() {
+      this.finished = true;
+      if (this.abandoned) {
+        this.stack.close();
+      }
+    }
+
+    /**
+     * Called on the UI thread when the copy won't be committed.
+     */
+    synchronized void abandon() {
+      this.abandoned = true;
+      if (this.finished) {
+        this.stack.close();
       }
     }
-    return handled;
   }
 
   /**
-   * Scrolls the number view over to the right. Generally called after any kind
-   * of buffer update, so that the update is actually displayed. Uses a queued
-   * thread for technical reasons.
+   * Registers the commands for every key.
    */
-  private void scrollToRight() {
-    // Enqueue the scrolling to happen after next layout
-    ((HorizontalScrollView) findViewById(R.id.Scroll)).post(new Runnable() {
+  private void registerCommands() {
+    for (final Op op : Op.values()) {
+      this.commands.register(op.getWord(), new OpCommand(op));
+    }
+    final String digits = "0123456789.";
+    for (int i = 0; i < digits.length(); i++) {
+      final char c = digits.charAt(i);
+      this.commands.register(String.valueOf(c), new DigitCommand(c));
+    }
+    this.commands.register("enter", this.enterCommand);
+    this.commands.register("bsp", this.deleteCommand);
+  }
+
+  /**
+   * Performs a command. While a background operation is running, the only
+   * command allowed is delete, which cancels it.
+   * @param command the command, or null for a key which does nothing
+   * @return whether the command was performed
+   */
+  private boolean dispatch(final CommandRegistry.Command command) {
+    if (command == null) {
+      return false;
+    }
+    if (this.runner.isBusy()) {
+      if (command == this.deleteCommand) {
+        this.runner.cancel();
+      }
+    } else {
+      this.stack.checkpoint(this.buffer);
+      command.execute();
+    }
+    return true;
+  }
+
+  /**
+   * Starts an operation which may take a while in the background. Its
+   * operands stay on the stack until it completes, when they are replaced by
+   * the results, which are journaled rather than the operation. If it fails,
+   * times out or is cancelled, the stack is left as it was and the error is
+   * shown.
+   * @param c the computation
+   */
+  private void compute(final Computation c) {
+    final Decimal[] args = this.stack.operands(c.getArity());
+    if (args == null) {
+      return;
+    }
+    this.runner.run(c, args, new OperationRunner.OnComplete() {
       @Override
-      public void run() {
-        ((HorizontalScrollView) findViewById(R.id.Scroll)).fullScroll(View.FOCUS_RIGHT);
+      public void onComplete(final Decimal[] results, final String message) {
+        if (results != null) {
+          Main.this.stack.commit(c.getArity(), results);
+          recordCommit(c.getArity(), results);
+        } else {
+          Main.this.error = message;
+        }
+        updateDisplay();
       }
     });
+    updateDisplay();
   }
 
   /**
-   * Handles all the on-screen buttons by examining their tag values from the
-   * UI declaration XML. Passes operations on to the various keyFoo methods.
+   * Handles all the on-screen buttons, by running the command bound to the
+   * button from its tag in the UI declaration XML.
    * @param v the View representing the button pressed
    */
   public void clickHandler(final View v) {
-    final String key = (String) v.getTag();
-    if ("sdp".equals(key)) {
-      implicitPush();
-      this.stack.setScale();
-      updateDisplay();
-    } else if ("drop".equals(key)) {
-      implicitPush();
-      this.stack.drop();
-      updateDisplay();
-    } else if ("swap".equals(key)) {
-      implicitPush();
-      this.stack.swap();
-      updateDisplay();
-    } else if ("pow".equals(key)) {
-      implicitPush();
-      this.error = this.stack.power();
-      updateDisplay();
-    } else if ("1/x".equals(key)) {
-      implicitPush();
-      this.error = this.stack.reciprocal();
-      updateDisplay();
-    } else if ("bsp".equals(key)) {
-      keyDelete();
-    } else if ("chs".equals(key)) {
-      implicitPush();
-      this.stack.chs();
-      updateDisplay();
-    } else if ("sqrt".equals(key)) {
-      implicitPush();
-      this.error = this.stack.sqrt();
-      updateDisplay();
-    } else if ("enter".equals(key)) {
-      keyEnter();
-    } else {
-      final char c = key.charAt(0);
-      keyOther(c);
-    }
+    dispatch(this.commands.forView(v));
   }
 
   /**
@@ -281,27 +452,17 @@ public class Main extends Activity implements OnKeyListener {
    */
   @Override
   public boolean onKey(final View v, final int code, final KeyEvent event) {
-    boolean result = false;
-    handler: {
-      if (event.getAction() == KeyEvent.ACTION_DOWN) {
-        // First, check for delete and enter
-        if (code == KeyEvent.KEYCODE_DEL) {
-          keyDelete();
-          result = true;
-          break handler;
-        }
-        if (code == KeyEvent.KEYCODE_ENTER) {
-          keyEnter();
-          result = true;
-          break handler;
-        }
-        // OK, must be a number or some other operation
-        final char c = (char) event.getUnicodeChar();
-        result = keyOther(c);
-        break handler;
-      }
+    if (event.getAction() != KeyEvent.ACTION_DOWN) {
+      return false;
     }
-    return result;
+    if (code == KeyEvent.KEYCODE_DEL) {
+      return dispatch(this.deleteCommand);
+    }
+    if (code == KeyEvent.KEYCODE_ENTER) {
+      return dispatch(this.enterCommand);
+    }
+    // OK, must be a number or some other operation
+    return dispatch(this.commands.forChar((char) event.getUnicodeChar()));
   }
 
   /**
@@ -310,34 +471,114 @@ public class Main extends Activity implements OnKeyListener {
   @Override
   public void onPause() {
     super.onPause();
+    Log.d("onPause", "Operand sizes: " + this.stack.getStats());
     saveState();
   }
 
   /**
-   * Saves state to internal device cache.
+   * Closes the journal, and the stack's spill files, when the activity goes
+   * away.
+   */
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    this.runner.cancel();
+    this.journal.close();
+    this.stack.close();
+  }
+
+  /**
+   * Saves a snapshot of state to internal device cache, and starts a new
+   * journal generation for the operations which follow. The write happens in
+   * the background, on copies of the stack and buffer.
    */
   private void saveState() {
+    final long generation = this.journal.startGeneration();
+    getPersister().save(this.stack.copy(), new InputBuffer(this.buffer.get()),
+        generation);
+  }
+
+  /**
+   * Gets the background state writer, creating it if necessary. There's one
+   * per process, so that a new activity instance can wait for writes queued
+   * by the one before it.
+   */
+  private StatePersister getPersister() {
+    synchronized (Main.class) {
+      if (persister == null) {
+        final File data = new File(getCacheDir(), STATE_FILE);
+        persister = new StatePersister(data, new StatePersister.OnSaveFailed() {
+          @Override
+          public void onSaveFailed(final IOException ex) {
+            Log.e("saveState", "Unable to save stack: " + ex.getMessage());
+          }
+        });
+        // Once a snapshot is safely written, the journals it includes can go.
+        final File dir = getCacheDir();
+        persister.setOnSaved(new StatePersister.OnSaved() {
+          @Override
+          public void onSaved(final long generation) {
+            Journal.deleteBefore(dir, generation);
+          }
+        });
+      }
+      return persister;
+    }
+  }
+
+  /**
+   * Loads state from internal device cache, replaying any journal entries
+   * recorded since the last snapshot, then takes a fresh snapshot. If there's
+   * no saved state but there is state saved by an older version using Java
+   * serialization, that is loaded instead, and migrated to the current format.
+   */
+  private void loadState() {
     final File dir = getCacheDir();
-    final File data = new File(dir,"stack");
-    FileOutputStream fos = null;
-    ObjectOutputStream out = null;
+    final File data = new File(dir, STATE_FILE);
+    final File legacy = new File(dir, LEGACY_STATE_FILE);
+    this.journal = new Journal(dir, SNAPSHOT_INTERVAL);
+    if (!data.exists() && legacy.exists()) {
+      loadLegacyState(legacy);
+      saveState();
+      if (!legacy.delete()) {
+        Log.w("loadState", "Unable to delete " + legacy.getPath());
+      }
+      return;
+    }
     try {
-      fos = new FileOutputStream(data);
-      out = new ObjectOutputStream(fos);
-      out.writeObject(this.stack);
-      out.writeObject(this.buffer);
-      out.close();
+      getPersister().flush();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    this.buffer = new InputBuffer();
+    this.stack = new CalculatorStack();
+    this.stack.setSpill(dir, SPILL_LEVELS);
+    long generation = 0;
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(data);
+      generation = StateCodec.read(fis, this.stack, this.buffer);
+      fis.close();
+    } catch (FileNotFoundException ex) {
+      //	Log.i("loadState","No state file found, instantiating empty state"); 
     } catch (IOException ex) {
-      reportError("saveState","Unable to save stack: " + ex.getMessage());
+      reportError("loadState","Unable to load stack: " + ex.getMessage());
+      this.stack.close();
+      this.buffer = new InputBuffer();
+      this.stack = new CalculatorStack();
+      this.stack.setSpill(dir, SPILL_LEVELS);
+      // The journals follow on from the lost snapshot, not an empty stack.
+      this.journal.discard();
+      generation = 0;
     }
+    this.journal.replay(generation, this.stack, this.buffer);
+    saveState();
   }
 
   /**
-   * Loads state from internal device cache.
+   * Loads state saved with Java serialization by earlier versions.
    */
-  private void loadState() {
-    final File dir = getCacheDir();
-    final File data = new File(dir,"stack");
+  private void loadLegacyState(final File data) {
     FileInputStream fis = null;
     ObjectInputStream in = null;
     try {
@@ -346,10 +587,6 @@ public class Main extends Activity implements OnKeyListener {
       this.stack = (CalculatorStack) in.readObject();
       this.buffer = (InputBuffer) in.readObject();
       in.close();
-    } catch (FileNotFoundException ex) {
-      //	Log.i("loadState","No state file found, instantiating empty state"); 
-      this.buffer = new InputBuffer();
-      this.stack = new CalculatorStack();
     } catch (IOException ex) {
       reportError("loadState","Unable to load stack: " + ex.getMessage());
     } catch (ClassNotFoundException ex) {
@@ -361,6 +598,7 @@ public class Main extends Activity implements OnKeyListener {
     if (this.stack == null) {
       this.stack = new CalculatorStack();
     }
+    this.stack.setSpill(getCacheDir(), SPILL_LEVELS);
   }
 
   /**
@@ -385,10 +623,10 @@ public class Main extends Activity implements OnKeyListener {
     Context ctx = this.getBaseContext();
     ClipboardManager clipboard = 
         (ClipboardManager) ctx.getSystemService(Context.CLIPBOARD_SERVICE);
-    final TextView t = (TextView) findViewById(R.id.Display);
-    String text = t.getText().toString();
-    int lastnl = text.lastIndexOf('\n');
-    String tocopy = text.substring(lastnl + 1);
+    String tocopy = "";
+    if (this.display != null) {
+      tocopy = this.display.getBottomLine();
+    }
     Log.d("copy", "Putting " + tocopy + " on clipboard");
     ClipData clip = ClipData.newPlainText("RPN calculator value", tocopy);
     clipboard.setPrimaryClip(clip);
@@ -396,25 +634,293 @@ public class Main extends Activity implements OnKeyListener {
   }
 
   /**
-   * Implements a clipboard paste. If the clipboard contains some plain text,
-   * it is treated as keyboard input.
+   * Implements a clipboard paste. If the clipboard holds a single unsigned
+   * number, it is typed into the input buffer, so that it can be edited.
+   * Otherwise the text is taken as RPN input: it is compiled in one pass,
+   * and if every word is known, run straight onto the stack, so that pasting
+   * a long column of numbers doesn't redraw the display for each one. As
+   * the journal has no entry for that, a snapshot is taken afterwards.
+   * Programs with operations which can be slow are run in the background
+   * instead, on a copy of the stack which replaces it if the whole program
+   * succeeds.
    * @return
    */
   private boolean paste() {
+    if (this.runner.isBusy()) {
+      return false;
+    }
     Context ctx = this.getBaseContext();
     ClipboardManager clipboard = 
         (ClipboardManager) ctx.getSystemService(Context.CLIPBOARD_SERVICE);
     ClipData.Item item = clipboard.getPrimaryClip().getItemAt(0);
     CharSequence text = item.getText();
-    Log.d("paste", "Asked to paste " + text.toString());
-    // Dispatch as keypresses to self
+    if (text == null) {
+      return false;
+    }
+    final String input = text.toString().trim();
+    Log.d("paste", "Asked to paste " + input.length() + " characters");
+    this.stack.checkpoint(this.buffer);
+    if (isTypeable(input)) {
+      for (int i = 0; i < input.length(); i++) {
+        final char c = input.charAt(i);
+        // Skip any digit grouping, as from copy.
+        if (c != ',') {
+          this.buffer.append(c);
+        }
+      }
+      recordBuffer();
+    } else {
+      try {
+        final Program program = Program.compile(input);
+        implicitPush();
+        if (program.isSlow()) {
+          compute(program);
+        } else {
+          this.error = program.run(this.stack);
+          saveState();
+        }
+      } catch (IllegalArgumentException ex) {
+        this.error = ex.getMessage();
+      }
+    }
+    updateDisplay();
+    return true;
+  }
+
+  /**
+   * Runs a program in the background, on a copy of the stack. If the whole
+   * program succeeds, the copy replaces the stack and a snapshot is taken;
+   * if it fails, times out or is cancelled, the stack is left as it was and
+   * the error is shown, and the copy is closed.
+   */
+  private void compute(final Program program) {
+    final Scratch scratch = new Scratch(this.stack.copy());
+    this.runner.run(new Computation(0) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        try {
+          final String message = program.run(scratch.stack);
+          if (message != null) {
+            throw new ArithmeticException(message);
+          }
+        } finally {
+          scratch.finished();
+        }
+        return args;
+      }
+    }, new Decimal[0], new OperationRunner.OnComplete() {
+      @Override
+      public void onComplete(final Decimal[] results, final String message) {
+        if (results != null) {
+          Main.this.stack.commit(scratch.stack);
+          saveState();
+        } else {
+          scratch.abandon();
+          Main.this.error = message;
+        }
+        updateDisplay();
+      }
+    });
+  }
+
+  /**
+   * Returns whether text is an unsigned number which could be typed into
+   * the input buffer. Its integer part may be grouped in threes by commas,
+   * as from copy; any other comma, as in a row of CSV data, means the text
+   * is not a single number.
+   */
+  private static boolean isTypeable(final String text) {
+    final int point = text.indexOf('.');
+    final int end = point < 0 ? text.length() : point;
+    final boolean grouped = text.lastIndexOf(',', end) >= 0;
+    if (text.length() == 0 || grouped && end % 4 == 0) {
+      return false;
+    }
     for (int i = 0; i < text.length(); i++) {
-      char c = text.charAt(i);
-      keyOther(c);
+      final char c = text.charAt(i);
+      final boolean valid;
+      if (i >= end) {
+        valid = c >= '0' && c <= '9' || c == '.';
+      } else if (grouped && (end - i) % 4 == 0) {
+        valid = c == ',';
+      } else {
+        valid = c >= '0' && c <= '9';
+      }
+      if (!valid) {
+        return false;
+      }
     }
     return true;
   }
-  
+
+  /**
+   * Gets the file the stack is exported to and imported from, in the app's
+   * external storage if there is any, where the user can reach it.
+   */
+  private File getStackFile() {
+    File dir = getExternalFilesDir(null);
+    if (dir == null) {
+      dir = getFilesDir();
+    }
+    return new File(dir, STACK_FILE);
+  }
+
+  /**
+   * Shows every level of the stack in a scrolling list, with the top of the
+   * stack at the bottom, as on the display. The dialog is modal, and nothing
+   * can be running in the background while it's open, so the stack can't
+   * change under it.
+   * @return true if the list was shown
+   */
+  private boolean viewStack() {
+    if (this.runner.isBusy()) {
+      return false;
+    }
+    final LayoutInflater inflater = LayoutInflater.from(this);
+    final ListView list = (ListView) inflater.inflate(R.layout.stack_viewer,
+        null, false);
+    final StackAdapter adapter = new StackAdapter(this.stack, inflater);
+    list.setAdapter(adapter);
+    list.setOnScrollListener(adapter);
+    list.setSelection(adapter.getCount() - 1);
+    new AlertDialog.Builder(this).setTitle(R.string.view_stack).setView(list)
+        .setPositiveButton(android.R.string.ok, null).show();
+    return true;
+  }
+
+  /**
+   * Writes the whole stack to the stack file, one value per line. The file
+   * is written in the background, from a copy of the stack, streaming each
+   * value through a buffer rather than building the text in memory. As with
+   * saved state, it's written to a temporary file which then replaces the
+   * stack file, so a failure or cancellation leaves the old file whole.
+   * @return true if the export was started
+   */
+  private boolean exportStack() {
+    if (this.runner.isBusy()) {
+      return false;
+    }
+    final File file = getStackFile();
+    final File temp = new File(file.getPath() + TEMP_SUFFIX);
+    final CalculatorStack snapshot = this.stack.copy();
+    final int size = snapshot.size();
+    this.runner.run(new OperationRunner.Task() {
+      @Override
+      public Decimal[] run() throws IOException {
+        boolean written = false;
+        try {
+          final FileOutputStream fos = new FileOutputStream(temp);
+          try {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(fos,
+                STACK_ENCODING), WRITE_BUFFER);
+            StackText.write(snapshot, out, '\n');
+            out.flush();
+            fos.getFD().sync();
+          } finally {
+            fos.close();
+          }
+          if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file.getPath());
+          }
+          written = true;
+        } finally {
+          snapshot.close();
+          if (!written && !temp.delete()) {
+            Log.w("exportStack", "Unable to delete " + temp.getPath());
+          }
+        }
+        return new Decimal[0];
+      }
+    }, new OperationRunner.OnComplete() {
+      @Override
+      public void onComplete(final Decimal[] results, final String message) {
+        if (results != null) {
+          Toast.makeText(getApplicationContext(), getString(R.string.exported,
+              Integer.valueOf(size), file.getPath()),
+              Toast.LENGTH_LONG).show();
+        } else {
+          Main.this.error = message;
+        }
+        updateDisplay();
+      }
+    });
+    updateDisplay();
+    return true;
+  }
+
+  /**
+   * Reads numbers from the stack file, one per line or comma separated, and
+   * pushes them onto the stack, the last on top. The file is read in the
+   * background; nothing is pushed unless all of it can be read. As the
+   * journal has no entry for that, a snapshot is taken afterwards.
+   * @return true if the import was started
+   */
+  private boolean importStack() {
+    if (this.runner.isBusy()) {
+      return false;
+    }
+    final File file = getStackFile();
+    this.stack.checkpoint(this.buffer);
+    implicitPush();
+    this.runner.run(new OperationRunner.Task() {
+      @Override
+      public Decimal[] run() throws IOException {
+        final Reader in = new InputStreamReader(new FileInputStream(file),
+            STACK_ENCODING);
+        try {
+          return StackText.read(in);
+        } finally {
+          in.close();
+        }
+      }
+    }, new OperationRunner.OnComplete() {
+      @Override
+      public void onComplete(final Decimal[] results, final String message) {
+        if (results != null) {
+          Main.this.stack.pushAll(results);
+          saveState();
+        } else {
+          Main.this.error = message;
+        }
+        updateDisplay();
+      }
+    });
+    updateDisplay();
+    return true;
+  }
+
+  /**
+   * Runs an operation chosen from the menu, just as if it had a key.
+   * @return true if the operation was run
+   */
+  private boolean run(final Op op) {
+    return dispatch(this.commands.forTag(op.getWord()));
+  }
+
+  /**
+   * Undoes or redoes the last keystroke, journaling the changes it made. If
+   * it restored the whole stack, as undoing a clear does, a snapshot is
+   * taken instead.
+   * @param redo whether to redo rather than undo
+   * @return true if there was something to undo or redo
+   */
+  private boolean undo(final boolean redo) {
+    if (this.runner.isBusy()) {
+      return false;
+    }
+    final boolean done = redo ? this.stack.redo(this.buffer) :
+        this.stack.undo(this.buffer);
+    if (done) {
+      this.error = null;
+      if (!this.journal.recordStep(this.stack) ||
+          this.journal.needsSnapshot()) {
+        saveState();
+      }
+      updateDisplay();
+    }
+    return done;
+  }
+
   /**
    * Prepares the context menu shown by the display. It behaves just like the
    * options menu.
@@ -433,12 +939,15 @@ public class Main extends Activity implements OnKeyListener {
   
   /**
    * Prepares the options menu. Checks if the clipboard has text on it, and
-   * enables or disables the paste operation accordingly.
+   * enables or disables the paste operation accordingly, and likewise undo
+   * and redo by whether there's anything to undo or redo.
    */
   @Override
   public boolean onPrepareOptionsMenu(final Menu menu) {
     Context ctx = this.getBaseContext();
     MenuItem pasteitem = menu.findItem(android.R.id.paste);
+    menu.findItem(R.id.undo).setEnabled(this.stack.canUndo());
+    menu.findItem(R.id.redo).setEnabled(this.stack.canRedo());
     // Now check the clipboard and set the menu entry states
     ClipboardManager clipboard = 
         (ClipboardManager) ctx.getSystemService(Context.CLIPBOARD_SERVICE);
@@ -459,7 +968,8 @@ public class Main extends Activity implements OnKeyListener {
   }
 
   /**
-   * Handles an options menu selection, either copy or paste.
+   * Handles an options menu selection: copy, paste, view, export, import,
+   * undo, redo, or one of the whole stack or statistics operations.
    */
   @Override
   public boolean onOptionsItemSelected(final MenuItem item) {
@@ -471,6 +981,63 @@ public class Main extends Activity implements OnKeyListener {
     case android.R.id.paste:
       result = this.paste();
       break;
+    case R.id.view_stack:
+      result = viewStack();
+      break;
+    case R.id.export_stack:
+      result = exportStack();
+      break;
+    case R.id.import_stack:
+      result = importStack();
+      break;
+    case R.id.undo:
+      result = undo(false);
+      break;
+    case R.id.redo:
+      result = undo(true);
+      break;
+    case R.id.stack_sum:
+      result = run(Op.SUM);
+      break;
+    case R.id.stack_product:
+      result = run(Op.PRODUCT);
+      break;
+    case R.id.stack_min:
+      result = run(Op.MIN);
+      break;
+    case R.id.stack_max:
+      result = run(Op.MAX);
+      break;
+    case R.id.stack_chs:
+      result = run(Op.CHS_ALL);
+      break;
+    case R.id.stack_multiply:
+      result = run(Op.MULTIPLY_ALL);
+      break;
+    case R.id.stack_reciprocal:
+      result = run(Op.RECIPROCAL_ALL);
+      break;
+    case R.id.stack_sqrt:
+      result = run(Op.SQRT_ALL);
+      break;
+    case R.id.stat_add:
+      result = run(Op.STAT_ADD);
+      break;
+    case R.id.stat_sub:
+      result = run(Op.STAT_REMOVE);
+      break;
+    case R.id.stat_mean:
+      result = run(Op.MEAN);
+      break;
+    case R.id.stat_sdev:
+      result = run(Op.SDEV);
+      break;
+    case R.id.stat_lr:
+      result = run(Op.LINE);
+      break;
+    case R.id.stat_clear:
+      result = run(Op.STAT_CLEAR);
+      break;
     default:
       result = super.onOptionsItemSelected(item);
     }
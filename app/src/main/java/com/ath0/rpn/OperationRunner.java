@@ -0,0 +1,191 @@
+package com.ath0.rpn;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs Computations on a worker thread, so that expensive operations don't
+ * freeze the UI. One computation runs at a time. The result is delivered on
+ * the UI thread, where the caller commits it to the stack. A computation
+ * which takes longer than the time limit is interrupted, and the user can
+ * cancel one at any time; either way the caller is told immediately, and any
+ * late result from the worker is discarded.
+ * Other background work, such as file I/O, runs as a Task in the same way,
+ * but without the time limit, as its time depends on storage rather than on
+ * arithmetic.
+ */
+public class OperationRunner {
+
+  /**
+   * Callback for the outcome of a computation. Called on the UI thread.
+   */
+  public static interface OnComplete {
+
+    /**
+     * Called when the computation finishes, fails or is cancelled.
+     * @param results the results, deepest first, or null if there was an
+     * error
+     * @param error an error message, or null if there were results
+     */
+    void onComplete(Decimal[] results, String error);
+  }
+
+  /**
+   * Background work which isn't arithmetic, and so has no time limit. It
+   * can still be cancelled.
+   */
+  public static interface Task {
+
+    /**
+     * Does the work. Called on the worker thread.
+     * @return any values read, deepest first, or an empty array
+     * @throws IOException with a message suitable for display, if the work
+     * fails
+     * @throws CancellationException if the thread was interrupted
+     */
+    Decimal[] run() throws IOException;
+  }
+
+  private final ExecutorService executor;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // Maximum time a computation may run, in milliseconds.
+  private final long timeLimit;
+
+  // These are only used on the UI thread.
+  private Future<?> task;
+  private OnComplete callback;
+  // Identifies the current computation, so stale results can be ignored.
+  private int job;
+
+  private final Runnable timeout = new Runnable() {
+    @Override
+    public void run() {
+      finish(OperationRunner.this.job, null, "Timed out");
+    }
+  };
+
+  /**
+   * @param timeLimit the maximum time a computation may run, in milliseconds
+   */
+  public OperationRunner(final long timeLimit) {
+    super();
+    this.timeLimit = timeLimit;
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "OperationRunner");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Returns whether a computation is in progress.
+   */
+  public boolean isBusy() {
+    return this.callback != null;
+  }
+
+  /**
+   * Starts a computation. Must be called on the UI thread, when not busy.
+   * @param c the computation
+   * @param args its operands, deepest first
+   * @param onComplete told of the outcome
+   */
+  public void run(final Computation c, final Decimal[] args,
+      final OnComplete onComplete) {
+    start(new Task() {
+      @Override
+      public Decimal[] run() {
+        return c.computeAll(args);
+      }
+    }, onComplete, true);
+  }
+
+  /**
+   * Starts a task, with no time limit. Must be called on the UI thread,
+   * when not busy.
+   * @param task the work
+   * @param onComplete told of the outcome
+   */
+  public void run(final Task task, final OnComplete onComplete) {
+    start(task, onComplete, false);
+  }
+
+  private void start(final Task t, final OnComplete onComplete,
+      final boolean limited) {
+    final int id = ++this.job;
+    this.callback = onComplete;
+    this.task = this.executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        Decimal[] results = null;
+        String error = null;
+        try {
+          results = t.run();
+        } catch (Throwable e) {
+          // Even an Error, such as running out of memory in a deep program,
+          // is reported, so that the runner doesn't stay busy.
+          error = describe(e);
+        } finally {
+          final Decimal[] r = results;
+          final String e = results == null && error == null ? "Failed" :
+              error;
+          OperationRunner.this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+              finish(id, r, e);
+            }
+          });
+        }
+      }
+    });
+    if (limited) {
+      this.handler.postDelayed(this.timeout, this.timeLimit);
+    }
+  }
+
+  /**
+   * Cancels the computation in progress, if any.
+   */
+  public void cancel() {
+    finish(this.job, null, "Cancelled");
+  }
+
+  /**
+   * Gets a message for a failure, falling back to the name of its class for
+   * exceptions without one.
+   */
+  private static String describe(final Throwable e) {
+    final String message = e.getMessage();
+    return message != null ? message : e.getClass().getSimpleName();
+  }
+
+  /**
+   * Ends a computation and reports its outcome, unless it has already ended.
+   */
+  private void finish(final int id, final Decimal[] results,
+      final String error) {
+    if (id != this.job || this.callback == null) {
+      return;
+    }
+    this.handler.removeCallbacks(this.timeout);
+    if (results == null) {
+      // Interrupt the worker in case it's still running.
+      this.task.cancel(true);
+    }
+    final OnComplete c = this.callback;
+    this.callback = null;
+    this.task = null;
+    c.onComplete(results, error);
+  }
+
+}
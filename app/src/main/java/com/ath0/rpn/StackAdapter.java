@@ -0,0 +1,138 @@
+package com.ath0.rpn;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Shows every level of a CalculatorStack in a ListView, deepest first, so
+ * that the top of the stack is at the bottom as on the main display. The
+ * ListView only asks for the rows on screen and recycles their views, so
+ * however deep the stack, only the rows scrolled into view are formatted.
+ * Formatted rows are kept in a small cache indexed by position, rather than
+ * with the stack's values, so browsing doesn't leave text cached for every
+ * level. While the list scrolls, the rows just beyond the edge it's moving
+ * towards are formatted in advance, after the frame is drawn, so flinging
+ * doesn't stall on formatting.
+ * The stack mustn't change while the adapter is in use.
+ */
+public class StackAdapter extends BaseAdapter
+    implements AbsListView.OnScrollListener {
+
+  // Rows of formatted text kept; a power of two, comfortably more than fit
+  // on a screen plus the prefetch in both directions.
+  private static final int CACHE_SIZE = 256;
+  // Rows formatted in advance of scrolling.
+  private static final int PREFETCH = 32;
+
+  private final CalculatorStack stack;
+  private final LayoutInflater inflater;
+  // Position each cache entry holds, or -1.
+  private final int[] cachedPositions = new int[CACHE_SIZE];
+  private final String[] cachedText = new String[CACHE_SIZE];
+  // The first row to prefetch, and how many; the list's scroll direction
+  // decides which side.
+  private int prefetchFrom;
+  private int prefetchCount;
+  private int lastFirst;
+  private View list;
+
+  private final Runnable prefetch = new Runnable() {
+    @Override
+    public void run() {
+      final int end = Math.min(StackAdapter.this.prefetchFrom +
+          StackAdapter.this.prefetchCount, getCount());
+      for (int p = Math.max(StackAdapter.this.prefetchFrom, 0); p < end;
+          p++) {
+        getText(p);
+      }
+    }
+  };
+
+  /**
+   * @param stack the stack to show
+   * @param inflater used to create row views
+   */
+  public StackAdapter(final CalculatorStack stack,
+      final LayoutInflater inflater) {
+    super();
+    this.stack = stack;
+    this.inflater = inflater;
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      this.cachedPositions[i] = -1;
+    }
+  }
+
+  @Override
+  public int getCount() {
+    return this.stack.size();
+  }
+
+  /**
+   * Gets the formatted text of a row.
+   */
+  @Override
+  public Object getItem(final int position) {
+    return getText(position);
+  }
+
+  @Override
+  public long getItemId(final int position) {
+    return position;
+  }
+
+  @Override
+  public View getView(final int position, final View convertView,
+      final ViewGroup parent) {
+    View row = convertView;
+    if (row == null) {
+      row = this.inflater.inflate(R.layout.stack_row, parent, false);
+    }
+    ((TextView) row.findViewById(R.id.StackRow)).setText(getText(position));
+    return row;
+  }
+
+  @Override
+  public void onScrollStateChanged(final AbsListView view, final int state) {
+    // Prefetching follows the scroll position.
+  }
+
+  /**
+   * Queues formatting of the rows the list is scrolling towards.
+   */
+  @Override
+  public void onScroll(final AbsListView view, final int first,
+      final int visible, final int total) {
+    if (first == this.lastFirst) {
+      return;
+    }
+    this.prefetchFrom = first > this.lastFirst ? first + visible :
+        first - PREFETCH;
+    this.prefetchCount = PREFETCH;
+    this.lastFirst = first;
+    if (this.list != null) {
+      this.list.removeCallbacks(this.prefetch);
+    }
+    this.list = view;
+    view.post(this.prefetch);
+  }
+
+  /**
+   * Gets the text of a row, as the level number and the formatted value,
+   * from the cache if it's there.
+   */
+  private String getText(final int position) {
+    final int i = position & (CACHE_SIZE - 1);
+    if (this.cachedPositions[i] != position) {
+      final int level = this.stack.size() - 1 - position;
+      this.cachedText[i] = (level + 1) + ": " +
+          this.stack.formatUncached(level);
+      this.cachedPositions[i] = position;
+    }
+    return this.cachedText[i];
+  }
+
+}
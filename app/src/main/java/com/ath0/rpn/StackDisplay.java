@@ -0,0 +1,205 @@
+package com.ath0.rpn;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * The calculator display: lines of text drawn straight onto the canvas,
+ * right aligned, with the bottom line at the bottom of the view. Its size
+ * doesn't depend on its text, so changing the text never needs a layout
+ * pass, just a redraw.
+ * The width of each line is measured only when its text changes. Widths are
+ * looked up by the line's text among the lines last shown, so a value which
+ * moves up a level as the stack grows keeps its width; lines which come
+ * from CalculatorStack's format cache are the same String objects when
+ * unchanged, so most lookups match by reference.
+ * Lines wider than the view are cut off on the left, and can be dragged
+ * sideways to see the rest. Whenever the text changes, the view goes back
+ * to showing the right hand end, as the least significant digits are the
+ * ones being typed.
+ */
+public class StackDisplay extends View {
+
+  // Text style, as TextAppearance.Large in black monospace.
+  private static final float TEXT_SIZE_SP = 22f;
+  private static final int TEXT_COLOR = 0xff000000;
+
+  private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+  private final int touchSlop;
+  // Lines currently displayed, top first, and their widths.
+  private String[] lines = new String[0];
+  private float[] widths = new float[0];
+  // The arrays shown before those, reused for the next lines.
+  private String[] spareLines = new String[0];
+  private float[] spareWidths = new float[0];
+  private float widest;
+  // How far the text is dragged right from its right-aligned position.
+  private float offset;
+  // Where the current drag is, and whether it has moved far enough to
+  // count as a drag rather than a press.
+  private float lastX;
+  private boolean dragging;
+
+  public StackDisplay(final Context context) {
+    super(context);
+    this.touchSlop = init(context);
+  }
+
+  public StackDisplay(final Context context, final AttributeSet attrs) {
+    super(context, attrs);
+    this.touchSlop = init(context);
+  }
+
+  public StackDisplay(final Context context, final AttributeSet attrs,
+      final int defStyle) {
+    super(context, attrs, defStyle);
+    this.touchSlop = init(context);
+  }
+
+  /**
+   * Sets up the paint.
+   * @return the touch slop, in pixels
+   */
+  private int init(final Context context) {
+    this.paint.setTypeface(Typeface.MONOSPACE);
+    this.paint.setColor(TEXT_COLOR);
+    this.paint.setTextAlign(Paint.Align.RIGHT);
+    this.paint.setTextSize(TEXT_SIZE_SP *
+        context.getResources().getDisplayMetrics().scaledDensity);
+    return ViewConfiguration.get(context).getScaledTouchSlop();
+  }
+
+  /**
+   * Gets the distance between the baselines of lines, in pixels.
+   */
+  public int getLineHeight() {
+    return Math.round(this.paint.getFontSpacing());
+  }
+
+  /**
+   * Updates the display to show the given lines, top line first. Nothing is
+   * redrawn if they're the same as those shown.
+   * @param newLines the text of each line; not retained
+   */
+  public void render(final String[] newLines) {
+    final String[] oldLines = this.lines;
+    final float[] oldWidths = this.widths;
+    boolean changed = newLines.length != oldLines.length;
+    if (!changed) {
+      for (int i = 0; i < newLines.length && !changed; i++) {
+        changed = !newLines[i].equals(oldLines[i]);
+      }
+    }
+    if (!changed) {
+      return;
+    }
+    if (this.spareLines.length != newLines.length) {
+      this.spareLines = new String[newLines.length];
+      this.spareWidths = new float[newLines.length];
+    }
+    final String[] shown = this.spareLines;
+    final float[] measured = this.spareWidths;
+    float max = 0;
+    for (int i = 0; i < newLines.length; i++) {
+      final String line = newLines[i];
+      final int j = find(oldLines, line);
+      measured[i] = j >= 0 ? oldWidths[j] : this.paint.measureText(line);
+      shown[i] = line;
+      max = Math.max(max, measured[i]);
+    }
+    this.spareLines = oldLines;
+    this.spareWidths = oldWidths;
+    this.lines = shown;
+    this.widths = measured;
+    this.widest = max;
+    this.offset = 0;
+    invalidate();
+  }
+
+  /**
+   * Gets the text of the bottom line of the display.
+   */
+  public String getBottomLine() {
+    return this.lines.length == 0 ? "" : this.lines[this.lines.length - 1];
+  }
+
+  @Override
+  protected void onDraw(final Canvas canvas) {
+    final float right = getWidth() - getPaddingRight() + this.offset;
+    final float lineHeight = this.paint.getFontSpacing();
+    float baseline = getHeight() - getPaddingBottom() - this.paint.descent();
+    for (int i = this.lines.length - 1; i >= 0 && baseline > 0; i--) {
+      canvas.drawText(this.lines[i], right, baseline, this.paint);
+      baseline -= lineHeight;
+    }
+  }
+
+  /**
+   * Drags the text sideways, when there's more than fits. Presses which
+   * don't move far are left to the View, so a long press still opens the
+   * context menu.
+   */
+  @Override
+  public boolean onTouchEvent(final MotionEvent event) {
+    super.onTouchEvent(event);
+    switch (event.getActionMasked()) {
+    case MotionEvent.ACTION_DOWN:
+      this.lastX = event.getX();
+      this.dragging = false;
+      break;
+    case MotionEvent.ACTION_MOVE:
+      final float dx = event.getX() - this.lastX;
+      if (!this.dragging && Math.abs(dx) > this.touchSlop) {
+        this.dragging = true;
+        cancelLongPress();
+      }
+      if (this.dragging) {
+        this.lastX = event.getX();
+        dragBy(dx);
+      }
+      break;
+    default:
+      break;
+    }
+    return true;
+  }
+
+  /**
+   * Moves the text sideways, within the range which keeps some of it in
+   * view at both ends.
+   */
+  private void dragBy(final float dx) {
+    final float room = getWidth() - getPaddingLeft() - getPaddingRight();
+    final float max = Math.max(0, this.widest - room);
+    final float newOffset = Math.max(0, Math.min(max, this.offset + dx));
+    if (newOffset != this.offset) {
+      this.offset = newOffset;
+      invalidate();
+    }
+  }
+
+  /**
+   * Finds a line among those last shown, by reference first.
+   * @return its index, or -1
+   */
+  private static int find(final String[] lines, final String line) {
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i] == line) {
+        return i;
+      }
+    }
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i].equals(line)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,132 @@
+package com.ath0.rpn.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+
+/**
+ * Times the arithmetic operations of CalculatorStack on operands of various
+ * sizes. Each invocation pushes two operands, applies the operation and
+ * returns the result, so the stack stays the same size throughout. The
+ * operands cycle through a fixed set, so the JIT can't specialize on one
+ * value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+
+  // Number of distinct operand pairs; a power of two.
+  private static final int PAIRS = 1024;
+
+  // Exponents for the power benchmarks.
+  private static final Decimal CUBE = Decimal.valueOf(3, 0);
+  private static final Decimal TWO_AND_A_HALF = Decimal.valueOf(25, 1);
+
+  /**
+   * Total digits in each operand. 4 and 18 fit the compact representation,
+   * 40 is just past the internal scale, and 200 is a large pasted value.
+   */
+  @Param({ "4", "18", "40", "200" })
+  public int digits;
+
+  private final CalculatorStack stack = new CalculatorStack();
+  private Decimal[] xs;
+  private Decimal[] ys;
+  private Decimal[] positive;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final Random random = Operands.random();
+    this.xs = new Decimal[PAIRS];
+    this.ys = new Decimal[PAIRS];
+    this.positive = new Decimal[PAIRS];
+    for (int i = 0; i < PAIRS; i++) {
+      this.xs[i] = Decimal.parse(Operands.number(random, this.digits));
+      this.ys[i] = Decimal.parse(Operands.number(random, this.digits));
+      final Decimal x = this.xs[i];
+      this.positive[i] = x.signum() < 0 ? x.negate() : x;
+    }
+  }
+
+  @Benchmark
+  public Decimal add() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.xs[i]);
+    this.stack.push(this.ys[i]);
+    this.stack.add();
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal multiply() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.xs[i]);
+    this.stack.push(this.ys[i]);
+    this.stack.multiply();
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal divide() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.xs[i]);
+    this.stack.push(this.ys[i]);
+    this.stack.divide();
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal sqrt() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.positive[i]);
+    this.stack.sqrt();
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal powerInteger() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.xs[i]);
+    this.stack.push(CUBE);
+    this.stack.power();
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal powerFractional() {
+    final int i = this.next++ & (PAIRS - 1);
+    this.stack.push(this.positive[i]);
+    this.stack.push(TWO_AND_A_HALF);
+    this.stack.power();
+    return pop();
+  }
+
+  /**
+   * Removes the result of an operation, so the stack doesn't grow.
+   */
+  private Decimal pop() {
+    final Decimal r = this.stack.peek(0);
+    this.stack.drop();
+    return r;
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.ath0.rpn.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.NumberFormatter;
+
+/**
+ * Times formatting numbers for display, both one at a time and as the
+ * screenful of stack levels built on every redisplay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+  // Number of distinct values; a power of two.
+  private static final int VALUES = 1024;
+
+  // Lines on a typical phone display.
+  private static final int LEVELS = 8;
+
+  /**
+   * Display scale, in decimal places.
+   */
+  @Param({ "0", "2", "10", "30" })
+  public int scale;
+
+  /**
+   * Total digits in each value.
+   */
+  @Param({ "4", "18", "40" })
+  public int digits;
+
+  private final NumberFormatter formatter = new NumberFormatter();
+  private Decimal[] values;
+  private CalculatorStack stack;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final Random random = Operands.random();
+    this.values = new Decimal[VALUES];
+    for (int i = 0; i < VALUES; i++) {
+      this.values[i] = Decimal.parse(Operands.number(random, this.digits));
+    }
+    this.stack = Operands.stack(LEVELS, this.digits);
+    this.stack.setScale(this.scale);
+  }
+
+  @Benchmark
+  public String formatNumber() {
+    return this.formatter.format(this.values[this.next++ & (VALUES - 1)],
+        this.scale);
+  }
+
+  /**
+   * Redisplay when nothing has changed, so all lines come from the cache.
+   */
+  @Benchmark
+  public StringBuilder toStringCached() {
+    return this.stack.toString(LEVELS);
+  }
+
+  /**
+   * Redisplay after the format cache has been invalidated, so every line
+   * is formatted.
+   */
+  @Benchmark
+  public StringBuilder toStringUncached() {
+    this.stack.setScale(this.scale + 1);
+    this.stack.setScale(this.scale);
+    return this.stack.toString(LEVELS);
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.ath0.rpn.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.InputBuffer;
+
+/**
+ * Times number entry: typing digits into the InputBuffer, and parsing the
+ * buffer contents when they're pushed onto the stack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputBenchmark {
+
+  // Number of distinct inputs; a power of two.
+  private static final int INPUTS = 1024;
+
+  /**
+   * Total digits in each number typed.
+   */
+  @Param({ "4", "18", "40", "200" })
+  public int digits;
+
+  private final InputBuffer buffer = new InputBuffer();
+  private final CalculatorStack stack = new CalculatorStack();
+  private String[] inputs;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final Random random = Operands.random();
+    this.inputs = new String[INPUTS];
+    for (int i = 0; i < INPUTS; i++) {
+      // Without the sign, which isn't typed into the buffer.
+      final String n = Operands.number(random, this.digits);
+      this.inputs[i] = n.charAt(0) == '-' ? n.substring(1) : n;
+    }
+  }
+
+  /**
+   * Types a number one key at a time, then clears the buffer.
+   */
+  @Benchmark
+  public String append() {
+    final String s = this.inputs[this.next++ & (INPUTS - 1)];
+    for (int i = 0; i < s.length(); i++) {
+      this.buffer.append(s.charAt(i));
+    }
+    final String result = this.buffer.get();
+    this.buffer.zap();
+    return result;
+  }
+
+  @Benchmark
+  public Decimal parse() {
+    return Decimal.parse(this.inputs[this.next++ & (INPUTS - 1)]);
+  }
+
+  /**
+   * Pushes a typed number, as the enter key does, then drops it again.
+   */
+  @Benchmark
+  public Decimal push() {
+    this.stack.push(this.inputs[this.next++ & (INPUTS - 1)]);
+    final Decimal r = this.stack.peek(0);
+    this.stack.drop();
+    return r;
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.ath0.rpn.bench;
+
+import java.util.Random;
+
+import com.ath0.rpn.CalculatorStack;
+
+/**
+ * Generates benchmark operands. The random sequence has a fixed seed, so
+ * every run of a benchmark with the same parameters works on the same
+ * numbers, and results from before and after a change are comparable.
+ */
+final class Operands {
+
+  private static final long SEED = 0x52504eL;
+
+  private Operands() {
+    super();
+  }
+
+  /**
+   * Returns a random source, always starting from the same seed.
+   */
+  static Random random() {
+    return new Random(SEED);
+  }
+
+  /**
+   * Returns a random number as it would be typed, with the given total
+   * number of digits, of which a quarter (rounded down) are after the
+   * decimal point, and a random sign.
+   */
+  static String number(final Random random, final int digits) {
+    final int fraction = digits / 4;
+    final StringBuilder s = new StringBuilder(digits + 2);
+    if (random.nextBoolean()) {
+      s.append('-');
+    }
+    // Leading digit is non-zero, so the number has the digits asked for.
+    s.append((char) ('1' + random.nextInt(9)));
+    for (int i = 1; i < digits; i++) {
+      if (i == digits - fraction) {
+        s.append('.');
+      }
+      s.append((char) ('0' + random.nextInt(10)));
+    }
+    return s.toString();
+  }
+
+  /**
+   * Returns a stack holding the given number of random values.
+   */
+  static CalculatorStack stack(final int levels, final int digits) {
+    final Random random = random();
+    final CalculatorStack stack = new CalculatorStack();
+    for (int i = 0; i < levels; i++) {
+      stack.push(number(random, digits));
+    }
+    return stack;
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.ath0.rpn.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.StateCodec;
+
+/**
+ * Times saving and loading the calculator state with StateCodec, for stacks
+ * from a handful of levels up to very deep ones. Streams are in memory, so
+ * this measures encoding and decoding rather than the storage device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  /**
+   * Number of levels on the stack.
+   */
+  @Param({ "10", "1000", "100000" })
+  public int levels;
+
+  /**
+   * Total digits in each value.
+   */
+  @Param({ "4", "40" })
+  public int digits;
+
+  private final InputBuffer buffer = new InputBuffer("12.5");
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private CalculatorStack stack;
+  private byte[] saved;
+
+  @Setup
+  public void setup() throws IOException {
+    this.stack = Operands.stack(this.levels, this.digits);
+    StateCodec.write(this.out, this.stack, this.buffer, 1);
+    this.saved = this.out.toByteArray();
+  }
+
+  @Benchmark
+  public int save() throws IOException {
+    this.out.reset();
+    StateCodec.write(this.out, this.stack, this.buffer, 1);
+    return this.out.size();
+  }
+
+  @Benchmark
+  public CalculatorStack load() throws IOException {
+    final CalculatorStack result = new CalculatorStack();
+    StateCodec.read(new ByteArrayInputStream(this.saved), result,
+        new InputBuffer());
+    return result;
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.ath0.rpn.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.Op;
+import com.ath0.rpn.Program;
+
+/**
+ * Times running a stored formula on an input value, compiled and as text
+ * interpreted one token at a time, as keystrokes are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBenchmark {
+
+  // Number of distinct inputs; a power of two.
+  private static final int INPUTS = 1024;
+
+  // Price with tax, less a discount rate worked out from constants.
+  private static final String FORMULA = "1.0825 * 1 0.15 - * 2 sdp";
+
+  private final CalculatorStack stack = new CalculatorStack();
+  private final Program program = Program.compile(FORMULA);
+  private final String[] tokens = FORMULA.split(" ");
+  private Decimal[] inputs;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final Random random = Operands.random();
+    this.inputs = new Decimal[INPUTS];
+    for (int i = 0; i < INPUTS; i++) {
+      this.inputs[i] = Decimal.parse(Operands.number(random, 8));
+    }
+  }
+
+  @Benchmark
+  public Decimal compiled() {
+    this.stack.push(this.inputs[this.next++ & (INPUTS - 1)]);
+    this.program.run(this.stack);
+    return pop();
+  }
+
+  @Benchmark
+  public Decimal interpreted() {
+    this.stack.push(this.inputs[this.next++ & (INPUTS - 1)]);
+    for (final String token : this.tokens) {
+      final Op op = Op.forWord(token);
+      if (op == null) {
+        this.stack.push(token);
+      } else {
+        op.apply(this.stack);
+      }
+    }
+    return pop();
+  }
+
+  private Decimal pop() {
+    final Decimal r = this.stack.peek(0);
+    this.stack.drop();
+    return r;
+  }
+
+}
@@ -0,0 +1,275 @@
+package com.ath0.rpn.cli;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.NumberFormatter;
+import com.ath0.rpn.Op;
+import com.ath0.rpn.Program;
+import com.ath0.rpn.Tokenizer;
+
+/**
+ * Evaluates RPN text in bulk, without the Android app. Input is a stream of
+ * numbers and operation words (the app's key tags, such as swap, pow, 1/x,
+ * sqrt and sdp, as well as + - * /), separated by whitespace. Each line is
+ * a calculation, and for each line of input one line of output is written:
+ * the value on top of the stack afterwards, at the current display scale;
+ * an empty line if the stack is empty; or "Error: " and a message.
+ * Optionally a compiled formula is applied at the end of every line, so the
+ * input can be just the data to run it on.
+ * Input is streamed and output written as it goes, so memory use doesn't
+ * depend on the size of the input.
+ */
+public class BatchEvaluator {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 65536;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private final CalculatorStack stack = new CalculatorStack();
+  private final NumberFormatter formatter = new NumberFormatter();
+  private final Writer out;
+  // Whether the stack carries over from one line to the next.
+  private final boolean keep;
+  // Applied at the end of each line, or null.
+  private Program formula;
+  private long lines;
+  private long errors;
+
+  /**
+   * @param out where to write results; not closed
+   * @param scale the initial display scale
+   * @param keep whether to keep the stack from one line to the next, rather
+   * than starting each line with an empty stack
+   */
+  public BatchEvaluator(final Writer out, final int scale,
+      final boolean keep) {
+    super();
+    this.out = out;
+    this.keep = keep;
+    this.stack.setScale(scale);
+    // Grouping separators would get in the way of other programs.
+    this.formatter.setGrouping(',', 0);
+  }
+
+  /**
+   * Gets the underlying stack, for setting limits.
+   */
+  public CalculatorStack getStack() {
+    return this.stack;
+  }
+
+  /**
+   * Enables or disables digit grouping in the output.
+   */
+  public void setGrouping(final boolean grouping) {
+    this.formatter.setGrouping(',', grouping ? 3 : 0);
+  }
+
+  /**
+   * Sets a program to run at the end of each line, before its result is
+   * written.
+   * @param program the program, or null for none
+   */
+  public void setFormula(final Program program) {
+    this.formula = program;
+  }
+
+  /**
+   * Evaluates all of the input. A last line without a line end still gets
+   * its result written.
+   * @param in the RPN text; not closed
+   * @return the number of tokens evaluated
+   * @throws IOException if reading or writing fails
+   */
+  public long evaluate(final Reader in) throws IOException {
+    final Tokenizer tokens = new Tokenizer(in);
+    String error = null;
+    boolean pending = false;
+    int type;
+    while ((type = tokens.next()) != Tokenizer.END) {
+      if (type == Tokenizer.LINE) {
+        endLine(error, pending);
+        error = null;
+        pending = false;
+      } else {
+        pending = true;
+        if (error == null) {
+          // After an error, the rest of the line is skipped.
+          error = evaluate(tokens.getToken());
+        }
+      }
+    }
+    if (pending) {
+      endLine(error, true);
+    }
+    this.out.flush();
+    return tokens.getTokens();
+  }
+
+  /**
+   * Gets the number of result lines written.
+   */
+  public long getLines() {
+    return this.lines;
+  }
+
+  /**
+   * Gets the number of lines which ended in an error.
+   */
+  public long getErrors() {
+    return this.errors;
+  }
+
+  /**
+   * Evaluates one token.
+   * @return an error message, or null if there is no error
+   */
+  private String evaluate(final String token) {
+    if (Tokenizer.isNumber(token)) {
+      try {
+        this.stack.push(token);
+      } catch (NumberFormatException e) {
+        return "Bad number '" + token + "'";
+      }
+      return null;
+    }
+    final Op op = Op.forWord(token);
+    if (op == null) {
+      return "Unknown operation '" + token + "'";
+    }
+    return op.apply(this.stack);
+  }
+
+  /**
+   * Runs the formula, writes the result of a line, and clears the stack
+   * unless keeping it.
+   * @param lineError the error from the line, or null
+   * @param tokens whether the line had any tokens; the formula isn't run on
+   * blank lines
+   */
+  private void endLine(final String lineError, final boolean tokens)
+      throws IOException {
+    String error = lineError;
+    if (error == null && tokens && this.formula != null) {
+      error = this.formula.run(this.stack);
+    }
+    if (error != null) {
+      this.out.write("Error: ");
+      this.out.write(error);
+      this.errors++;
+    } else if (!this.stack.isEmpty()) {
+      this.formatter.write(this.stack.peek(0), this.stack.getScale(),
+          this.out);
+    }
+    this.out.write('\n');
+    this.lines++;
+    if (!this.keep) {
+      this.stack.clear();
+    }
+  }
+
+  /**
+   * Runs the evaluator over the files named, or standard input if there are
+   * none or a name is "-", writing to standard output. A summary with the
+   * rate of evaluation goes to standard error.
+   * Options:
+   *   -s n  initial display scale, default 2
+   *   -k    keep the stack from one line to the next
+   *   -d n  maximum stack depth, default unlimited
+   *   -f p  RPN program to apply at the end of each line
+   *   -g    group digits in the output
+   *   -q    don't print the summary
+   */
+  public static void main(final String[] args) {
+    int scale = 2;
+    int depth = 0;
+    boolean keep = false;
+    boolean grouping = false;
+    boolean quiet = false;
+    Program formula = null;
+    int i = 0;
+    try {
+      for (; i < args.length && args[i].startsWith("-") &&
+          args[i].length() > 1; i++) {
+        final String arg = args[i];
+        if ("-s".equals(arg)) {
+          scale = Integer.parseInt(args[++i]);
+        } else if ("-d".equals(arg)) {
+          depth = Integer.parseInt(args[++i]);
+        } else if ("-f".equals(arg)) {
+          formula = Program.compile(args[++i]);
+        } else if ("-k".equals(arg)) {
+          keep = true;
+        } else if ("-g".equals(arg)) {
+          grouping = true;
+        } else if ("-q".equals(arg)) {
+          quiet = true;
+        } else {
+          usage("Unknown option " + arg);
+        }
+      }
+    } catch (RuntimeException e) {
+      usage("Bad option value: " + e.getMessage());
+    }
+
+    final Writer out = new BufferedWriter(
+        new OutputStreamWriter(System.out, UTF8), BUFFER_SIZE);
+    final BatchEvaluator evaluator = new BatchEvaluator(out, scale, keep);
+    evaluator.getStack().setMaxDepth(depth);
+    evaluator.setGrouping(grouping);
+    evaluator.setFormula(formula);
+    long tokens = 0;
+    final long start = System.nanoTime();
+    try {
+      if (i == args.length) {
+        tokens += evaluator.evaluate(reader(System.in));
+      }
+      for (; i < args.length; i++) {
+        if ("-".equals(args[i])) {
+          tokens += evaluator.evaluate(reader(System.in));
+        } else {
+          final InputStream in = new FileInputStream(args[i]);
+          try {
+            tokens += evaluator.evaluate(reader(in));
+          } finally {
+            in.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("rpn: " + e.getMessage());
+      System.exit(2);
+    }
+    final long elapsed = System.nanoTime() - start;
+    if (!quiet) {
+      final double seconds = (double) elapsed / NANOS_PER_SECOND;
+      System.err.println(tokens + " tokens, " + evaluator.getLines() +
+          " lines, " + evaluator.getErrors() + " errors in " +
+          String.format("%.3f", seconds) + "s (" +
+          String.format("%.0f", seconds > 0 ? tokens / seconds : 0) +
+          " tokens/s)");
+    }
+    System.exit(evaluator.getErrors() == 0 ? 0 : 1);
+  }
+
+  private static Reader reader(final InputStream in) {
+    return new InputStreamReader(in, UTF8);
+  }
+
+  private static void usage(final String message) {
+    System.err.println("rpn: " + message);
+    System.err.println("usage: rpn [-s scale] [-d depth] [-f program] " +
+        "[-k] [-g] [-q] [file ...]");
+    System.exit(2);
+  }
+
+}
@@ -0,0 +1,63 @@
+package com.ath0.rpn.cli.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.Program;
+import com.ath0.rpn.cli.BatchEvaluator;
+
+public class BatchEvaluatorTest extends TestCase {
+
+  private static String run(final String input, final boolean keep)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    BatchEvaluator e = new BatchEvaluator(out, 2, keep);
+    e.evaluate(new StringReader(input));
+    return out.toString();
+  }
+
+  public static void testLines() throws IOException {
+    assertEquals("Incorrect results",
+        "3.00\n\n0.50\n1000.00\n",
+        run("1 2 +\n\n2 1/x\n10 3 pow", false));
+  }
+
+  public static void testOperations() throws IOException {
+    assertEquals("Incorrect stack operations",
+        "4.00\n-1.41\n1.000\n",
+        run("1 2 swap drop dup +\n2 sqrt chs\n4 3 sdp enter /\n", false));
+  }
+
+  public static void testErrors() throws IOException {
+    StringWriter out = new StringWriter();
+    BatchEvaluator e = new BatchEvaluator(out, 2, false);
+    long tokens = e.evaluate(new StringReader("1 0 / 5\nfoo\n1 1 +\n"));
+    String[] lines = out.toString().split("\n");
+    assertEquals("Incorrect number of lines", 3, lines.length);
+    // The message for division by zero comes from the platform.
+    assertTrue("Division by zero not reported", lines[0].startsWith("Error: "));
+    assertEquals("Unknown operation not reported",
+        "Error: Unknown operation 'foo'", lines[1]);
+    assertEquals("No recovery after errors", "2.00", lines[2]);
+    assertEquals("Incorrect error count", 2, e.getErrors());
+    assertEquals("Incorrect token count", 8, tokens);
+  }
+
+  public static void testKeep() throws IOException {
+    assertEquals("Stack not kept between lines", "1.00\n2.00\n3.00\n",
+        run("1\n2\n+\n", true));
+  }
+
+  public static void testFormula() throws IOException {
+    StringWriter out = new StringWriter();
+    BatchEvaluator e = new BatchEvaluator(out, 2, false);
+    e.setFormula(Program.compile("* 1.2 *"));
+    e.evaluate(new StringReader("2 5\n\n3 10\n"));
+    assertEquals("Formula not applied to each line", "12.00\n\n36.00\n",
+        out.toString());
+  }
+
+}
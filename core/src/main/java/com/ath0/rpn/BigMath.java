@@ -0,0 +1,348 @@
+package com.ath0.rpn;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Arbitrary precision exponential, logarithm and power functions for
+ * BigDecimal. Each function works internally to the precision asked for plus
+ * enough guard digits to absorb its own rounding errors, then rounds the
+ * result to the MathContext given.
+ * The loops check Computation.checkCancelled, so that they can be
+ * interrupted when run in the background.
+ */
+public final class BigMath {
+
+  // Extra digits carried while computing, beyond those wanted in the result.
+  private static final int GUARD = 10;
+
+  // Roots up to this degree are tried exactly before resorting to logarithms.
+  private static final int MAX_EXACT_ROOT = 1000;
+
+  private static final BigDecimal TWO = BigDecimal.valueOf(2);
+  private static final BigDecimal THREE_QUARTERS = new BigDecimal("0.75");
+  private static final BigDecimal THREE_HALVES = new BigDecimal("1.5");
+
+  private BigMath() {
+    super();
+  }
+
+  /**
+   * Computes e^x. The argument is halved until it's small, so that the
+   * Taylor series converges quickly, and the result is squared back up.
+   * @throws ArithmeticException if the result is too large or small for a
+   * BigDecimal
+   */
+  public static BigDecimal exp(final BigDecimal x, final MathContext mc) {
+    if (x.signum() == 0) {
+      return BigDecimal.ONE;
+    }
+    // Halve until |r| < 1/16. Each squaring doubles the relative error, so
+    // carry about 0.3 more digits per halving.
+    final int k = x.abs().toBigInteger().bitLength() + 4;
+    final MathContext wmc = new MathContext(
+        mc.getPrecision() + GUARD + k * 3 / 10, RoundingMode.HALF_EVEN);
+    final BigDecimal r = x.divide(TWO.pow(k), wmc);
+
+    BigDecimal sum = BigDecimal.ONE;
+    BigDecimal term = BigDecimal.ONE;
+    for (int i = 1; ; i++) {
+      Computation.checkCancelled();
+      term = term.multiply(r, wmc).divide(BigDecimal.valueOf(i), wmc);
+      final BigDecimal next = sum.add(term, wmc);
+      if (next.compareTo(sum) == 0) {
+        break;
+      }
+      sum = next;
+    }
+    for (int i = 0; i < k; i++) {
+      Computation.checkCancelled();
+      sum = sum.multiply(sum, wmc);
+    }
+    return sum.round(mc);
+  }
+
+  /**
+   * Computes the natural logarithm of x. The argument is reduced to the
+   * range [0.75, 1.5) by removing powers of ten and two, and the logarithm of
+   * what's left is found from the series for 2 atanh((x - 1) / (x + 1)).
+   * @throws ArithmeticException if x is not positive
+   */
+  public static BigDecimal ln(final BigDecimal x, final MathContext mc) {
+    if (x.signum() <= 0) {
+      throw new ArithmeticException("Logarithm of non-positive number");
+    }
+    if (x.compareTo(THREE_QUARTERS) >= 0 && x.compareTo(THREE_HALVES) < 0) {
+      // No reduction needed, which also avoids cancellation near 1.
+      final MathContext wmc = new MathContext(mc.getPrecision() + GUARD,
+          RoundingMode.HALF_EVEN);
+      return lnSeries(x, wmc).round(mc);
+    }
+    // x = a * 10^e with 0.1 <= a < 1
+    final int e = x.precision() - x.scale();
+    final MathContext wmc = new MathContext(
+        mc.getPrecision() + GUARD + digits(e), RoundingMode.HALF_EVEN);
+    BigDecimal a = x.movePointLeft(e);
+    int j = 0;
+    while (a.compareTo(THREE_QUARTERS) < 0) {
+      a = a.multiply(TWO);
+      j++;
+    }
+    // ln x = ln(a * 2^j) - j ln 2 + e ln 10
+    final BigDecimal ln2 = ln2(wmc);
+    BigDecimal r = lnSeries(a, wmc);
+    r = r.subtract(ln2.multiply(BigDecimal.valueOf(j)), wmc);
+    if (e != 0) {
+      // ln 10 = 3 ln 2 + ln 1.25
+      final BigDecimal ln10 = ln2.multiply(BigDecimal.valueOf(3))
+          .add(atanh2(BigInteger.valueOf(9), wmc), wmc);
+      r = r.add(ln10.multiply(BigDecimal.valueOf(e)), wmc);
+    }
+    return r.round(mc);
+  }
+
+  /**
+   * Computes x^n by square and multiply, rounding at every step, so the cost
+   * depends on the number of bits in n rather than its size.
+   * @throws ArithmeticException if x is zero and n negative, or the result
+   * is too large or small for a BigDecimal
+   */
+  public static BigDecimal pow(final BigDecimal x, final long n,
+      final MathContext mc) {
+    if (n == Long.MIN_VALUE) {
+      throw new ArithmeticException("Overflow");
+    }
+    // The relative error grows with each step, by up to n ulps in all.
+    final MathContext wmc = new MathContext(
+        mc.getPrecision() + GUARD + digits(n), RoundingMode.HALF_EVEN);
+    if (n < 0) {
+      if (x.signum() == 0) {
+        throw new ArithmeticException("Division by zero");
+      }
+      return BigDecimal.ONE.divide(pow(x, -n, wmc), mc);
+    }
+    BigDecimal result = BigDecimal.ONE;
+    BigDecimal base = x;
+    long e = n;
+    while (e != 0) {
+      Computation.checkCancelled();
+      if ((e & 1) != 0) {
+        result = result.multiply(base, wmc);
+      }
+      e >>>= 1;
+      if (e != 0) {
+        base = base.multiply(base, wmc);
+      }
+    }
+    return result.round(mc);
+  }
+
+  /**
+   * Computes x^y for any real result. Integer powers use square and
+   * multiply, unless the exponent is too large for a long. Otherwise y is
+   * taken as a fraction m/n in lowest terms, and if x has an exact n-th
+   * root, the result is that root to the power m.
+   * Failing that the result is e^(y ln |x|), negated when x is negative and
+   * m is odd.
+   * @throws ArithmeticException if the result is not a real number, or is
+   * infinite, or too large or small for a BigDecimal
+   */
+  public static BigDecimal pow(final BigDecimal x, final BigDecimal y,
+      final MathContext mc) {
+    if (y.signum() == 0) {
+      return BigDecimal.ONE;
+    }
+    if (x.signum() == 0) {
+      if (y.signum() < 0) {
+        throw new ArithmeticException("Division by zero");
+      }
+      return BigDecimal.ZERO;
+    }
+    final BigDecimal ys = y.stripTrailingZeros();
+    if (ys.scale() <= 0 && ys.precision() - ys.scale() < 19) {
+      return pow(x, ys.longValueExact(), mc);
+    }
+    if (ys.scale() < 0) {
+      // An integer too large for a long, and a multiple of ten, so even.
+      return expPow(x.abs(), y, mc).round(mc);
+    }
+
+    // y = m / n in lowest terms
+    BigInteger m = ys.unscaledValue();
+    BigInteger n = BigInteger.TEN.pow(ys.scale());
+    final BigInteger g = m.gcd(n);
+    m = m.divide(g);
+    n = n.divide(g);
+    if (x.signum() < 0 && !n.testBit(0)) {
+      throw new ArithmeticException("Complex result");
+    }
+    if (n.bitLength() < 32 && n.intValue() <= MAX_EXACT_ROOT &&
+        m.bitLength() < 64) {
+      final BigDecimal root = root(x, n.intValue());
+      if (root != null) {
+        return pow(root, m.longValue(), mc);
+      }
+    }
+
+    final BigDecimal r = expPow(x.abs(), y, mc);
+    if (x.signum() < 0 && m.testBit(0)) {
+      return r.negate(mc);
+    }
+    return r.round(mc);
+  }
+
+  /**
+   * Computes ax^y as e^(y ln ax), to a few more digits than asked for.
+   * @param ax the base, which must be positive
+   * @throws ArithmeticException if the result is too large or small for a
+   * BigDecimal
+   */
+  private static BigDecimal expPow(final BigDecimal ax, final BigDecimal y,
+      final MathContext mc) {
+    // The result's relative error is the absolute error of y ln |x|, so
+    // carry extra digits for the integer part of that.
+    final double t = Math.abs(y.doubleValue() * log10(ax) * Math.log(10));
+    if (Double.isInfinite(t) || t > Integer.MAX_VALUE) {
+      throw new ArithmeticException(
+          (y.signum() > 0) == (ax.compareTo(BigDecimal.ONE) > 0) ?
+              "Overflow" : "Underflow");
+    }
+    final int extra = t > 1 ? (int) Math.log10(t) + 2 : 1;
+    final MathContext wmc = new MathContext(
+        mc.getPrecision() + GUARD + extra, RoundingMode.HALF_EVEN);
+    return exp(y.multiply(ln(ax, wmc), wmc), wmc);
+  }
+
+  /**
+   * Finds the exact n-th root of x, if it has one.
+   * @param x the radicand
+   * @param n the degree of the root, at least 1
+   * @return the root, or null if it isn't an exact decimal, or if x is
+   * negative and n even
+   */
+  public static BigDecimal root(final BigDecimal x, final int n) {
+    if (n == 1 || x.signum() == 0) {
+      return x;
+    }
+    if (x.signum() < 0) {
+      if ((n & 1) == 0) {
+        return null;
+      }
+      final BigDecimal r = root(x.negate(), n);
+      return r == null ? null : r.negate();
+    }
+    final BigDecimal s = x.stripTrailingZeros();
+    BigInteger u = s.unscaledValue();
+    int scale = s.scale();
+    // Pad the scale to a multiple of n, so that the root has a whole scale.
+    int pad = scale % n;
+    if (pad < 0) {
+      pad += n;
+    }
+    if (pad != 0) {
+      pad = n - pad;
+      u = u.multiply(BigInteger.TEN.pow(pad));
+      scale += pad;
+    }
+    final BigInteger r = integerRoot(u, n);
+    if (r.pow(n).equals(u)) {
+      return new BigDecimal(r, scale / n);
+    }
+    return null;
+  }
+
+  /**
+   * Estimates the base 10 logarithm of |x|, to double precision. Useful for
+   * predicting the size of a result before computing it.
+   * @return the logarithm, or negative infinity if x is zero
+   */
+  public static double log10(final BigDecimal x) {
+    if (x.signum() == 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    final BigDecimal a = x.abs().round(MathContext.DECIMAL64);
+    final int e = a.precision() - a.scale();
+    return e + Math.log10(a.movePointLeft(e).doubleValue());
+  }
+
+  /**
+   * Computes ln x for x near 1, as 2 atanh((x - 1) / (x + 1)).
+   */
+  private static BigDecimal lnSeries(final BigDecimal x,
+      final MathContext wmc) {
+    final BigDecimal z = x.subtract(BigDecimal.ONE)
+        .divide(x.add(BigDecimal.ONE), wmc);
+    return atanhSeries(z, wmc).multiply(TWO, wmc);
+  }
+
+  /**
+   * Computes 2 atanh(1/q), which is ln((q + 1) / (q - 1)).
+   */
+  private static BigDecimal atanh2(final BigInteger q, final MathContext wmc) {
+    final BigDecimal z = BigDecimal.ONE.divide(new BigDecimal(q), wmc);
+    return atanhSeries(z, wmc).multiply(TWO, wmc);
+  }
+
+  /**
+   * Computes ln 2, as 2 atanh(1/3).
+   */
+  private static BigDecimal ln2(final MathContext wmc) {
+    return atanh2(BigInteger.valueOf(3), wmc);
+  }
+
+  /**
+   * Sums atanh z = z + z^3/3 + z^5/5 + ... for small |z|.
+   */
+  private static BigDecimal atanhSeries(final BigDecimal z,
+      final MathContext wmc) {
+    final BigDecimal z2 = z.multiply(z, wmc);
+    BigDecimal power = z;
+    BigDecimal sum = z;
+    for (int i = 3; ; i += 2) {
+      Computation.checkCancelled();
+      power = power.multiply(z2, wmc);
+      final BigDecimal next = sum.add(
+          power.divide(BigDecimal.valueOf(i), wmc), wmc);
+      if (next.compareTo(sum) == 0) {
+        return sum;
+      }
+      sum = next;
+    }
+  }
+
+  /**
+   * Finds the largest r with r^n <= u, by Newton's method from above.
+   */
+  private static BigInteger integerRoot(final BigInteger u, final int n) {
+    if (u.signum() == 0) {
+      return u;
+    }
+    final BigInteger bn = BigInteger.valueOf(n);
+    final BigInteger bn1 = BigInteger.valueOf(n - 1);
+    // 2^ceil(bits / n) is at least the root.
+    BigInteger r = BigInteger.ONE.shiftLeft((u.bitLength() + n - 1) / n);
+    while (true) {
+      Computation.checkCancelled();
+      final BigInteger next = bn1.multiply(r)
+          .add(u.divide(r.pow(n - 1))).divide(bn);
+      if (next.compareTo(r) >= 0) {
+        return r;
+      }
+      r = next;
+    }
+  }
+
+  /**
+   * Returns the number of decimal digits in |n|.
+   */
+  private static int digits(final long n) {
+    int d = 1;
+    for (long v = Math.abs(n); v >= 10; v /= 10) {
+      d++;
+    }
+    return d;
+  }
+
+}
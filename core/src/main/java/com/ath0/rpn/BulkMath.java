@@ -0,0 +1,283 @@
+package com.ath0.rpn;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Arithmetic on whole arrays of values: reductions of many values to one,
+ * and functions applied to every value. Large arrays are split into chunks
+ * of a fixed size which are worked on in parallel, and the results of the
+ * chunks are combined in order. As the chunks don't depend on the number of
+ * cores, and sums and products are exact, the results are the same on any
+ * device and the same as working through the values one at a time.
+ * The work runs on a shared pool of daemon threads, one per core. Callers
+ * which are interrupted while waiting stop the chunks in progress and get a
+ * CancellationException, as with Computations.
+ */
+public final class BulkMath {
+
+  /**
+   * A function applied to every value.
+   */
+  public static interface Mapper {
+
+    /**
+     * Computes the function of one value.
+     * @throws RuntimeException with a message suitable for display, if the
+     * result can't be computed
+     */
+    Decimal map(Decimal value);
+  }
+
+  // Values in each chunk of parallel work.
+  private static final int CHUNK = 2048;
+  // Below this many values, the work is done on the calling thread.
+  private static final int THRESHOLD = 2 * CHUNK;
+  // How often, in values, sequential work checks for cancellation; one less
+  // than a power of two.
+  private static final int CHECK_MASK = 255;
+  // Error message for results over the digit limit.
+  private static final String TOO_LARGE = "Result too large";
+
+  private static ExecutorService pool;
+
+  /**
+   * A way of combining values, applied left to right, so that a reduction of
+   * a[0] to a[n] is combine(...combine(a[0], a[1])..., a[n]).
+   */
+  private abstract static class Reduction {
+
+    /**
+     * Combines two values, the first of which came first in the array.
+     */
+    abstract Decimal combine(Decimal a, Decimal b);
+
+    Decimal reduce(final Decimal[] values, final int from, final int to) {
+      Decimal r = values[from];
+      for (int i = from + 1; i < to; i++) {
+        r = combine(r, values[i]);
+        if ((i & CHECK_MASK) == 0) {
+          Computation.checkCancelled();
+        }
+      }
+      return r;
+    }
+  }
+
+  private static final Reduction SUM = new Reduction() {
+    @Override
+    Decimal combine(final Decimal a, final Decimal b) {
+      return a.add(b);
+    }
+  };
+
+  private static final Reduction PRODUCT = new Reduction() {
+    @Override
+    Decimal combine(final Decimal a, final Decimal b) {
+      return a.multiply(b);
+    }
+  };
+
+  // On ties, the first value is kept, so the scale of the result is
+  // predictable too.
+  private static final Reduction MIN = new Reduction() {
+    @Override
+    Decimal combine(final Decimal a, final Decimal b) {
+      return b.compareTo(a) < 0 ? b : a;
+    }
+  };
+
+  private static final Reduction MAX = new Reduction() {
+    @Override
+    Decimal combine(final Decimal a, final Decimal b) {
+      return b.compareTo(a) > 0 ? b : a;
+    }
+  };
+
+  /**
+   * Work on one chunk of an array.
+   */
+  private static interface Chunk {
+
+    /**
+     * Does the work for the values from index from to index to, exclusive.
+     */
+    void run(int chunk, int from, int to);
+  }
+
+  private BulkMath() {
+    super();
+  }
+
+  /**
+   * Returns the exact sum of one or more values.
+   */
+  public static Decimal sum(final Decimal[] values) {
+    return reduce(values, SUM);
+  }
+
+  /**
+   * Returns the exact product of one or more values.
+   * @param limit the largest number of digits allowed in the result
+   * @throws ArithmeticException if the product could have more digits than
+   * the limit
+   */
+  public static Decimal product(final Decimal[] values, final int limit) {
+    long digits = 0;
+    for (final Decimal d : values) {
+      digits += d.precision();
+    }
+    if (digits > limit) {
+      throw new ArithmeticException(TOO_LARGE);
+    }
+    return reduce(values, PRODUCT);
+  }
+
+  /**
+   * Returns the least of one or more values, the first if several are equal.
+   */
+  public static Decimal min(final Decimal[] values) {
+    return reduce(values, MIN);
+  }
+
+  /**
+   * Returns the greatest of one or more values, the first if several are
+   * equal.
+   */
+  public static Decimal max(final Decimal[] values) {
+    return reduce(values, MAX);
+  }
+
+  /**
+   * Applies a function to each of a range of values.
+   * @param values the values
+   * @param from the first index to apply the function to
+   * @param to the index after the last to apply the function to
+   * @param f the function, which must be safe to call from several threads
+   * @return the results, in the same order
+   * @throws RuntimeException the first error from the function, in array
+   * order
+   */
+  public static Decimal[] map(final Decimal[] values, final int from,
+      final int to, final Mapper f) {
+    final Decimal[] results = new Decimal[to - from];
+    forEachChunk(to - from, new Chunk() {
+      @Override
+      public void run(final int chunk, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+          results[i] = f.map(values[from + i]);
+          if ((i & CHECK_MASK) == 0) {
+            Computation.checkCancelled();
+          }
+        }
+      }
+    });
+    return results;
+  }
+
+  /**
+   * Reduces one or more values, in chunks. The results of the chunks are
+   * combined in pairs, so that large products multiply numbers of similar
+   * size rather than one huge number by many small ones.
+   */
+  private static Decimal reduce(final Decimal[] values, final Reduction r) {
+    if (values.length < THRESHOLD) {
+      return r.reduce(values, 0, values.length);
+    }
+    final Decimal[] partial = new Decimal[chunks(values.length)];
+    forEachChunk(values.length, new Chunk() {
+      @Override
+      public void run(final int chunk, final int from, final int to) {
+        partial[chunk] = r.reduce(values, from, to);
+      }
+    });
+    int n = partial.length;
+    while (n > 1) {
+      final int half = n >> 1;
+      for (int i = 0; i < half; i++) {
+        partial[i] = r.combine(partial[i << 1], partial[(i << 1) + 1]);
+      }
+      if ((n & 1) != 0) {
+        partial[half] = partial[n - 1];
+      }
+      n = (n + 1) >> 1;
+      Computation.checkCancelled();
+    }
+    return partial[0];
+  }
+
+  /**
+   * Runs work on each chunk of a range of indexes, in parallel if the range
+   * is large enough, and waits for it all to finish.
+   * @param length the number of indexes, from 0
+   */
+  private static void forEachChunk(final int length, final Chunk work) {
+    if (length < THRESHOLD) {
+      work.run(0, 0, length);
+      return;
+    }
+    final int chunks = chunks(length);
+    final Future<?>[] futures = new Future<?>[chunks];
+    final ExecutorService executor = getPool();
+    for (int c = 0; c < chunks; c++) {
+      final int chunk = c;
+      futures[c] = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          final int from = chunk * CHUNK;
+          work.run(chunk, from, Math.min(from + CHUNK, length));
+        }
+      });
+    }
+    try {
+      // Waiting in order means an error from an earlier chunk is reported
+      // in preference to one from a later chunk.
+      for (final Future<?> f : futures) {
+        f.get();
+      }
+    } catch (InterruptedException ex) {
+      cancel(futures);
+      throw new CancellationException("Cancelled");
+    } catch (ExecutionException ex) {
+      cancel(futures);
+      final Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static void cancel(final Future<?>[] futures) {
+    for (final Future<?> f : futures) {
+      f.cancel(true);
+    }
+  }
+
+  private static int chunks(final int length) {
+    return (length + CHUNK - 1) / CHUNK;
+  }
+
+  /**
+   * Gets the thread pool, creating it on first use.
+   */
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+              final Thread t = new Thread(r, "BulkMath");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
+    return pool;
+  }
+
+}
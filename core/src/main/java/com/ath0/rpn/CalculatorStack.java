@@ -0,0 +1,1188 @@
+package com.ath0.rpn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Stack;
+
+/**
+ * Model for RPN calculator. 
+ * Implements a stack and a set of typical operations on it.
+ * Some operations can cause arithmetic exceptions; in those cases, a String 
+ * is used to return an error message, and null indicates no error. This
+ * violation of good style allows the calling controller to handle operations 
+ * uniformly with no knowledge of mathematics, and rely on the stack object's
+ * operation method to supply the appropriate error message.
+ */
+public class CalculatorStack implements Serializable {
+
+  /**
+   * Object version for serialization.
+   */
+  private static final long serialVersionUID = 1L;
+
+  // Number of characters to preallocate when converting the stack into a 
+  // string.
+  private static final int TYPICAL_LENGTH_X4 = 128;
+
+  // How many digits of precision (decimal places) are used internally in 
+  // calculations.
+  private static final int INTERNAL_SCALE = 32;
+
+  // Default limit on the number of digits in the result of an operation.
+  private static final int DEFAULT_MAX_DIGITS = 10000;
+
+  // Error message for results over the digit limit.
+  private static final String TOO_LARGE = "Result too large";
+
+  // The serialized form predates Decimal and RingStack, and is kept as a
+  // Stack of BigDecimal so that saved state from earlier versions still loads.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("stack", Stack.class),
+    new ObjectStreamField("scale", Integer.TYPE)
+  };
+
+  private transient RingStack stack;
+  // Created on first use, as deserialization bypasses the constructor.
+  private transient NumberFormatter formatter;
+  private transient int maxDigits = DEFAULT_MAX_DIGITS;
+  // How results are normalized, and the digits the policy keeps. This must
+  // not change during a session, as journal replay repeats the operations.
+  private transient ScalePolicy policy = ScalePolicy.CAP;
+  private transient int policyDigits = INTERNAL_SCALE;
+  private transient OperandStats stats = new OperandStats();
+  // Undo history, or null if undo is disabled.
+  private transient History history;
+  // The step last undone or redone, for the journal to record.
+  private transient History.Step lastStep;
+  private transient Statistics statistics = new Statistics();
+
+  // Initial scale is 2 decimal places, as that's the most useful for general 
+  // everyday calculations.
+  private int scale = 2;
+
+  public CalculatorStack() {
+    super();
+    this.stack = new RingStack();
+  }
+
+  private CalculatorStack(final RingStack stack, final Statistics statistics,
+      final int scale, final int maxDigits, final ScalePolicy policy,
+      final int policyDigits) {
+    super();
+    this.stack = stack;
+    this.statistics = statistics;
+    this.scale = scale;
+    this.maxDigits = maxDigits;
+    this.policy = policy;
+    this.policyDigits = policyDigits;
+  }
+
+  /**
+   * Returns an independent copy of the stack, its statistics registers and
+   * its display scale, for handing to another thread.
+   */
+  public CalculatorStack copy() {
+    return new CalculatorStack(this.stack.copy(), this.statistics.copy(),
+        this.scale, this.maxDigits, this.policy, this.policyDigits);
+  }
+
+  /**
+   * Closes the files holding values spilled to disk, including those saved
+   * for undo. The stack can't be used again, but closing it more than once
+   * does nothing.
+   */
+  public void close() {
+    if (this.history != null) {
+      this.history.clear();
+    }
+    this.stack.close();
+  }
+
+  /**
+   * Pushes a value onto the stack.
+   * @param number A valid decimal number, in a String. Usually taken from the 
+   * InputBuffer.
+   */
+  public void push(final String number) {
+    final Decimal newnum = Decimal.parse(number);
+    this.stack.push(newnum);
+  }
+
+  /**
+   * Returns whether the stack is empty.
+   */
+  public boolean isEmpty() {
+    return this.stack.isEmpty();
+  }
+
+  /**
+   * Pushes a value onto the stack.
+   */
+  public void push(final Decimal number) {
+    this.stack.push(number);
+  }
+
+  /**
+   * Pushes many values at once, as when importing data. The storage is
+   * rebuilt in one pass, which undo keeps as a single change rather than one
+   * per value. If there is a maximum depth, the deepest values are dropped,
+   * as they would be by pushing one at a time.
+   * @param values the values, deepest first
+   */
+  public void pushAll(final Decimal[] values) {
+    final int kept = this.stack.size();
+    final int total = kept + values.length;
+    final int max = this.stack.getMaxDepth();
+    final int skip = max > 0 && total > max ? total - max : 0;
+    final Decimal[] all = new Decimal[total - skip];
+    for (int i = skip; i < total; i++) {
+      all[i - skip] = i < kept ? this.stack.get(i) : values[i - kept];
+    }
+    this.stack.replaceAll(all);
+  }
+
+  /**
+   * Returns the number of elements on the stack.
+   */
+  public int size() {
+    return this.stack.size();
+  }
+
+  /**
+   * Gets the element at the given level, where 0 is the top of the stack.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public Decimal peek(final int level) {
+    return this.stack.peek(level);
+  }
+
+  /**
+   * Gets the contents of the stack as a string.
+   * @param levels the number of levels of stack to return
+   * @return a text representation of the stack
+   */
+  public StringBuilder toString(final int levels) {
+    final StringBuilder result = new StringBuilder(TYPICAL_LENGTH_X4);
+    if (this.stack != null) {
+      final int depth = this.stack.size();
+      for (int i = 0; i < levels; i++) {
+        if (i != 0) {
+          result.append('\n');
+        }
+        final int idx = depth - levels + i;
+        if (idx >= 0) {
+          result.append(formatted(idx));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the display text for the element at the given level, where 0 is the
+   * top of the stack.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public String format(final int level) {
+    return formatted(this.stack.size() - 1 - level);
+  }
+
+  /**
+   * Gets the display text for the element at the given level, like format,
+   * but without caching it with the element. For callers which keep their
+   * own cache, such as a list of the whole stack, so that browsing a deep
+   * stack doesn't leave text cached against every level.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public String formatUncached(final int level) {
+    final int index = this.stack.size() - 1 - level;
+    final String text = this.stack.getFormatted(index);
+    return text != null ? text : formatNumber(this.stack.get(index));
+  }
+
+  /**
+   * Gets the display text for the element at the given index from the
+   * bottom of the stack. Text is cached with the element, so only elements
+   * which have changed since they were last displayed need formatting.
+   */
+  private String formatted(final int index) {
+    String text = this.stack.getFormatted(index);
+    if (text == null) {
+      text = formatNumber(this.stack.get(index));
+      this.stack.setFormatted(index, text);
+    }
+    return text;
+  }
+
+  /**
+   * Get value without thousands commas for unit tests, to avoid needing to
+   * implement formatNumber there.
+   */
+  @Override
+  public String toString() {
+    return this.toString(1).toString().replaceAll(",", "");
+  }
+
+  /**
+   * Formats a number to a fixed number of decimal places, and adds 
+   * thousands commas.
+   * @param number
+   * @return
+   */
+  private String formatNumber(final Decimal number) {
+    if (this.formatter == null) {
+      this.formatter = new NumberFormatter();
+    }
+    return this.formatter.format(number, this.scale);
+  }
+
+  /**
+   * Changes the sign of the top number on the stack.
+   */
+  public void chs() {
+    if (!this.stack.isEmpty()) {
+      final Decimal topnum = this.stack.pop();
+      this.stack.push(topnum.negate());
+    }
+  }
+
+  /**
+   * Drops the top element from the stack.
+   */
+  public void drop() {
+    if (!this.stack.isEmpty()) {
+      this.stack.pop();
+    }
+  }
+
+  /**
+   * Duplicates the top element on the stack.
+   */
+  public void dup() {
+    if (!this.stack.isEmpty()) {
+      this.stack.pick(0);
+    }
+  }
+
+  /**
+   * Swaps the top two elements on the stack.
+   */
+  public void swap() {
+    if (this.stack.size() > 1) {
+      this.stack.swap();
+    }
+  }
+
+  /**
+   * Moves the top element to the bottom of the stack (HP R-down).
+   */
+  public void rollDown() {
+    this.stack.rollDown();
+  }
+
+  /**
+   * Moves the bottom element to the top of the stack (HP R-up).
+   */
+  public void rollUp() {
+    this.stack.rollUp();
+  }
+
+  /**
+   * Moves the third element to the top of the stack (HP ROT).
+   */
+  public void rotate() {
+    if (this.stack.size() > 2) {
+      this.stack.rotate();
+    }
+  }
+
+  /**
+   * Takes the top element on the stack, and uses its integer value n to push
+   * a copy of the element n levels beneath it (HP PICK), where 1 is the 
+   * element immediately below.
+   * @return an error message, or null if there is no error
+   */
+  public String pick() {
+    String result = null;
+    if (!this.stack.isEmpty()) {
+      final int n = this.stack.peek().intValue();
+      if (n < 1 || n >= this.stack.size()) {
+        result = "No such level";
+      } else {
+        this.stack.pop();
+        this.stack.pick(n - 1);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes all elements from the stack.
+   */
+  public void clear() {
+    this.stack.clear();
+  }
+
+  /**
+   * Sets the maximum stack depth. When the stack is full, pushing a value
+   * discards the bottom element.
+   * @param depth the maximum depth, or 0 for unlimited
+   */
+  public void setMaxDepth(final int depth) {
+    this.stack.setMaxDepth(depth);
+  }
+
+  /**
+   * Keeps only the top levels of the stack in memory, spilling deeper ones
+   * to disk, so that very deep stacks aren't limited by the heap.
+   * @param dir the directory for the spill files, or null to keep every
+   * value in memory
+   * @param levels the number of levels to keep in memory
+   */
+  public void setSpill(final File dir, final int levels) {
+    this.stack.setSpill(dir, levels);
+  }
+
+  /**
+   * Sets the number of steps which can be undone. Undo is disabled by
+   * default.
+   * @param levels the number of steps, or 0 to disable undo and forget any
+   * history
+   */
+  public void setUndoLevels(final int levels) {
+    if (levels <= 0) {
+      if (this.history != null) {
+        this.history.clear();
+      }
+      this.history = null;
+    } else if (this.history == null) {
+      this.history = new History(levels);
+    } else {
+      this.history.setLevels(levels);
+    }
+    this.stack.setHistory(this.history);
+    this.statistics.setHistory(this.history);
+  }
+
+  /**
+   * Starts a new undo step, so that everything done to the stack until the
+   * next checkpoint is undone together. Call before each user action.
+   * Clears anything which could be redone.
+   * @param buffer the input buffer, whose contents undo also restores
+   */
+  public void checkpoint(final InputBuffer buffer) {
+    this.lastStep = null;
+    if (this.history != null) {
+      this.history.checkpoint(buffer.get(), this.scale);
+    }
+  }
+
+  /**
+   * Undoes the last step which changed anything, restoring the stack, the
+   * statistics registers, the input buffer and the display scale as they
+   * were before it.
+   * @return whether there was anything to undo
+   */
+  public boolean undo(final InputBuffer buffer) {
+    if (this.history == null) {
+      return false;
+    }
+    return restore(this.history.undo(this.stack, this.statistics,
+        buffer.get(), this.scale), buffer);
+  }
+
+  /**
+   * Redoes the last step undone.
+   * @return whether there was anything to redo
+   */
+  public boolean redo(final InputBuffer buffer) {
+    if (this.history == null) {
+      return false;
+    }
+    return restore(this.history.redo(this.stack, this.statistics,
+        buffer.get(), this.scale), buffer);
+  }
+
+  /**
+   * Returns whether there may be something to undo.
+   */
+  public boolean canUndo() {
+    return this.history != null && this.history.canUndo();
+  }
+
+  /**
+   * Returns whether there is something to redo.
+   */
+  public boolean canRedo() {
+    return this.history != null && this.history.canRedo();
+  }
+
+  /**
+   * Adds together the top two elements on the stack, and replaces them with
+   * the result.
+   */
+  public void add() {
+    if (this.stack.size() > 1) {
+      final Decimal x = this.stack.pop();
+      final Decimal y = this.stack.pop();
+      final Decimal r = y.add(x);
+      this.stack.push(result(r));
+    }
+  }
+
+  /**
+   * Subtracts the top number on the stack from the number beneath it, and 
+   * replaces them both with the result.
+   */
+  public void subtract() {
+    if (this.stack.size() > 1) {
+      Decimal x = this.stack.pop();
+      Decimal y = this.stack.pop();
+      Decimal r = y.subtract(x);
+      this.stack.push(result(r));
+    }
+  }
+
+  /**
+   * Multiplies the top two numbers on the stack together, and replaces them 
+   * with the result.
+   */
+  public void multiply() {
+    if (this.stack.size() > 1) {
+      Decimal x = this.stack.pop();
+      Decimal y = this.stack.pop();
+      Decimal r = y.multiply(x);
+      this.stack.push(result(r));
+    }
+  }
+  
+  /**
+   * Takes the top item on the stack, and uses its integer value as the power
+   * for raising the number beneath it.
+   * e.g. before:  X Y  after: X^Y   before: 2 3  after: 8
+   * @return an error message, or null if there is no error
+   */
+  // Returns error message, or null if no error.
+  public String power() {
+    return apply(powerComputation());
+  }
+
+  /**
+   * Gets a computation of the power operation, limited to the current
+   * maximum number of result digits.
+   */
+  public Computation powerComputation() {
+    final int limit = this.maxDigits;
+    return new Computation(2) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        final Decimal x = args[0];
+        final Decimal y = args[1];
+        int yi = -1;
+        try {
+          yi = y.intValueExact();
+        } catch (ArithmeticException ex) {
+          // Not an integer, so can't be computed exactly
+        }
+        Decimal r;
+        if (yi >= 0 && (long) x.precision() * yi <= limit) {
+          // Small enough to compute exactly
+          Logger.d("power", "Computed power exactly");
+          r = x.pow(yi);
+        } else if (yi >= 0) {
+          // Too long to compute exactly, so round at each step of square
+          // and multiply; the size check is on the integer digits alone
+          r = Decimal.valueOf(approxPow(x.toBigDecimal(), y.toBigDecimal(),
+              limit));
+          Logger.d("power", "Computed power by rounded square and multiply");
+        } else {
+          // If we can't compute it exactly, compute an approximate value
+          r = Decimal.valueOf(approxPow(x.toBigDecimal(), y.toBigDecimal(),
+              limit));
+          Logger.d("power", "Computed power approximately");
+        }
+        return new Decimal[] { r };
+      }
+    };
+  }
+
+  /**
+   * Uses the top number on the stack to divide the number beneath it.
+   * Replaces both with the result of the division.
+   * e.g. before: x y  after: x/y   before:  4 2  after: 2
+   * @return an error message, or null if there is no error
+   */
+  public String divide() {
+    String result = null;
+    if (this.stack.size() > 1) {
+      BigDecimal x = this.stack.pop().toBigDecimal();
+      BigDecimal y = this.stack.pop().toBigDecimal();
+      // We use HALF_EVEN rounding because this statistically minimizes 
+      // cumulative error during repeated calculations.
+      try {
+        BigDecimal r = y.divide(x, INTERNAL_SCALE,
+            RoundingMode.HALF_EVEN);
+        this.stack.push(result(Decimal.valueOf(r)));
+      } catch (ArithmeticException e) {
+        result = e.getMessage();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Computes the reciprocal of the top element on the stack, and replaces it
+   * with the result.
+   * @return an error message, or null if there is no error
+   */
+  public String reciprocal() {
+    String result = null;
+    if (!this.stack.isEmpty()) {
+      BigDecimal x = this.stack.pop().toBigDecimal();
+      try {
+        BigDecimal y = BigDecimal.ONE.divide(x, INTERNAL_SCALE, 
+            RoundingMode.HALF_EVEN);
+        this.stack.push(result(Decimal.valueOf(y)));
+      } catch (ArithmeticException e) {
+        result = e.getMessage();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets the display scale, in decimal places.
+   * Computation is always performed to the INTERNAL_SCALE.
+   * @param newscale new scale value
+   */
+  public void setScale(final int newscale) {
+    if (newscale != this.scale) {
+      this.scale = newscale;
+      this.stack.clearFormatted();
+    }
+  }
+
+  /**
+   * Sets the display scale to the integer value of the top element on the
+   * stack, as long as that value is less than the INTERNAL_SCALE.
+   */
+  public void setScale() {
+    if (!this.stack.isEmpty()) {
+      Decimal x = this.stack.pop();
+      int sc = x.intValue();
+      if (sc < INTERNAL_SCALE) {
+        setScale(sc);
+      }
+    }
+  }
+
+  /**
+   * Gets the current display scale.
+   * @return
+   */
+  public int getScale() {
+    return this.scale;
+  }
+
+  /**
+   * Computes the square root of the value on the top of the stack, and
+   * replaces that value with the result.
+   */
+  public String sqrt() {
+    return apply(sqrtComputation());
+  }
+
+  /**
+   * Gets a computation of the square root operation.
+   */
+  public Computation sqrtComputation() {
+    return new Computation(1) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return new Decimal[] {
+          Decimal.valueOf(sqrt(args[0].toBigDecimal(), INTERNAL_SCALE))
+        };
+      }
+    };
+  }
+
+  /**
+   * Replaces the whole stack with the sum of its elements.
+   * @return an error message, or null if there is no error
+   */
+  public String sum() {
+    return applyAll(sumComputation());
+  }
+
+  /**
+   * Gets a computation of the sum of the whole stack.
+   */
+  public Computation sumComputation() {
+    return new Computation(wholeStack()) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return new Decimal[] { BulkMath.sum(args) };
+      }
+    };
+  }
+
+  /**
+   * Replaces the whole stack with the product of its elements.
+   * @return an error message, or null if there is no error
+   */
+  public String product() {
+    return applyAll(productComputation());
+  }
+
+  /**
+   * Gets a computation of the product of the whole stack, limited to the
+   * current maximum number of result digits.
+   */
+  public Computation productComputation() {
+    final int limit = this.maxDigits;
+    return new Computation(wholeStack()) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return new Decimal[] { BulkMath.product(args, limit) };
+      }
+    };
+  }
+
+  /**
+   * Replaces the whole stack with its least element.
+   * @return an error message, or null if there is no error
+   */
+  public String min() {
+    return applyAll(minComputation());
+  }
+
+  /**
+   * Gets a computation of the least element of the whole stack.
+   */
+  public Computation minComputation() {
+    return new Computation(wholeStack()) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return new Decimal[] { BulkMath.min(args) };
+      }
+    };
+  }
+
+  /**
+   * Replaces the whole stack with its greatest element.
+   * @return an error message, or null if there is no error
+   */
+  public String max() {
+    return applyAll(maxComputation());
+  }
+
+  /**
+   * Gets a computation of the greatest element of the whole stack.
+   */
+  public Computation maxComputation() {
+    return new Computation(wholeStack()) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return new Decimal[] { BulkMath.max(args) };
+      }
+    };
+  }
+
+  /**
+   * Changes the sign of every element on the stack.
+   * @return an error message, or null if there is no error
+   */
+  public String chsAll() {
+    return applyAll(chsAllComputation());
+  }
+
+  /**
+   * Gets a computation which changes the sign of every element.
+   */
+  public Computation chsAllComputation() {
+    return mapComputation(new BulkMath.Mapper() {
+      @Override
+      public Decimal map(final Decimal value) {
+        return value.negate();
+      }
+    });
+  }
+
+  /**
+   * Takes the top element on the stack, and multiplies every element
+   * beneath it by that value.
+   * @return an error message, or null if there is no error
+   */
+  public String multiplyAll() {
+    return applyAll(multiplyAllComputation());
+  }
+
+  /**
+   * Gets a computation which multiplies every element by the top one,
+   * which it consumes.
+   */
+  public Computation multiplyAllComputation() {
+    return new Computation(Math.max(this.stack.size(), 2)) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        final Decimal x = args[args.length - 1];
+        return BulkMath.map(args, 0, args.length - 1, new BulkMath.Mapper() {
+          @Override
+          public Decimal map(final Decimal value) {
+            return value.multiply(x);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Replaces every element on the stack with its reciprocal.
+   * @return an error message, or null if there is no error
+   */
+  public String reciprocalAll() {
+    return applyAll(reciprocalAllComputation());
+  }
+
+  /**
+   * Gets a computation of the reciprocal of every element.
+   */
+  public Computation reciprocalAllComputation() {
+    return mapComputation(new BulkMath.Mapper() {
+      @Override
+      public Decimal map(final Decimal value) {
+        return Decimal.valueOf(BigDecimal.ONE.divide(value.toBigDecimal(),
+            INTERNAL_SCALE, RoundingMode.HALF_EVEN));
+      }
+    });
+  }
+
+  /**
+   * Replaces every element on the stack with its square root.
+   * @return an error message, or null if there is no error
+   */
+  public String sqrtAll() {
+    return applyAll(sqrtAllComputation());
+  }
+
+  /**
+   * Gets a computation of the square root of every element.
+   */
+  public Computation sqrtAllComputation() {
+    return mapComputation(new BulkMath.Mapper() {
+      @Override
+      public Decimal map(final Decimal value) {
+        return Decimal.valueOf(sqrt(value.toBigDecimal(), INTERNAL_SCALE));
+      }
+    });
+  }
+
+  /**
+   * Gets the statistics registers.
+   */
+  public Statistics getStatistics() {
+    return this.statistics;
+  }
+
+  /**
+   * Takes the top element on the stack as x, and the element beneath it, if
+   * any, as y, and adds the data point (x, y) to the statistics registers
+   * (HP Sigma+). Only x is removed from the stack, so for one variable
+   * statistics the values can simply be entered one after another.
+   */
+  public void statAdd() {
+    if (!this.stack.isEmpty()) {
+      final Decimal x = this.stack.pop();
+      final Decimal y = this.stack.isEmpty() ? Decimal.ZERO : this.stack.peek();
+      this.statistics.add(x, y);
+    }
+  }
+
+  /**
+   * Removes a data point from the statistics registers, taking it from the
+   * stack as statAdd does (HP Sigma-).
+   */
+  public void statRemove() {
+    if (!this.stack.isEmpty()) {
+      final Decimal x = this.stack.pop();
+      final Decimal y = this.stack.isEmpty() ? Decimal.ZERO : this.stack.peek();
+      this.statistics.remove(x, y);
+    }
+  }
+
+  /**
+   * Clears the statistics registers.
+   */
+  public void statClear() {
+    this.statistics.clear();
+  }
+
+  /**
+   * Pushes the mean of the x values in the statistics registers.
+   * @return an error message, or null if there is no error
+   */
+  public String mean() {
+    try {
+      this.stack.push(result(Decimal.valueOf(
+          this.statistics.meanX(INTERNAL_SCALE))));
+    } catch (ArithmeticException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  /**
+   * Pushes the sample standard deviation of the x values in the statistics
+   * registers.
+   * @return an error message, or null if there is no error
+   */
+  public String sdev() {
+    try {
+      this.stack.push(result(Decimal.valueOf(
+          this.statistics.sdevX(INTERNAL_SCALE))));
+    } catch (ArithmeticException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  /**
+   * Fits a least squares line y = a + bx to the data points in the
+   * statistics registers, and pushes the intercept a and then the slope b.
+   * @return an error message, or null if there is no error
+   */
+  public String line() {
+    try {
+      final BigDecimal[] ab = this.statistics.line(INTERNAL_SCALE);
+      this.stack.push(result(Decimal.valueOf(ab[0])));
+      this.stack.push(result(Decimal.valueOf(ab[1])));
+    } catch (ArithmeticException e) {
+      return e.getMessage();
+    }
+    return null;
+  }
+
+  /**
+   * Sets the largest number of digits an operation may produce before it is
+   * abandoned, to stop huge inputs from hanging the calculator.
+   */
+  public void setMaxDigits(final int digits) {
+    this.maxDigits = digits;
+  }
+
+  /**
+   * Sets how the results of arithmetic are normalized. Journal replay
+   * assumes this stays the same for the life of the stack's state.
+   * @param newPolicy the policy
+   * @param digits the decimal places or significant digits it keeps
+   */
+  public void setScalePolicy(final ScalePolicy newPolicy, final int digits) {
+    this.policy = newPolicy;
+    this.policyDigits = digits;
+  }
+
+  /**
+   * Gets the counters of result sizes.
+   */
+  public OperandStats getStats() {
+    return this.stats;
+  }
+
+  /**
+   * Gets the operands for a computation, without removing them from the
+   * stack.
+   * @return the operands, deepest first, or null if the stack doesn't hold
+   * enough
+   */
+  public Decimal[] operands(final int arity) {
+    if (this.stack.size() < arity) {
+      return null;
+    }
+    final Decimal[] args = new Decimal[arity];
+    for (int i = 0; i < arity; i++) {
+      args[i] = this.stack.peek(arity - 1 - i);
+    }
+    return args;
+  }
+
+  /**
+   * Replaces the operands of a finished computation with its result.
+   * @param arity the number of operands to remove
+   * @param result the value to push in their place
+   */
+  public void commit(final int arity, final Decimal result) {
+    for (int i = 0; i < arity; i++) {
+      this.stack.pop();
+    }
+    this.stack.push(result(result));
+  }
+
+  /**
+   * Replaces the operands of a finished computation with its results.
+   * @param arity the number of operands to remove
+   * @param results the values to push in their place, deepest first
+   */
+  public void commit(final int arity, final Decimal[] results) {
+    if (arity == this.stack.size()) {
+      // Replace the whole storage at once, which undo keeps as one change.
+      final Decimal[] kept = new Decimal[results.length];
+      for (int i = 0; i < kept.length; i++) {
+        kept[i] = result(results[i]);
+      }
+      this.stack.replaceAll(kept);
+      return;
+    }
+    for (int i = 0; i < arity; i++) {
+      this.stack.pop();
+    }
+    for (final Decimal r : results) {
+      this.stack.push(result(r));
+    }
+  }
+
+  /**
+   * Takes over the contents of a copy made with copy, once work done on it
+   * in the background has finished: its stack, statistics registers and
+   * display scale. Undo keeps this as a single change. The copy mustn't be
+   * used afterwards.
+   */
+  public void commit(final CalculatorStack copy) {
+    this.stack.restore(copy.stack);
+    this.statistics.restore(copy.statistics);
+    setScale(copy.scale);
+  }
+
+  /**
+   * Runs a computation immediately. As with the other operations, the
+   * operands are consumed even if the computation fails.
+   * @return an error message, or null if there is no error
+   */
+  private String apply(final Computation c) {
+    String result = null;
+    final Decimal[] args = operands(c.getArity());
+    if (args != null) {
+      for (int i = 0; i < args.length; i++) {
+        this.stack.pop();
+      }
+      try {
+        for (final Decimal r : c.computeAll(args)) {
+          this.stack.push(result(r));
+        }
+      } catch (RuntimeException e) {
+        result = e.getMessage();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Runs a computation on the whole stack immediately. Unlike apply, the
+   * operands are left on the stack if the computation fails, as losing the
+   * whole stack to one bad element would be unhelpful.
+   * @return an error message, or null if there is no error
+   */
+  private String applyAll(final Computation c) {
+    final Decimal[] args = operands(c.getArity());
+    if (args != null) {
+      try {
+        commit(c.getArity(), c.computeAll(args));
+      } catch (RuntimeException e) {
+        return e.getMessage();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the number of operands for an operation on the whole stack. This
+   * is at least one, so that there is nothing to do for an empty stack.
+   */
+  private int wholeStack() {
+    return Math.max(this.stack.size(), 1);
+  }
+
+  /**
+   * Gets a computation which applies a function to every element.
+   */
+  private Computation mapComputation(final BulkMath.Mapper f) {
+    return new Computation(wholeStack()) {
+      @Override
+      public Decimal[] computeAll(final Decimal[] args) {
+        return BulkMath.map(args, 0, args.length, f);
+      }
+    };
+  }
+
+  /**
+   * Gets the step last undone or redone, or null if there has been a
+   * checkpoint since.
+   */
+  History.Step getLastStep() {
+    return this.lastStep;
+  }
+
+  /**
+   * Reverts a step read back from the journal, just as undo or redo did when
+   * it was recorded.
+   */
+  void replay(final History.Step step, final InputBuffer buffer) {
+    step.revert(this.stack, this.statistics);
+    restore(step, buffer);
+  }
+
+  /**
+   * Restores the state outside the stack from an undo or redo step.
+   * @return whether there was a step
+   */
+  private boolean restore(final History.Step step, final InputBuffer buffer) {
+    this.lastStep = step;
+    if (step == null) {
+      return false;
+    }
+    buffer.set(step.getBuffer());
+    setScale(step.getScale());
+    return true;
+  }
+
+  /**
+   * Normalizes the result of an operation by the scale policy, and counts
+   * it.
+   */
+  private Decimal result(final Decimal r) {
+    final Decimal kept = this.policy.normalize(r, this.policyDigits);
+    this.stats.record(r, kept);
+    return kept;
+  }
+
+  /**
+   * Throws an ArithmeticException if a result would have more digits than
+   * allowed.
+   */
+  private static void checkDigits(final long digits, final int limit) {
+    if (digits > limit) {
+      throw new ArithmeticException(TOO_LARGE);
+    }
+  }
+
+  /**
+   * Computes the square root of x to a given scale, x >= 0.
+   * Use Newton's algorithm.
+   * Taken from "Java Number Cruncher: The Java Programmer's Guide to 
+   * Numerical Computing" (Ronald Mak, 2003) http://goo.gl/CXpi2
+   * @param x the value of x
+   * @param scale the desired scale of the result
+   * @return the result value
+   */
+  static BigDecimal sqrt(final BigDecimal x, final int scale)
+  {
+    // Check that x >= 0.
+    if (x.signum() < 0) {
+      throw new IllegalArgumentException("x < 0");
+    }
+    if (x.signum() == 0) {
+      return BigDecimal.ZERO;
+    }
+
+    // n = x*(10^(2*scale))
+    BigInteger n = x.movePointRight(scale << 1).toBigInteger();
+
+    // The first approximation is the upper half of n.
+    int bits = (n.bitLength() + 1) >> 1;
+    BigInteger ix = n.shiftRight(bits);
+    BigInteger ixPrev = null;
+    BigInteger ixPrev2;
+
+    // Loop until the approximations converge
+    // (two successive approximations are equal after rounding).
+    do {
+      ixPrev2 = ixPrev;
+      ixPrev = ix;
+
+      // x = (x + n/x)/2
+      ix = ix.add(n.divide(ix)).shiftRight(1);
+
+      // Near an exact root, integer rounding can make the approximations
+      // alternate between two values forever; stop at the lower one.
+      if (ix.equals(ixPrev2)) {
+        ix = ix.min(ixPrev);
+        break;
+      }
+      Computation.checkCancelled();
+    } while (ix.compareTo(ixPrev) != 0);
+
+    return new BigDecimal(ix, scale);
+  }
+
+  /**
+   * Computes the power x^y, for exponents which don't give an exact result
+   * or give one too long to compute, to INTERNAL_SCALE decimal places.
+   * @param limit the largest number of integer digits allowed in the result
+   */
+  private static BigDecimal approxPow(final BigDecimal x, final BigDecimal y,
+      final int limit) {
+    int digits = 0;
+    if (x.signum() != 0) {
+      // Estimate the number of integer digits in the result.
+      final double d = y.doubleValue() * BigMath.log10(x);
+      checkDigits((long) Math.ceil(d), limit);
+      if (d < -(INTERNAL_SCALE + 1) && x.signum() > 0) {
+        // Too small to show at the internal scale
+        return BigDecimal.ZERO.setScale(INTERNAL_SCALE);
+      }
+      digits = Math.max((int) Math.ceil(d), 0);
+    }
+    BigDecimal r = BigMath.pow(x, y, new MathContext(
+        digits + INTERNAL_SCALE + 1, RoundingMode.HALF_EVEN));
+    if (r.scale() > INTERNAL_SCALE) {
+      r = r.setScale(INTERNAL_SCALE, RoundingMode.HALF_EVEN);
+    }
+    return r;
+  }
+
+  /**
+   * Writes the stack in its original serialized form, as a Stack of
+   * BigDecimal values.
+   */
+  private void writeObject(final ObjectOutputStream out) throws IOException {
+    final int depth = this.stack.size();
+    final Stack<BigDecimal> legacy = new Stack<BigDecimal>();
+    legacy.ensureCapacity(depth);
+    for (int i = 0; i < depth; i++) {
+      legacy.push(this.stack.get(i).toBigDecimal());
+    }
+    final ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("stack", legacy);
+    fields.put("scale", this.scale);
+    out.writeFields();
+  }
+
+  /**
+   * Reads the original serialized form, converting the values to Decimal.
+   */
+  private void readObject(final ObjectInputStream in) throws IOException,
+      ClassNotFoundException {
+    final ObjectInputStream.GetField fields = in.readFields();
+    final Stack<?> legacy = (Stack<?>) fields.get("stack", null);
+    this.scale = fields.get("scale", 2);
+    this.maxDigits = DEFAULT_MAX_DIGITS;
+    this.policy = ScalePolicy.CAP;
+    this.policyDigits = INTERNAL_SCALE;
+    this.stats = new OperandStats();
+    this.statistics = new Statistics();
+    this.stack = new RingStack();
+    if (legacy != null) {
+      for (final Object o : legacy) {
+        this.stack.push(Decimal.valueOf((BigDecimal) o));
+      }
+    }
+  }
+
+}
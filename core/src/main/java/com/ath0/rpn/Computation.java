@@ -0,0 +1,76 @@
+package com.ath0.rpn;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A stack operation which may take long enough that it shouldn't run on the
+ * UI thread. The operands are read from the stack without removing them, the
+ * result is computed, possibly on another thread, and then the operands are
+ * replaced by the result in one step with CalculatorStack.commit. If the
+ * computation fails or is cancelled, the stack is left as it was.
+ * Some computations, such as those on every level of the stack, leave
+ * several results, so computeAll is the one every computation implements.
+ * Long running computations should call checkCancelled regularly, so that
+ * they can be interrupted.
+ */
+public abstract class Computation {
+
+  private final int arity;
+
+  /**
+   * @param arity the number of operands taken from the top of the stack
+   */
+  protected Computation(final int arity) {
+    super();
+    this.arity = arity;
+  }
+
+  /**
+   * Gets the number of operands taken from the top of the stack.
+   */
+  public int getArity() {
+    return this.arity;
+  }
+
+  /**
+   * Computes the results. Most computations leave a single value in place of
+   * their operands, but some, such as those on every level of the stack,
+   * leave several.
+   * @param args the operands, deepest first, so the top of the stack is last
+   * @return the results, deepest first
+   * @throws RuntimeException with a message suitable for display, if the
+   * results can't be computed
+   * @throws CancellationException if the thread was interrupted
+   */
+  public abstract Decimal[] computeAll(Decimal[] args);
+
+  /**
+   * Computes the result, for computations which leave a single value. By
+   * default, the only result of computeAll.
+   * @param args the operands, deepest first
+   * @return the result
+   * @throws RuntimeException with a message suitable for display, if the
+   * result can't be computed
+   * @throws CancellationException if the thread was interrupted
+   * @throws IllegalStateException if the computation leaves more or fewer
+   * than one value
+   */
+  public Decimal compute(final Decimal[] args) {
+    final Decimal[] results = computeAll(args);
+    if (results.length != 1) {
+      throw new IllegalStateException("Leaves " + results.length +
+          " results");
+    }
+    return results[0];
+  }
+
+  /**
+   * Throws CancellationException if the current thread has been interrupted.
+   */
+  public static void checkCancelled() {
+    if (Thread.interrupted()) {
+      throw new CancellationException("Cancelled");
+    }
+  }
+
+}
@@ -0,0 +1,432 @@
+package com.ath0.rpn;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Immutable decimal number used as the value type of the calculator stack.
+ * Most values people type are small integers or short fixed point amounts,
+ * so a value is held as a scaled long (unscaled * 10^-scale) whenever it
+ * fits, and arithmetic on two such values is done with overflow-checked long
+ * operations. Only when a result no longer fits in a long is it promoted to a
+ * BigDecimal. Either way, the value, scale and results are exactly those that
+ * BigDecimal itself would produce.
+ */
+public final class Decimal implements Comparable<Decimal> {
+
+  // Long.MIN_VALUE is never used as a compact unscaled value, so that negate
+  // can't overflow and the checked arithmetic helpers below can use it to
+  // signal overflow.
+  private static final long OVERFLOW = Long.MIN_VALUE;
+
+  // Values with at most this many digits always fit in a long.
+  private static final int MAX_COMPACT_DIGITS = 18;
+  // Largest exponent BigDecimal.pow(int) accepts.
+  private static final int MAX_POW = 999999999;
+
+  private static final long[] TEN_POWERS = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+    1000000000L, 10000000000L, 100000000000L, 1000000000000L,
+    10000000000000L, 100000000000000L, 1000000000000000L,
+    10000000000000000L, 100000000000000000L, 1000000000000000000L
+  };
+
+  public static final Decimal ZERO = new Decimal(0, 0);
+  public static final Decimal ONE = new Decimal(1, 0);
+
+  private final long unscaled;
+  private final int scale;
+  // Non-null only when the value doesn't fit the compact representation.
+  private final BigDecimal big;
+
+  private Decimal(final long unscaled, final int scale) {
+    this.unscaled = unscaled;
+    this.scale = scale;
+    this.big = null;
+  }
+
+  private Decimal(final BigDecimal big) {
+    this.unscaled = 0;
+    this.scale = big.scale();
+    this.big = big;
+  }
+
+  /**
+   * Returns the value unscaled * 10^-scale.
+   */
+  public static Decimal valueOf(final long unscaled, final int scale) {
+    if (unscaled == OVERFLOW) {
+      return new Decimal(BigDecimal.valueOf(unscaled, scale));
+    }
+    return new Decimal(unscaled, scale);
+  }
+
+  /**
+   * Wraps a BigDecimal, using the compact representation if it will fit.
+   */
+  public static Decimal valueOf(final BigDecimal number) {
+    if (number.precision() <= MAX_COMPACT_DIGITS) {
+      return new Decimal(number.unscaledValue().longValue(), number.scale());
+    }
+    return new Decimal(number);
+  }
+
+  /**
+   * Parses a number, giving exactly the value and scale new BigDecimal(String)
+   * would. Plain numbers of up to 18 significant digits are parsed straight
+   * into the compact representation; anything else, including malformed
+   * input, is handed to BigDecimal.
+   * @param number a decimal number, usually taken from the InputBuffer
+   * @throws NumberFormatException if the String is not a valid number
+   */
+  public static Decimal parse(final String number) {
+    final int len = number.length();
+    int i = 0;
+    boolean negative = false;
+    if (len > 0) {
+      final char c = number.charAt(0);
+      if (c == '-' || c == '+') {
+        negative = c == '-';
+        i++;
+      }
+    }
+    long value = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean seenPoint = false;
+    boolean seenDigit = false;
+    for (; i < len; i++) {
+      final char c = number.charAt(i);
+      if (c >= '0' && c <= '9') {
+        seenDigit = true;
+        if (value != 0 || c != '0') {
+          digits++;
+          if (digits > MAX_COMPACT_DIGITS) {
+            return valueOf(new BigDecimal(number));
+          }
+        }
+        value = value * 10 + (c - '0');
+        if (seenPoint) {
+          scale++;
+        }
+      } else if (c == '.' && !seenPoint) {
+        seenPoint = true;
+      } else {
+        // Exponents, and errors for BigDecimal to report.
+        return valueOf(new BigDecimal(number));
+      }
+    }
+    if (!seenDigit) {
+      return valueOf(new BigDecimal(number));
+    }
+    return new Decimal(negative ? -value : value, scale);
+  }
+
+  /**
+   * Returns whether the value is held as a scaled long.
+   */
+  public boolean isCompact() {
+    return this.big == null;
+  }
+
+  /**
+   * Gets the unscaled value. Only meaningful if isCompact() is true.
+   */
+  public long unscaledLong() {
+    return this.unscaled;
+  }
+
+  public int scale() {
+    return this.scale;
+  }
+
+  /**
+   * Returns the number of digits in the unscaled value, as
+   * BigDecimal.precision() would.
+   */
+  public int precision() {
+    if (this.big == null) {
+      long v = Math.abs(this.unscaled);
+      int digits = 1;
+      while (v >= 10) {
+        v /= 10;
+        digits++;
+      }
+      return digits;
+    }
+    return this.big.precision();
+  }
+
+  public int signum() {
+    if (this.big == null) {
+      return Long.signum(this.unscaled);
+    }
+    return this.big.signum();
+  }
+
+  /**
+   * Gets the value as a BigDecimal. This allocates for compact values, so
+   * it's best kept off the common arithmetic paths.
+   */
+  public BigDecimal toBigDecimal() {
+    if (this.big == null) {
+      return BigDecimal.valueOf(this.unscaled, this.scale);
+    }
+    return this.big;
+  }
+
+  public Decimal negate() {
+    if (this.big == null) {
+      return new Decimal(-this.unscaled, this.scale);
+    }
+    return valueOf(this.big.negate());
+  }
+
+  /**
+   * Returns this + other, with the scale BigDecimal.add would give.
+   */
+  public Decimal add(final Decimal other) {
+    if (this.big == null && other.big == null) {
+      final Decimal r = compactAdd(this.unscaled, this.scale,
+          other.unscaled, other.scale);
+      if (r != null) {
+        return r;
+      }
+    }
+    return valueOf(toBigDecimal().add(other.toBigDecimal()));
+  }
+
+  /**
+   * Returns this - other, with the scale BigDecimal.subtract would give.
+   */
+  public Decimal subtract(final Decimal other) {
+    if (this.big == null && other.big == null) {
+      final Decimal r = compactAdd(this.unscaled, this.scale,
+          -other.unscaled, other.scale);
+      if (r != null) {
+        return r;
+      }
+    }
+    return valueOf(toBigDecimal().subtract(other.toBigDecimal()));
+  }
+
+  /**
+   * Returns this * other, with the scale BigDecimal.multiply would give.
+   */
+  public Decimal multiply(final Decimal other) {
+    if (this.big == null && other.big == null) {
+      final long s = (long) this.scale + other.scale;
+      final long r = multiplyChecked(this.unscaled, other.unscaled);
+      if (r != OVERFLOW && s == (int) s) {
+        return new Decimal(r, (int) s);
+      }
+    }
+    return valueOf(toBigDecimal().multiply(other.toBigDecimal()));
+  }
+
+  /**
+   * Returns this^n, exactly as BigDecimal.pow(int) would.
+   * @throws ArithmeticException if n is out of the range BigDecimal accepts
+   */
+  public Decimal pow(final int n) {
+    if (n < 0 || n > MAX_POW) {
+      // Refuse it the same way whichever form the value takes.
+      throw new ArithmeticException("Invalid operation");
+    }
+    if (this.big == null) {
+      final long s = (long) this.scale * n;
+      if (s == (int) s) {
+        long result = 1;
+        long base = this.unscaled;
+        int e = n;
+        while (e != 0 && result != OVERFLOW) {
+          if ((e & 1) != 0) {
+            result = multiplyChecked(result, base);
+          }
+          e >>>= 1;
+          if (e != 0) {
+            base = multiplyChecked(base, base);
+            if (base == OVERFLOW) {
+              result = OVERFLOW;
+            }
+          }
+        }
+        if (result != OVERFLOW) {
+          return n == 0 ? ONE : new Decimal(result, (int) s);
+        }
+      }
+    }
+    return valueOf(toBigDecimal().pow(n));
+  }
+
+  /**
+   * Returns the value with the given scale, as BigDecimal.setScale would.
+   */
+  public Decimal setScale(final int newScale, final RoundingMode mode) {
+    if (newScale == this.scale) {
+      return this;
+    }
+    return valueOf(toBigDecimal().setScale(newScale, mode));
+  }
+
+  /**
+   * Returns the value rounded to a precision, as BigDecimal.round would.
+   */
+  public Decimal round(final MathContext mc) {
+    if (mc.getPrecision() == 0 || precision() <= mc.getPrecision()) {
+      return this;
+    }
+    return valueOf(toBigDecimal().round(mc));
+  }
+
+  /**
+   * Returns the value with trailing zeros removed from the unscaled value,
+   * as BigDecimal.stripTrailingZeros would, except that zero keeps scale 0.
+   */
+  public Decimal stripTrailingZeros() {
+    if (this.big == null) {
+      if (this.unscaled == 0) {
+        return this.scale == 0 ? this : ZERO;
+      }
+      long u = this.unscaled;
+      int s = this.scale;
+      while (u % 10 == 0 && s != Integer.MIN_VALUE) {
+        u /= 10;
+        s--;
+      }
+      return s == this.scale ? this : new Decimal(u, s);
+    }
+    if (this.big.signum() == 0) {
+      return ZERO;
+    }
+    return valueOf(this.big.stripTrailingZeros());
+  }
+
+  /**
+   * Returns the value as an int, as BigDecimal.intValueExact() would.
+   * @throws ArithmeticException if there's a fractional part or the value is
+   * out of range
+   */
+  public int intValueExact() {
+    if (this.big == null && this.scale == 0 &&
+        this.unscaled == (int) this.unscaled) {
+      return (int) this.unscaled;
+    }
+    return toBigDecimal().intValueExact();
+  }
+
+  /**
+   * Returns the value as an int, as BigDecimal.intValue() would.
+   */
+  public int intValue() {
+    if (this.big == null && this.scale == 0) {
+      return (int) this.unscaled;
+    }
+    return toBigDecimal().intValue();
+  }
+
+  /**
+   * Compares values numerically, ignoring scale, as BigDecimal.compareTo
+   * does.
+   */
+  @Override
+  public int compareTo(final Decimal other) {
+    if (this.big == null && other.big == null) {
+      long x = this.unscaled;
+      long y = other.unscaled;
+      if (this.scale < other.scale) {
+        x = rescale(x, (long) other.scale - this.scale);
+      } else {
+        y = rescale(y, (long) this.scale - other.scale);
+      }
+      if (x != OVERFLOW && y != OVERFLOW) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+      }
+    }
+    return toBigDecimal().compareTo(other.toBigDecimal());
+  }
+
+  /**
+   * Two Decimals are equal if they have the same value and scale, as with
+   * BigDecimal.
+   */
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Decimal)) {
+      return false;
+    }
+    final Decimal d = (Decimal) o;
+    if (this.big == null && d.big == null) {
+      return this.unscaled == d.unscaled && this.scale == d.scale;
+    }
+    return toBigDecimal().equals(d.toBigDecimal());
+  }
+
+  @Override
+  public int hashCode() {
+    return toBigDecimal().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return toBigDecimal().toString();
+  }
+
+  /**
+   * Adds two compact values, aligning to the larger scale.
+   * @return the sum, or null if it won't fit in a long
+   */
+  private static Decimal compactAdd(final long a, final int as,
+      final long b, final int bs) {
+    long x = a;
+    long y = b;
+    final int scale;
+    if (as < bs) {
+      x = rescale(a, (long) bs - as);
+      scale = bs;
+    } else {
+      y = rescale(b, (long) as - bs);
+      scale = as;
+    }
+    if (x == OVERFLOW || y == OVERFLOW) {
+      return null;
+    }
+    final long r = x + y;
+    if (((x ^ r) & (y ^ r)) < 0 || r == OVERFLOW) {
+      return null;
+    }
+    return new Decimal(r, scale);
+  }
+
+  /**
+   * Multiplies by 10^shift, or returns OVERFLOW if that won't fit.
+   */
+  private static long rescale(final long value, final long shift) {
+    if (shift == 0) {
+      return value;
+    }
+    if (shift >= TEN_POWERS.length) {
+      return value == 0 ? 0 : OVERFLOW;
+    }
+    return multiplyChecked(value, TEN_POWERS[(int) shift]);
+  }
+
+  /**
+   * Multiplies two longs, neither of which is OVERFLOW.
+   * @return the product, or OVERFLOW if it won't fit in a long
+   */
+  private static long multiplyChecked(final long a, final long b) {
+    final long r = a * b;
+    if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0) {
+      if (b != 0 && r / b != a) {
+        return OVERFLOW;
+      }
+    }
+    return r;
+  }
+
+}
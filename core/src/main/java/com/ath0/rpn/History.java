@@ -0,0 +1,352 @@
+package com.ath0.rpn;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Undo and redo history for a RingStack and its Statistics registers.
+ * Rather than copying the stack for every step, which would make each
+ * keystroke O(n) in the depth of the stack, the stack reports each change
+ * it makes as the change which would reverse it, and the history keeps
+ * those in steps, one per user action. A step only holds the values the
+ * action removed or overwrote; the rest of the stack is shared, and as
+ * Decimal values are immutable, holding references is enough. Clearing the
+ * stack hands its storage to the history whole, so that is O(1) too.
+ * Undoing a step makes its reverse changes, which the stack reports in
+ * turn, so the history records the step which redoes it as it goes.
+ * Each step also holds the input buffer contents and display scale from
+ * before it, which aren't part of the stack.
+ * The number of steps kept is bounded, with the oldest discarded first.
+ */
+final class History {
+
+  // Kinds of change, each named for the operation which reverses it.
+  static final int POP = 0;
+  static final int PUSH = 1;
+  static final int REMOVE_BOTTOM = 2;
+  static final int PUSH_BOTTOM = 3;
+  static final int SET = 4;
+  static final int SWAP = 5;
+  static final int ROLL_UP = 6;
+  static final int ROLL_DOWN = 7;
+  static final int ROTATE = 8;
+  static final int UNROTATE = 9;
+  static final int RESTORE = 10;
+  static final int STATISTICS = 11;
+
+  /**
+   * The changes made by one user action, and the state outside the stack
+   * from before it.
+   */
+  static final class Step {
+
+    // Most actions make no more than three changes.
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final String buffer;
+    private final int scale;
+    private int[] changes = new int[INITIAL_CAPACITY];
+    // Stack levels, for SET changes.
+    private int[] levels = new int[INITIAL_CAPACITY];
+    // Values removed or overwritten, or the saved storage for RESTORE and
+    // registers for STATISTICS.
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    Step(final String buffer, final int scale) {
+      super();
+      this.buffer = buffer;
+      this.scale = scale;
+    }
+
+    /**
+     * Closes the storage saved by RESTORE changes, once the step is
+     * forgotten without being reverted.
+     */
+    void discard() {
+      for (int i = 0; i < this.size; i++) {
+        if (this.changes[i] == RESTORE) {
+          ((RingStack) this.values[i]).close();
+        }
+      }
+    }
+
+    /**
+     * Gets the input buffer contents from before the step.
+     */
+    String getBuffer() {
+      return this.buffer;
+    }
+
+    /**
+     * Gets the display scale from before the step.
+     */
+    int getScale() {
+      return this.scale;
+    }
+
+    /**
+     * Returns whether the step made no changes at all, compared with the
+     * given state.
+     */
+    boolean isEmpty(final String currentBuffer, final int currentScale) {
+      return this.size == 0 && this.scale == currentScale &&
+          this.buffer.equals(currentBuffer);
+    }
+
+    /**
+     * Gets the number of changes.
+     */
+    int size() {
+      return this.size;
+    }
+
+    /**
+     * Gets the kind of the change at an index, in the order recorded.
+     */
+    int getChange(final int index) {
+      return this.changes[index];
+    }
+
+    /**
+     * Gets the stack level of the change at an index, for SET.
+     */
+    int getLevel(final int index) {
+      return this.levels[index];
+    }
+
+    /**
+     * Gets the value of the change at an index, or null.
+     */
+    Object getValue(final int index) {
+      return this.values[index];
+    }
+
+    /**
+     * Returns whether any change is of the given kind.
+     */
+    boolean contains(final int change) {
+      for (int i = 0; i < this.size; i++) {
+        if (this.changes[i] == change) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Adds a change, after those already recorded.
+     */
+    void add(final int change, final int level, final Object value) {
+      if (this.size == this.changes.length) {
+        final int capacity = this.size << 1;
+        this.changes = Arrays.copyOf(this.changes, capacity);
+        this.levels = Arrays.copyOf(this.levels, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+      }
+      this.changes[this.size] = change;
+      this.levels[this.size] = level;
+      this.values[this.size] = value;
+      this.size++;
+    }
+
+    /**
+     * Reverses the changes, last first.
+     */
+    void revert(final RingStack stack, final Statistics statistics) {
+      for (int i = this.size - 1; i >= 0; i--) {
+        final Object value = this.values[i];
+        switch (this.changes[i]) {
+        case POP:
+          stack.pop();
+          break;
+        case PUSH:
+          stack.unpop((Decimal) value);
+          break;
+        case REMOVE_BOTTOM:
+          stack.removeBottom();
+          break;
+        case PUSH_BOTTOM:
+          stack.pushBottom((Decimal) value);
+          break;
+        case SET:
+          stack.set(this.levels[i], (Decimal) value);
+          break;
+        case SWAP:
+          stack.swap();
+          break;
+        case ROLL_UP:
+          stack.rollUp();
+          break;
+        case ROLL_DOWN:
+          stack.rollDown();
+          break;
+        case ROTATE:
+          stack.rotate();
+          break;
+        case UNROTATE:
+          stack.unrotate();
+          break;
+        case RESTORE:
+          stack.restore((RingStack) value);
+          break;
+        case STATISTICS:
+          statistics.restore((Statistics) value);
+          break;
+        default:
+          throw new IllegalStateException("Unknown change " +
+              this.changes[i]);
+        }
+      }
+    }
+  }
+
+  private final ArrayDeque<Step> undoSteps = new ArrayDeque<Step>();
+  private final ArrayDeque<Step> redoSteps = new ArrayDeque<Step>();
+  private int levels;
+  // The step changes are recorded in, or null if not recording.
+  private Step current;
+
+  /**
+   * @param levels the number of steps to keep
+   */
+  History(final int levels) {
+    super();
+    this.levels = levels;
+  }
+
+  /**
+   * Sets the number of steps kept, discarding the oldest if there are
+   * already more.
+   */
+  void setLevels(final int newLevels) {
+    this.levels = newLevels;
+    trim(this.undoSteps);
+    trim(this.redoSteps);
+  }
+
+  /**
+   * Starts a new step, recording the changes which follow in it. Anything
+   * which could be redone is forgotten.
+   * @param buffer the input buffer contents before the step
+   * @param scale the display scale before the step
+   */
+  void checkpoint(final String buffer, final int scale) {
+    discard(this.redoSteps);
+    final Step last = this.undoSteps.peekLast();
+    if (last != null && last.isEmpty(buffer, scale)) {
+      // The last action did nothing, so reuse its step.
+      this.current = last;
+      return;
+    }
+    this.current = new Step(buffer, scale);
+    this.undoSteps.addLast(this.current);
+    trim(this.undoSteps);
+  }
+
+  /**
+   * Returns whether there may be a step to undo.
+   */
+  boolean canUndo() {
+    return !this.undoSteps.isEmpty();
+  }
+
+  /**
+   * Returns whether there is a step to redo.
+   */
+  boolean canRedo() {
+    return !this.redoSteps.isEmpty();
+  }
+
+  /**
+   * Records a change, if a step is in progress.
+   * @param change the kind of change which reverses it
+   * @param level the stack level, for SET
+   * @param value the value to restore, or null
+   */
+  void record(final int change, final int level, final Object value) {
+    if (this.current != null) {
+      this.current.add(change, level, value);
+    }
+  }
+
+  /**
+   * Returns whether changes are being recorded.
+   */
+  boolean isRecording() {
+    return this.current != null;
+  }
+
+  /**
+   * Undoes the last step which changed anything. Recording stops until the
+   * next checkpoint.
+   * @param stack the stack the step was recorded from
+   * @param statistics the registers the step was recorded from
+   * @param buffer the current input buffer contents
+   * @param scale the current display scale
+   * @return the step undone, holding the buffer and scale to restore, or
+   * null if there was nothing to undo
+   */
+  Step undo(final RingStack stack, final Statistics statistics,
+      final String buffer, final int scale) {
+    return move(this.undoSteps, this.redoSteps, stack, statistics, buffer,
+        scale);
+  }
+
+  /**
+   * Redoes the last step undone. Recording stops until the next checkpoint.
+   * @return the step redone, holding the buffer and scale to restore, or
+   * null if there was nothing to redo
+   */
+  Step redo(final RingStack stack, final Statistics statistics,
+      final String buffer, final int scale) {
+    return move(this.redoSteps, this.undoSteps, stack, statistics, buffer,
+        scale);
+  }
+
+  /**
+   * Forgets every step.
+   */
+  void clear() {
+    discard(this.undoSteps);
+    discard(this.redoSteps);
+    this.current = null;
+  }
+
+  /**
+   * Reverts the last step from one list, recording its reversal on the
+   * other.
+   */
+  private Step move(final ArrayDeque<Step> from, final ArrayDeque<Step> to,
+      final RingStack stack, final Statistics statistics, final String buffer,
+      final int scale) {
+    Step step = from.pollLast();
+    while (step != null && step.isEmpty(buffer, scale)) {
+      step = from.pollLast();
+    }
+    if (step == null) {
+      this.current = null;
+      return null;
+    }
+    this.current = new Step(buffer, scale);
+    step.revert(stack, statistics);
+    to.addLast(this.current);
+    trim(to);
+    this.current = null;
+    return step;
+  }
+
+  private void trim(final ArrayDeque<Step> steps) {
+    while (steps.size() > this.levels) {
+      steps.removeFirst().discard();
+    }
+  }
+
+  private static void discard(final ArrayDeque<Step> steps) {
+    for (final Step step : steps) {
+      step.discard();
+    }
+    steps.clear();
+  }
+
+}
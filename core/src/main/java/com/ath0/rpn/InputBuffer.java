@@ -2,8 +2,6 @@ package com.ath0.rpn;
 
 import java.io.Serializable;
 
-import android.util.Log;
-
 /**
  * Implements the calculator's input buffer.
  */
@@ -59,7 +57,7 @@ public class InputBuffer implements Serializable {
       this.buffer.append(ich);
       break;
     default:
-      Log.e("append", "Ignoring character '" + ich + "'");
+      Logger.e("append", "Ignoring character '" + ich + "'");
     }
   }
 
@@ -0,0 +1,548 @@
+package com.ath0.rpn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Append-only journal of the operations the controller applies to the stack
+ * and input buffer, so that state survives without rewriting the whole stack
+ * on every keystroke.
+ * Each entry is an opcode byte, followed for BUFFER entries by the new buffer
+ * contents, and for COMMIT entries by the results of a background
+ * computation. Slow operations are journaled by their results, so that
+ * recovery doesn't repeat the work on the UI thread. Undo and redo are
+ * journaled as the changes they made, as replay has no history to undo.
+ * Journals are numbered by generation, one file per generation.
+ * Periodically the controller takes a snapshot: it starts a new generation
+ * and saves the full state, recording in it the generation at which the
+ * journal continues. Recovery loads the snapshot and replays every journal
+ * from that generation onwards. Journals from before the latest durable
+ * snapshot can then be deleted.
+ */
+public class Journal {
+
+  // Opcodes. These are written to storage, so must never be renumbered.
+  /** Push the input buffer onto the stack and clear the buffer. */
+  public static final byte ENTER = 1;
+  public static final byte DROP = 2;
+  public static final byte DUP = 3;
+  public static final byte SWAP = 4;
+  public static final byte CHS = 5;
+  public static final byte ADD = 6;
+  public static final byte SUBTRACT = 7;
+  public static final byte MULTIPLY = 8;
+  public static final byte DIVIDE = 9;
+  public static final byte POWER = 10;
+  public static final byte RECIPROCAL = 11;
+  public static final byte SQRT = 12;
+  /** Set the display scale from the top of the stack. */
+  public static final byte SET_SCALE = 13;
+  /** Set the input buffer contents. Followed by the contents as UTF. */
+  public static final byte BUFFER = 14;
+  public static final byte ROLL_UP = 15;
+  public static final byte ROLL_DOWN = 16;
+  public static final byte ROTATE = 17;
+  public static final byte PICK = 18;
+  public static final byte SUM = 19;
+  public static final byte PRODUCT = 20;
+  public static final byte MIN = 21;
+  public static final byte MAX = 22;
+  public static final byte CHS_ALL = 23;
+  public static final byte MULTIPLY_ALL = 24;
+  public static final byte RECIPROCAL_ALL = 25;
+  public static final byte SQRT_ALL = 26;
+  public static final byte STAT_ADD = 27;
+  public static final byte STAT_REMOVE = 28;
+  public static final byte STAT_CLEAR = 29;
+  public static final byte MEAN = 30;
+  public static final byte SDEV = 31;
+  public static final byte LINE = 32;
+  /**
+   * Replace the top levels of the stack with the results of a computation.
+   * Followed by the number of levels as an int, the number of results as an
+   * int, and the results, deepest first, as StateCodec writes values.
+   */
+  public static final byte COMMIT = 33;
+  /**
+   * Make the changes of an undo or redo step. Followed by the buffer
+   * contents as UTF, the scale as an int, the number of changes as an int,
+   * and each change in the order the step recorded them: its kind as a
+   * byte, then for SET the level as an int, for SET, PUSH and PUSH_BOTTOM a
+   * value, and for STATISTICS the count as a long and the five sums, values
+   * written as StateCodec writes them.
+   */
+  public static final byte STEP = 34;
+
+  private static final String PREFIX = "journal.";
+
+  // Entries are small, so a small buffer is plenty.
+  private static final int BUFFER_SIZE = 512;
+  // Results to make room for before growing, when replaying a commit.
+  private static final int INITIAL_RESULTS = 16;
+
+  private final File dir;
+  private final int snapshotInterval;
+  private DataOutputStream out;
+  private long generation;
+  private int entries;
+
+  /**
+   * @param dir the directory holding the journal files
+   * @param snapshotInterval the number of entries after which needsSnapshot
+   * returns true
+   */
+  public Journal(final File dir, final int snapshotInterval) {
+    super();
+    this.dir = dir;
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /**
+   * Closes the current journal file, if any, and starts a new generation
+   * with an empty file.
+   * @return the new generation, which snapshots of the current state should
+   * record
+   */
+  public long startGeneration() {
+    close();
+    this.generation++;
+    this.entries = 0;
+    try {
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file(this.dir, this.generation)), BUFFER_SIZE));
+    } catch (IOException ex) {
+      Logger.e("Journal", "Unable to start journal: " + ex.getMessage());
+      this.out = null;
+    }
+    return this.generation;
+  }
+
+  /**
+   * Records an operation with no arguments.
+   * @param op one of the opcodes above, other than BUFFER
+   */
+  public void record(final byte op) {
+    if (this.out != null) {
+      try {
+        this.out.writeByte(op);
+        this.out.flush();
+        this.entries++;
+      } catch (IOException ex) {
+        fail(ex);
+      }
+    }
+  }
+
+  /**
+   * Records the results of a computation which replaced the top levels of
+   * the stack, as CalculatorStack.commit does. Each result counts as an
+   * entry towards the next snapshot, so a large commit soon leads to one.
+   * @param arity the number of levels replaced
+   * @param results the results, deepest first
+   */
+  public void recordCommit(final int arity, final Decimal[] results) {
+    if (this.out != null) {
+      try {
+        this.out.writeByte(COMMIT);
+        this.out.writeInt(arity);
+        this.out.writeInt(results.length);
+        final byte[] bytes = new byte[8];
+        for (final Decimal r : results) {
+          StateCodec.writeDecimal(this.out, r, bytes);
+        }
+        this.out.flush();
+        this.entries += 1 + results.length;
+      } catch (IOException ex) {
+        fail(ex);
+      }
+    }
+  }
+
+  /**
+   * Records the step just undone or redone, so that undo and redo needn't
+   * snapshot the whole state. A step which restored the whole stack, as
+   * undoing a clear does, would have to write every value, so it isn't
+   * recorded.
+   * @return whether the step was recorded; if not, the caller should take a
+   * snapshot instead
+   */
+  public boolean recordStep(final CalculatorStack stack) {
+    final History.Step step = stack.getLastStep();
+    if (this.out == null || step == null ||
+        step.contains(History.RESTORE)) {
+      return false;
+    }
+    try {
+      this.out.writeByte(STEP);
+      this.out.writeUTF(step.getBuffer());
+      this.out.writeInt(step.getScale());
+      this.out.writeInt(step.size());
+      final byte[] bytes = new byte[8];
+      for (int i = 0; i < step.size(); i++) {
+        final int change = step.getChange(i);
+        this.out.writeByte(change);
+        if (change == History.SET) {
+          this.out.writeInt(step.getLevel(i));
+        }
+        if (change == History.SET || change == History.PUSH ||
+            change == History.PUSH_BOTTOM) {
+          StateCodec.writeDecimal(this.out, (Decimal) step.getValue(i),
+              bytes);
+        } else if (change == History.STATISTICS) {
+          final Statistics s = (Statistics) step.getValue(i);
+          this.out.writeLong(s.getCount());
+          StateCodec.writeDecimal(this.out, s.getSumX(), bytes);
+          StateCodec.writeDecimal(this.out, s.getSumX2(), bytes);
+          StateCodec.writeDecimal(this.out, s.getSumY(), bytes);
+          StateCodec.writeDecimal(this.out, s.getSumY2(), bytes);
+          StateCodec.writeDecimal(this.out, s.getSumXY(), bytes);
+        }
+      }
+      this.out.flush();
+      this.entries += 1 + step.size();
+    } catch (IOException ex) {
+      fail(ex);
+    }
+    return true;
+  }
+
+  /**
+   * Records new input buffer contents.
+   */
+  public void recordBuffer(final InputBuffer buffer) {
+    if (this.out != null) {
+      try {
+        this.out.writeByte(BUFFER);
+        this.out.writeUTF(buffer.get());
+        this.out.flush();
+        this.entries++;
+      } catch (IOException ex) {
+        fail(ex);
+      }
+    }
+  }
+
+  /**
+   * Returns whether enough entries have been recorded since the last
+   * generation started that a snapshot is worthwhile, or if journaling has
+   * failed and only a snapshot will preserve state.
+   */
+  public boolean needsSnapshot() {
+    return this.out == null || this.entries >= this.snapshotInterval;
+  }
+
+  /**
+   * Closes the current journal file.
+   */
+  public void close() {
+    if (this.out != null) {
+      try {
+        this.out.close();
+      } catch (IOException ex) {
+        Logger.e("Journal", "Unable to close journal: " + ex.getMessage());
+      }
+      this.out = null;
+    }
+  }
+
+  /**
+   * Replays journals onto state loaded from a snapshot. Replay of a journal
+   * stops at the first incomplete entry, which is what a crash part way
+   * through a write leaves behind. Journals after the first missing
+   * generation don't follow on from the snapshot, so they're deleted rather
+   * than left for a later replay to find.
+   * @param from the generation recorded in the snapshot
+   * @return the last generation found, or from - 1 if there were none
+   */
+  public long replay(final long from, final CalculatorStack stack,
+      final InputBuffer buffer) {
+    long gen = from;
+    File f = file(this.dir, gen);
+    while (f.exists()) {
+      try {
+        final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(f)));
+        try {
+          replay(in, stack, buffer);
+        } finally {
+          in.close();
+        }
+      } catch (IOException ex) {
+        Logger.e("Journal", "Unable to replay " + f.getPath() + ": " +
+            ex.getMessage());
+      }
+      gen++;
+      f = file(this.dir, gen);
+    }
+    delete(this.dir, gen, Long.MAX_VALUE);
+    this.generation = gen - 1;
+    return this.generation;
+  }
+
+  /**
+   * Deletes every journal, when the snapshot they follow can't be loaded,
+   * so that none of them is replayed onto the state which replaces it.
+   * Numbering starts again as if there had been no snapshot.
+   */
+  public void discard() {
+    close();
+    delete(this.dir, Long.MIN_VALUE, Long.MAX_VALUE);
+    this.generation = 0;
+    this.entries = 0;
+  }
+
+  /**
+   * Deletes the journals which precede a generation, as they are included in
+   * a durable snapshot.
+   */
+  public static void deleteBefore(final File dir, final long generation) {
+    delete(dir, Long.MIN_VALUE, generation);
+  }
+
+  /**
+   * Deletes the journals from one generation up to, but not including,
+   * another.
+   */
+  private static void delete(final File dir, final long from,
+      final long to) {
+    final String[] names = dir.list();
+    if (names == null) {
+      return;
+    }
+    for (final String name : names) {
+      if (name.startsWith(PREFIX)) {
+        try {
+          final long gen = Long.parseLong(name.substring(PREFIX.length()));
+          if (gen >= from && gen < to && !new File(dir, name).delete()) {
+            Logger.w("Journal", "Unable to delete " + name);
+          }
+        } catch (NumberFormatException ex) {
+          // Not one of ours
+        }
+      }
+    }
+  }
+
+  private static void replay(final DataInputStream in,
+      final CalculatorStack stack, final InputBuffer buffer)
+      throws IOException {
+    while (true) {
+      final int op;
+      try {
+        op = in.readByte();
+      } catch (EOFException ex) {
+        return;
+      }
+      try {
+        apply(op, in, stack, buffer);
+      } catch (EOFException ex) {
+        Logger.w("Journal", "Ignoring incomplete entry at end of journal");
+        return;
+      }
+    }
+  }
+
+  private static void apply(final int op, final DataInputStream in,
+      final CalculatorStack stack, final InputBuffer buffer)
+      throws IOException {
+    switch (op) {
+    case ENTER:
+      if (!buffer.isEmpty()) {
+        stack.push(buffer.get());
+        buffer.zap();
+      }
+      break;
+    case DROP:
+      stack.drop();
+      break;
+    case DUP:
+      stack.dup();
+      break;
+    case SWAP:
+      stack.swap();
+      break;
+    case CHS:
+      stack.chs();
+      break;
+    case ADD:
+      stack.add();
+      break;
+    case SUBTRACT:
+      stack.subtract();
+      break;
+    case MULTIPLY:
+      stack.multiply();
+      break;
+    case DIVIDE:
+      stack.divide();
+      break;
+    case POWER:
+      stack.power();
+      break;
+    case RECIPROCAL:
+      stack.reciprocal();
+      break;
+    case SQRT:
+      stack.sqrt();
+      break;
+    case SET_SCALE:
+      stack.setScale();
+      break;
+    case BUFFER:
+      buffer.set(in.readUTF());
+      break;
+    case ROLL_UP:
+      stack.rollUp();
+      break;
+    case ROLL_DOWN:
+      stack.rollDown();
+      break;
+    case ROTATE:
+      stack.rotate();
+      break;
+    case PICK:
+      stack.pick();
+      break;
+    case SUM:
+      stack.sum();
+      break;
+    case PRODUCT:
+      stack.product();
+      break;
+    case MIN:
+      stack.min();
+      break;
+    case MAX:
+      stack.max();
+      break;
+    case CHS_ALL:
+      stack.chsAll();
+      break;
+    case MULTIPLY_ALL:
+      stack.multiplyAll();
+      break;
+    case RECIPROCAL_ALL:
+      stack.reciprocalAll();
+      break;
+    case SQRT_ALL:
+      stack.sqrtAll();
+      break;
+    case STAT_ADD:
+      stack.statAdd();
+      break;
+    case STAT_REMOVE:
+      stack.statRemove();
+      break;
+    case STAT_CLEAR:
+      stack.statClear();
+      break;
+    case MEAN:
+      stack.mean();
+      break;
+    case SDEV:
+      stack.sdev();
+      break;
+    case LINE:
+      stack.line();
+      break;
+    case COMMIT:
+      commit(in, stack);
+      break;
+    case STEP:
+      step(in, stack, buffer);
+      break;
+    default:
+      throw new IOException("Unknown journal entry " + op);
+    }
+  }
+
+  private static void step(final DataInputStream in,
+      final CalculatorStack stack, final InputBuffer buffer)
+      throws IOException {
+    final History.Step step = new History.Step(in.readUTF(), in.readInt());
+    final int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("Journal is corrupt");
+    }
+    final byte[] bytes = new byte[8];
+    for (int i = 0; i < count; i++) {
+      final int change = in.readByte();
+      switch (change) {
+      case History.POP:
+      case History.REMOVE_BOTTOM:
+      case History.SWAP:
+      case History.ROLL_UP:
+      case History.ROLL_DOWN:
+      case History.ROTATE:
+      case History.UNROTATE:
+        step.add(change, 0, null);
+        break;
+      case History.PUSH:
+      case History.PUSH_BOTTOM:
+        step.add(change, 0, StateCodec.readDecimal(in, bytes));
+        break;
+      case History.SET:
+        final int level = in.readInt();
+        step.add(change, level, StateCodec.readDecimal(in, bytes));
+        break;
+      case History.STATISTICS:
+        final Statistics s = new Statistics();
+        s.set(in.readLong(), StateCodec.readDecimal(in, bytes),
+            StateCodec.readDecimal(in, bytes),
+            StateCodec.readDecimal(in, bytes),
+            StateCodec.readDecimal(in, bytes),
+            StateCodec.readDecimal(in, bytes));
+        step.add(change, 0, s);
+        break;
+      default:
+        throw new IOException("Journal is corrupt");
+      }
+    }
+    try {
+      stack.replay(step, buffer);
+    } catch (RuntimeException ex) {
+      // The changes don't fit the stack, so the entry can't be right.
+      throw new IOException("Journal is corrupt", ex);
+    }
+  }
+
+  private static void commit(final DataInputStream in,
+      final CalculatorStack stack) throws IOException {
+    final int arity = in.readInt();
+    final int count = in.readInt();
+    if (arity < 0 || count < 0) {
+      throw new IOException("Journal is corrupt");
+    }
+    // Grown as values are read, so a corrupt count can't allocate much.
+    Decimal[] results = new Decimal[Math.min(count, INITIAL_RESULTS)];
+    final byte[] bytes = new byte[8];
+    for (int i = 0; i < count; i++) {
+      if (i == results.length) {
+        results = Arrays.copyOf(results, Math.min(count, i << 1));
+      }
+      results[i] = StateCodec.readDecimal(in, bytes);
+    }
+    if (stack.size() < arity) {
+      throw new IOException("Journal doesn't match saved state");
+    }
+    stack.commit(arity, results);
+  }
+
+  private void fail(final IOException ex) {
+    Logger.e("Journal", "Unable to write journal: " + ex.getMessage());
+    close();
+  }
+
+  private static File file(final File dir, final long generation) {
+    return new File(dir, PREFIX + generation);
+  }
+
+}
@@ -0,0 +1,71 @@
+package com.ath0.rpn;
+
+/**
+ * Logging for the calculator engine, which has no Android dependencies and
+ * so can't use android.util.Log directly. Messages go to a pluggable Sink;
+ * the app installs one which forwards to the Android log, and by default
+ * messages are discarded.
+ */
+public final class Logger {
+
+  /**
+   * Receives log messages.
+   */
+  public static interface Sink {
+
+    /**
+     * Logs a message.
+     * @param level one of DEBUG, WARN or ERROR
+     * @param tag identifies the source of the message
+     * @param message the message
+     */
+    void log(int level, String tag, String message);
+  }
+
+  public static final int DEBUG = 3;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+
+  private static final Sink DISCARD = new Sink() {
+    @Override
+    public void log(final int level, final String tag, final String message) {
+      // Discarded
+    }
+  };
+
+  private static volatile Sink sink = DISCARD;
+
+  private Logger() {
+    super();
+  }
+
+  /**
+   * Sets where log messages go.
+   * @param newSink the sink, or null to discard messages
+   */
+  public static void setSink(final Sink newSink) {
+    sink = newSink == null ? DISCARD : newSink;
+  }
+
+  /**
+   * Logs a debugging message.
+   */
+  public static void d(final String tag, final String message) {
+    sink.log(DEBUG, tag, message);
+  }
+
+  /**
+   * Logs a warning.
+   */
+  public static void w(final String tag, final String message) {
+    sink.log(WARN, tag, message);
+  }
+
+  /**
+   * Logs an error.
+   */
+  public static void e(final String tag, final String message) {
+    sink.log(ERROR, tag, message);
+  }
+
+}
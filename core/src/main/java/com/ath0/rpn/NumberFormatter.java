@@ -0,0 +1,198 @@
+package com.ath0.rpn;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Formats numbers to a fixed number of decimal places, rounding half up, with
+ * digit grouping. The output is the same as BigDecimal.setScale(scale,
+ * RoundingMode.HALF_UP).toPlainString() with separators inserted, but is
+ * written in a single pass into a reusable char buffer. Compact values are
+ * formatted straight from their long without creating any BigDecimal or
+ * intermediate String.
+ * Instances are not thread safe.
+ */
+public class NumberFormatter {
+
+  // Enough for any long, its sign, separators and a typical number of
+  // decimal places; the buffers grow if needed.
+  private static final int TYPICAL_LENGTH = 64;
+
+  private static final long[] TEN_POWERS = {
+    1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+    1000000000L, 10000000000L, 100000000000L, 1000000000000L,
+    10000000000000L, 100000000000000L, 1000000000000000L,
+    10000000000000000L, 100000000000000000L, 1000000000000000000L
+  };
+
+  private char groupSeparator = ',';
+  private char decimalSeparator = '.';
+  // Digits per group, or 0 for no grouping.
+  private int groupSize = 3;
+
+  // Digits of the rounded unscaled value, without sign.
+  private char[] digits = new char[TYPICAL_LENGTH];
+  // The formatted result.
+  private char[] chars = new char[TYPICAL_LENGTH];
+  private int length;
+
+  /**
+   * Sets the digit grouping.
+   * @param separator the character between groups
+   * @param size the number of integer digits per group, or 0 for no grouping
+   */
+  public void setGrouping(final char separator, final int size) {
+    this.groupSeparator = separator;
+    this.groupSize = size;
+  }
+
+  /**
+   * Sets the character written between the integer and fractional parts.
+   */
+  public void setDecimalSeparator(final char separator) {
+    this.decimalSeparator = separator;
+  }
+
+  /**
+   * Formats a number.
+   * @param number the number
+   * @param scale the number of decimal places to show
+   * @return the formatted text
+   */
+  public String format(final Decimal number, final int scale) {
+    layout(number, scale);
+    return new String(this.chars, 0, this.length);
+  }
+
+  /**
+   * Formats a number and writes it out, without creating a String.
+   * @param number the number
+   * @param scale the number of decimal places to show
+   * @param out where to write the formatted text
+   * @throws IOException if the Writer fails
+   */
+  public void write(final Decimal number, final int scale, final Writer out)
+      throws IOException {
+    layout(number, scale);
+    out.write(this.chars, 0, this.length);
+  }
+
+  /**
+   * Formats a number into the chars buffer, setting length.
+   */
+  private void layout(final Decimal number, final int scale) {
+    final long shift = (long) number.scale() - scale;
+    if (number.isCompact() && shift < TEN_POWERS.length) {
+      final long u = number.unscaledLong();
+      long magnitude = Math.abs(u);
+      if (shift > 0) {
+        final long p = TEN_POWERS[(int) shift];
+        final long remainder = magnitude % p;
+        magnitude /= p;
+        // HALF_UP; p is even, so this can't overflow
+        if (remainder >= p >>> 1) {
+          magnitude++;
+        }
+      }
+      final int n = longDigits(magnitude);
+      // A value with fewer decimal places than wanted is padded with zeros.
+      final int padding = shift < 0 && magnitude != 0 ? (int) -shift : 0;
+      emit(u < 0 && magnitude != 0, n, padding, scale);
+    } else {
+      final BigDecimal r = number.toBigDecimal().setScale(scale,
+          RoundingMode.HALF_UP);
+      final String s = r.unscaledValue().abs().toString();
+      final int n = s.length();
+      ensureDigits(n);
+      s.getChars(0, n, this.digits, 0);
+      emit(r.signum() < 0, n, 0, scale);
+    }
+  }
+
+  /**
+   * Writes the digits of a non-negative long into the digits buffer.
+   * @return the number of digits
+   */
+  private int longDigits(final long value) {
+    int n = 0;
+    long v = value;
+    do {
+      this.digits[n++] = (char) ('0' + v % 10);
+      v /= 10;
+    } while (v != 0);
+    // Digits were generated least significant first.
+    for (int i = 0, j = n - 1; i < j; i++, j--) {
+      final char t = this.digits[i];
+      this.digits[i] = this.digits[j];
+      this.digits[j] = t;
+    }
+    return n;
+  }
+
+  /**
+   * Lays out sign, grouped integer part, separator and fraction from the
+   * digits buffer, which holds n digits of an unscaled value of the given
+   * scale, followed by padding zeros.
+   */
+  private void emit(final boolean negative, final int n, final int padding,
+      final int scale) {
+    final int total = n + padding;
+    final boolean zero = n == 1 && this.digits[0] == '0';
+    final int fracLen = scale > 0 ? scale : 0;
+    // Digits before the point. A negative scale implies trailing zeros,
+    // except that zero is always shown as a single digit.
+    int intLen = total - scale;
+    if (zero && scale < 0) {
+      intLen = 1;
+    }
+    final boolean leadingZero = intLen <= 0;
+    final int intDigits = leadingZero ? 1 : intLen;
+    final int groups = this.groupSize > 0 ? (intDigits - 1) / this.groupSize
+        : 0;
+    ensureChars(1 + intDigits + groups + 1 + fracLen);
+
+    final char[] out = this.chars;
+    int o = 0;
+    if (negative) {
+      out[o++] = '-';
+    }
+    if (leadingZero) {
+      out[o++] = '0';
+    } else {
+      int untilSeparator = this.groupSize > 0 ?
+          (intDigits - 1) % this.groupSize + 1 : -1;
+      for (int i = 0; i < intDigits; i++) {
+        if (untilSeparator == 0) {
+          out[o++] = this.groupSeparator;
+          untilSeparator = this.groupSize;
+        }
+        out[o++] = i < n ? this.digits[i] : '0';
+        untilSeparator--;
+      }
+    }
+    if (fracLen > 0) {
+      out[o++] = this.decimalSeparator;
+      // The fraction is the last fracLen digits, which need leading zeros if
+      // there are fewer digits than that in total.
+      for (int i = total - fracLen; i < total; i++) {
+        out[o++] = i >= 0 && i < n ? this.digits[i] : '0';
+      }
+    }
+    this.length = o;
+  }
+
+  private void ensureDigits(final int n) {
+    if (this.digits.length < n) {
+      this.digits = new char[n];
+    }
+  }
+
+  private void ensureChars(final int n) {
+    if (this.chars.length < n) {
+      this.chars = new char[n];
+    }
+  }
+
+}
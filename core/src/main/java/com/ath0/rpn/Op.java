@@ -0,0 +1,331 @@
+package com.ath0.rpn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The stack operations, with the words used for them in text and the
+ * Journal opcodes which record them. The words are the tags of the
+ * on-screen keys where there is one, so the same names work in the app's
+ * layout and in RPN text.
+ */
+public enum Op {
+
+  ADD("+", Journal.ADD, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.add();
+      return null;
+    }
+  },
+  SUBTRACT("-", Journal.SUBTRACT, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.subtract();
+      return null;
+    }
+  },
+  MULTIPLY("*", Journal.MULTIPLY, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.multiply();
+      return null;
+    }
+  },
+  DIVIDE("/", Journal.DIVIDE, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.divide();
+    }
+  },
+  POWER("pow", Journal.POWER, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.power();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.powerComputation();
+    }
+  },
+  RECIPROCAL("1/x", Journal.RECIPROCAL, 1) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.reciprocal();
+    }
+  },
+  SQRT("sqrt", Journal.SQRT, 1) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.sqrt();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.sqrtComputation();
+    }
+  },
+  CHS("chs", Journal.CHS, 1) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.chs();
+      return null;
+    }
+  },
+  SWAP("swap", Journal.SWAP, 2) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.swap();
+      return null;
+    }
+  },
+  DROP("drop", Journal.DROP, 1) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.drop();
+      return null;
+    }
+  },
+  DUP("dup", Journal.DUP, 1) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.dup();
+      return null;
+    }
+  },
+  SET_SCALE("sdp", Journal.SET_SCALE, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.setScale();
+      return null;
+    }
+  },
+  ROLL_UP("rollup", Journal.ROLL_UP, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.rollUp();
+      return null;
+    }
+  },
+  ROLL_DOWN("rolldown", Journal.ROLL_DOWN, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.rollDown();
+      return null;
+    }
+  },
+  ROTATE("rot", Journal.ROTATE, 3) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.rotate();
+      return null;
+    }
+  },
+  PICK("pick", Journal.PICK, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.pick();
+    }
+  },
+  // Operations on the whole stack.
+  SUM("sum", Journal.SUM, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.sum();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.sumComputation();
+    }
+  },
+  PRODUCT("product", Journal.PRODUCT, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.product();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.productComputation();
+    }
+  },
+  MIN("min", Journal.MIN, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.min();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.minComputation();
+    }
+  },
+  MAX("max", Journal.MAX, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.max();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.maxComputation();
+    }
+  },
+  CHS_ALL("chsall", Journal.CHS_ALL, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.chsAll();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.chsAllComputation();
+    }
+  },
+  MULTIPLY_ALL("mulall", Journal.MULTIPLY_ALL, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.multiplyAll();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.multiplyAllComputation();
+    }
+  },
+  RECIPROCAL_ALL("invall", Journal.RECIPROCAL_ALL, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.reciprocalAll();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.reciprocalAllComputation();
+    }
+  },
+  SQRT_ALL("sqrtall", Journal.SQRT_ALL, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.sqrtAll();
+    }
+
+    @Override
+    public Computation getComputation(final CalculatorStack stack) {
+      return stack.sqrtAllComputation();
+    }
+  },
+  // Statistics registers.
+  STAT_ADD("s+", Journal.STAT_ADD, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.statAdd();
+      return null;
+    }
+  },
+  STAT_REMOVE("s-", Journal.STAT_REMOVE, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.statRemove();
+      return null;
+    }
+  },
+  STAT_CLEAR("sclr", Journal.STAT_CLEAR, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      stack.statClear();
+      return null;
+    }
+  },
+  MEAN("mean", Journal.MEAN, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.mean();
+    }
+  },
+  SDEV("sdev", Journal.SDEV, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.sdev();
+    }
+  },
+  LINE("lr", Journal.LINE, 0) {
+    @Override
+    public String apply(final CalculatorStack stack) {
+      return stack.line();
+    }
+  };
+
+  private static final Map<String, Op> WORDS = new HashMap<String, Op>();
+
+  static {
+    for (final Op op : values()) {
+      WORDS.put(op.word, op);
+    }
+    // The keys which act on the stack when there's no number being typed.
+    WORDS.put("enter", DUP);
+    WORDS.put("bsp", DROP);
+  }
+
+  private final String word;
+  private final byte opcode;
+  // Number of levels read from the top of the stack, or 0 if the operation
+  // reads further down or has effects beyond the stack.
+  private final int depth;
+
+  private Op(final String word, final byte opcode, final int depth) {
+    this.word = word;
+    this.opcode = opcode;
+    this.depth = depth;
+  }
+
+  /**
+   * Gets the word for the operation in RPN text.
+   */
+  public String getWord() {
+    return this.word;
+  }
+
+  /**
+   * Gets the Journal opcode which records the operation.
+   */
+  public byte getOpcode() {
+    return this.opcode;
+  }
+
+  /**
+   * Gets the number of levels the operation reads from the top of the
+   * stack, which it replaces with its results; all else is untouched. Zero
+   * means the operation reads further down the stack, or has effects beyond
+   * the stack, so its result can't be worked out from the top levels alone.
+   */
+  public int getDepth() {
+    return this.depth;
+  }
+
+  /**
+   * Applies the operation to a stack.
+   * @return an error message, or null if there is no error
+   */
+  public abstract String apply(CalculatorStack stack);
+
+  /**
+   * Gets the operation as a Computation, for operations which can take long
+   * enough that they should be run in the background.
+   * @return the computation, or null if the operation is always quick
+   */
+  public Computation getComputation(final CalculatorStack stack) {
+    return null;
+  }
+
+  /**
+   * Looks up an operation by its word or key tag.
+   * @return the operation, or null if there is none
+   */
+  public static Op forWord(final String word) {
+    return WORDS.get(word);
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.ath0.rpn;
+
+/**
+ * Counters of how large the results of arithmetic get, before and after
+ * normalization by the ScalePolicy, for seeing how operand sizes behave over
+ * long sessions.
+ */
+public class OperandStats {
+
+  private long results;
+  private long normalized;
+  private long compact;
+  private int maxScale;
+  private int maxPrecision;
+  private long totalPrecision;
+
+  /**
+   * Records the result of an operation.
+   * @param raw the result as computed
+   * @param kept the result after normalization
+   */
+  public void record(final Decimal raw, final Decimal kept) {
+    this.results++;
+    if (kept != raw) {
+      this.normalized++;
+    }
+    if (kept.isCompact()) {
+      this.compact++;
+    }
+    final int precision = raw.precision();
+    this.totalPrecision += precision;
+    if (precision > this.maxPrecision) {
+      this.maxPrecision = precision;
+    }
+    if (raw.scale() > this.maxScale) {
+      this.maxScale = raw.scale();
+    }
+  }
+
+  /**
+   * Gets the number of results recorded.
+   */
+  public long getResults() {
+    return this.results;
+  }
+
+  /**
+   * Gets the number of results which were changed by normalization.
+   */
+  public long getNormalized() {
+    return this.normalized;
+  }
+
+  /**
+   * Gets the number of results kept in the compact representation.
+   */
+  public long getCompact() {
+    return this.compact;
+  }
+
+  /**
+   * Gets the largest scale of any result, before normalization.
+   */
+  public int getMaxScale() {
+    return this.maxScale;
+  }
+
+  /**
+   * Gets the largest number of digits in any result, before normalization.
+   */
+  public int getMaxPrecision() {
+    return this.maxPrecision;
+  }
+
+  /**
+   * Gets the mean number of digits in results, before normalization.
+   */
+  public double getMeanPrecision() {
+    return this.results == 0 ? 0 : (double) this.totalPrecision / this.results;
+  }
+
+  /**
+   * Resets all the counters.
+   */
+  public void reset() {
+    this.results = 0;
+    this.normalized = 0;
+    this.compact = 0;
+    this.maxScale = 0;
+    this.maxPrecision = 0;
+    this.totalPrecision = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "results=" + this.results + " normalized=" + this.normalized +
+        " compact=" + this.compact + " maxScale=" + this.maxScale +
+        " maxPrecision=" + this.maxPrecision + " meanPrecision=" +
+        getMeanPrecision();
+  }
+
+}
@@ -0,0 +1,220 @@
+package com.ath0.rpn;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sequence of RPN keystrokes compiled for repeated use. The text is
+ * parsed once into an array of instructions, with numbers already parsed
+ * into Decimal constants, so running the program is a tight loop with no
+ * string handling. Operations whose operands are all constants are worked
+ * out at compile time and replaced by their results, so "2 3 * +" costs a
+ * single addition when run. Operations which can be slow, such as powers,
+ * are never worked out at compile time, so compiling is always quick; a
+ * program containing them says so, so that it can be run in the background.
+ * Folding uses a stack with the default ScalePolicy and limits, so programs
+ * should be run on stacks which use those too.
+ * Programs are immutable, and can be run on many stacks at once.
+ */
+public final class Program {
+
+  private static final Op[] OPS = Op.values();
+  // Whether each operation can be slow, by ordinal.
+  private static final boolean[] SLOW = new boolean[OPS.length];
+
+  static {
+    final CalculatorStack empty = new CalculatorStack();
+    for (int i = 0; i < OPS.length; i++) {
+      SLOW[i] = OPS[i].getComputation(empty) != null;
+    }
+  }
+
+  // Each instruction is an Op ordinal, or the bitwise complement of the
+  // index of a constant to push.
+  private final int[] code;
+  private final Decimal[] constants;
+  private final boolean slow;
+
+  private Program(final int[] code, final Decimal[] constants,
+      final boolean slow) {
+    super();
+    this.code = code;
+    this.constants = constants;
+    this.slow = slow;
+  }
+
+  /**
+   * Compiles RPN text. Numbers and operation words may be separated by any
+   * whitespace, including line ends.
+   * @throws IllegalArgumentException if the text contains an unknown word
+   * or a malformed number
+   */
+  public static Program compile(final String text) {
+    try {
+      return compile(new StringReader(text));
+    } catch (IOException e) {
+      // Can't happen with a StringReader, except for an overlong token.
+      throw new IllegalArgumentException(e.getMessage());
+    }
+  }
+
+  /**
+   * Compiles RPN text read from a stream.
+   * @throws IOException if the text can't be read
+   * @throws IllegalArgumentException if the text contains an unknown word
+   * or a malformed number
+   */
+  public static Program compile(final Reader in) throws IOException {
+    final Tokenizer tokens = new Tokenizer(in);
+    int[] code = new int[16];
+    int length = 0;
+    final List<Decimal> constants = new ArrayList<Decimal>();
+    // Number of push instructions at the end of the code so far.
+    int literals = 0;
+    boolean slow = false;
+    int type;
+    while ((type = tokens.next()) != Tokenizer.END) {
+      if (type != Tokenizer.TOKEN) {
+        continue;
+      }
+      final String token = tokens.getToken();
+      final Decimal[] folded;
+      Op op = null;
+      if (Tokenizer.isNumber(token)) {
+        folded = new Decimal[] { Decimal.parse(token) };
+      } else {
+        op = Op.forWord(token);
+        if (op == null) {
+          throw new IllegalArgumentException("Unknown operation '" + token +
+              "'");
+        }
+        folded = fold(op, constants, literals);
+      }
+      if (folded == null) {
+        code = grow(code, length + 1);
+        code[length++] = op.ordinal();
+        literals = 0;
+        slow |= SLOW[op.ordinal()];
+      } else {
+        if (op != null) {
+          // Replace the operands with the results.
+          final int depth = op.getDepth();
+          length -= depth;
+          literals -= depth;
+          for (int i = 0; i < depth; i++) {
+            constants.remove(constants.size() - 1);
+          }
+        }
+        code = grow(code, length + folded.length);
+        for (final Decimal d : folded) {
+          code[length++] = ~constants.size();
+          constants.add(d);
+          literals++;
+        }
+      }
+    }
+    return new Program(Arrays.copyOf(code, length),
+        constants.toArray(new Decimal[constants.size()]), slow);
+  }
+
+  /**
+   * Runs the program on a stack.
+   * @return an error message, or null if there is no error; the program
+   * stops at the first error
+   */
+  public String run(final CalculatorStack stack) {
+    final int[] c = this.code;
+    for (int i = 0; i < c.length; i++) {
+      final int instruction = c[i];
+      if (instruction < 0) {
+        stack.push(this.constants[~instruction]);
+      } else {
+        final String error = OPS[instruction].apply(stack);
+        if (error != null) {
+          return error;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether the program contains operations which can take long
+   * enough that it should be run in the background, as with
+   * Op.getComputation.
+   */
+  public boolean isSlow() {
+    return this.slow;
+  }
+
+  /**
+   * Gets the number of instructions in the compiled program.
+   */
+  public int getLength() {
+    return this.code.length;
+  }
+
+  /**
+   * Returns RPN text for the compiled program, which compiles back to the
+   * same program.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < this.code.length; i++) {
+      if (i != 0) {
+        result.append(' ');
+      }
+      final int instruction = this.code[i];
+      if (instruction < 0) {
+        result.append(this.constants[~instruction].toString());
+      } else {
+        result.append(OPS[instruction].getWord());
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Works out the result of an operation at compile time, if all the levels
+   * it reads are constants and it can't be slow.
+   * @param op the operation
+   * @param constants the constants so far, the last of which are pushed by
+   * the last instructions
+   * @param literals the number of push instructions at the end of the code
+   * @return the values the operation leaves in place of its operands, bottom
+   * first, or null if it can't be folded
+   */
+  private static Decimal[] fold(final Op op, final List<Decimal> constants,
+      final int literals) {
+    final int depth = op.getDepth();
+    if (depth == 0 || literals < depth || SLOW[op.ordinal()]) {
+      return null;
+    }
+    final CalculatorStack scratch = new CalculatorStack();
+    for (int i = constants.size() - depth; i < constants.size(); i++) {
+      scratch.push(constants.get(i));
+    }
+    if (op.apply(scratch) != null) {
+      // Leave errors to be reported when the program runs.
+      return null;
+    }
+    final Decimal[] result = new Decimal[scratch.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = scratch.peek(result.length - 1 - i);
+    }
+    return result;
+  }
+
+  private static int[] grow(final int[] code, final int length) {
+    if (length <= code.length) {
+      return code;
+    }
+    return Arrays.copyOf(code, Math.max(length, code.length * 2));
+  }
+
+}
@@ -0,0 +1,716 @@
+package com.ath0.rpn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Storage for the calculator stack.
+ * A growable ring buffer of Decimal values, with no locking. Values are kept
+ * packed rather than as objects: each slot holds the unscaled long and scale
+ * of a compact value in parallel primitive arrays, which takes 12 bytes
+ * rather than a reference and a Decimal object, and a Decimal is only
+ * created when a value is read. The rare values too big for a long are kept
+ * whole in a side table, with the slot holding their index in it. Keeping the
+ * bottom of the stack at a movable head index means that as well as push and
+ * pop, the HP-style stack manipulations (swap, roll up, roll down, rotate and
+ * pick) are all O(1). An optional maximum depth can be set, in which case
+ * pushing onto a full stack discards the bottom value, as on HP calculators
+ * with a fixed size stack.
+ * Each slot can also hold the value's formatted display text, which moves
+ * with the value and is discarded whenever the slot is written, so callers
+ * only need to format values which have changed.
+ * Levels are numbered from the top, with 0 being the top of the stack;
+ * indexes are numbered from the bottom, with 0 being the bottom of the stack.
+ * For very deep stacks, the values below a given number of levels can be
+ * spilled to a SpillStore on disk. Those levels are still read and written
+ * in O(1), but are never cached as text; values move between the tiers as
+ * the top of the stack reaches the boundary, one at a time, so operations
+ * near the top stay O(1) too.
+ * If a History is attached, every change is reported to it, so it can be
+ * undone.
+ */
+public final class RingStack {
+
+  // Must be a power of two.
+  private static final int INITIAL_CAPACITY = 16;
+  // Unscaled value marking a slot whose value is in the side table. Decimal
+  // never uses it for a compact value.
+  private static final long BIG = Long.MIN_VALUE;
+
+  // Unscaled values, or BIG.
+  private long[] unscaled;
+  // Scales, or for BIG slots, the index of the value in bigs.
+  private int[] scales;
+  // Side table of values which aren't compact, and the indexes in it which
+  // are free for reuse.
+  private Decimal[] bigs;
+  private int[] freeBigs;
+  private int bigCount;
+  private int freeCount;
+  // Cached display text, parallel to the values; null if not yet formatted.
+  private String[] formatted;
+  // Index of the bottom of the stack within the arrays.
+  private int head;
+  // Values in the arrays, which are above any spilled values.
+  private int count;
+  // The spilled values, or null.
+  private SpillStore spill;
+  // Where to spill values, or null to keep them all in memory.
+  private File spillDir;
+  // Levels kept in memory before spilling.
+  private int spillLevels;
+  // Maximum number of values held, or 0 for no limit.
+  private int maxDepth;
+  // Told of every change, or null.
+  private History history;
+
+  public RingStack() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param capacity the initial capacity, a power of two
+   */
+  private RingStack(final int capacity) {
+    super();
+    this.unscaled = new long[capacity];
+    this.scales = new int[capacity];
+    this.formatted = new String[capacity];
+    this.bigs = new Decimal[0];
+    this.freeBigs = new int[0];
+  }
+
+  /**
+   * Attaches a history to record changes in, or detaches it if null. Copies
+   * don't share the history.
+   */
+  void setHistory(final History newHistory) {
+    this.history = newHistory;
+  }
+
+  /**
+   * Returns an independent copy of this stack. As Decimal values are
+   * immutable, the side table is copied by reference. Spilled values stay
+   * in the same files, shared until either stack changes them, so copying
+   * a deep stack costs no more than copying the levels kept in memory.
+   */
+  public RingStack copy() {
+    final RingStack result = new RingStack(0);
+    result.takeStorage(this);
+    result.unscaled = this.unscaled.clone();
+    result.scales = this.scales.clone();
+    result.formatted = this.formatted.clone();
+    result.bigs = this.bigs.clone();
+    result.freeBigs = this.freeBigs.clone();
+    result.maxDepth = this.maxDepth;
+    result.spillDir = this.spillDir;
+    result.spillLevels = this.spillLevels;
+    if (this.spill != null) {
+      result.spill = this.spill.snapshot();
+    }
+    return result;
+  }
+
+  /**
+   * Closes the files holding any values spilled to disk. The stack can't be
+   * used again, but closing it more than once does nothing.
+   */
+  public void close() {
+    if (this.spill != null) {
+      this.spill.close();
+      this.spill = null;
+    }
+  }
+
+  /**
+   * Returns the number of values on the stack.
+   */
+  public int size() {
+    return this.count + spilled();
+  }
+
+  /**
+   * Returns whether the stack is empty.
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Keeps only the top levels of the stack in memory, spilling the rest to
+   * disk, or brings them all back into memory.
+   * @param dir the directory for the spill files, such as a cache
+   * directory, or null to keep every value in memory
+   * @param levels the number of levels to keep in memory
+   */
+  public void setSpill(final File dir, final int levels) {
+    this.spillDir = dir;
+    this.spillLevels = Math.max(levels, 1);
+    if (dir == null) {
+      fill(size());
+      if (this.spill != null) {
+        this.spill.close();
+        this.spill = null;
+      }
+      return;
+    }
+    while (this.count > this.spillLevels && this.spillDir != null) {
+      spillBottom();
+    }
+    // Give back the memory the spilled values took.
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < this.count) {
+      capacity <<= 1;
+    }
+    if (capacity < this.unscaled.length) {
+      resize(capacity);
+    }
+  }
+
+  /**
+   * Sets the maximum depth. If the stack is already deeper than this, values
+   * are discarded from the bottom.
+   * @param depth the maximum number of values to hold, or 0 for no limit
+   */
+  public void setMaxDepth(final int depth) {
+    this.maxDepth = depth;
+    if (depth > 0) {
+      while (size() > depth) {
+        removeBottom();
+      }
+    }
+  }
+
+  /**
+   * Gets the maximum depth, or 0 if there's no limit.
+   */
+  public int getMaxDepth() {
+    return this.maxDepth;
+  }
+
+  /**
+   * Pushes a value onto the stack. If the stack is at its maximum depth, the
+   * bottom value is discarded to make room.
+   */
+  public void push(final Decimal value) {
+    if (this.maxDepth > 0 && size() >= this.maxDepth) {
+      removeBottom();
+    }
+    if (this.spillDir != null && this.count >= this.spillLevels) {
+      spillBottom();
+    }
+    unpop(value);
+  }
+
+  /**
+   * Puts back a value removed from the top, regardless of the maximum depth.
+   */
+  void unpop(final Decimal value) {
+    if (this.count == this.unscaled.length) {
+      grow();
+    }
+    final int i = slot(this.count);
+    store(i, value);
+    this.formatted[i] = null;
+    this.count++;
+    record(History.POP, 0, null);
+  }
+
+  /**
+   * Puts back a value removed from the bottom.
+   */
+  void pushBottom(final Decimal value) {
+    if (spilled() > 0) {
+      this.spill.addFirst(value);
+    } else {
+      hotPushBottom(value);
+    }
+    record(History.REMOVE_BOTTOM, 0, null);
+  }
+
+  /**
+   * Removes and returns the top value.
+   * @throws IllegalStateException if the stack is empty
+   */
+  public Decimal pop() {
+    if (isEmpty()) {
+      throw new IllegalStateException("Stack empty");
+    }
+    fill(1);
+    this.count--;
+    final int i = slot(this.count);
+    final Decimal value = release(i);
+    this.formatted[i] = null;
+    record(History.PUSH, 0, value);
+    return value;
+  }
+
+  /**
+   * Returns the top value without removing it.
+   * @throws IllegalStateException if the stack is empty
+   */
+  public Decimal peek() {
+    return peek(0);
+  }
+
+  /**
+   * Returns the value at the given level, where 0 is the top of the stack.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public Decimal peek(final int level) {
+    return get(size() - 1 - level);
+  }
+
+  /**
+   * Returns the value at the given index, where 0 is the bottom of the stack.
+   * @throws IndexOutOfBoundsException if there is no such index
+   */
+  public Decimal get(final int index) {
+    checkIndex(index);
+    final int cold = spilled();
+    if (index < cold) {
+      return this.spill.get(index);
+    }
+    return load(slot(index - cold));
+  }
+
+  /**
+   * Replaces the value at the given level, where 0 is the top of the stack.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public void set(final int level, final Decimal value) {
+    final int index = size() - 1 - level;
+    checkIndex(index);
+    final int cold = spilled();
+    if (index < cold) {
+      record(History.SET, level, this.spill.get(index));
+      this.spill.set(index, value);
+      return;
+    }
+    final int i = slot(index - cold);
+    record(History.SET, level, release(i));
+    store(i, value);
+    this.formatted[i] = null;
+  }
+
+  /**
+   * Gets the cached display text for the value at the given index, where 0
+   * is the bottom of the stack.
+   * @return the text, or null if none has been cached since the value was
+   * last written, or the value is spilled
+   */
+  public String getFormatted(final int index) {
+    checkIndex(index);
+    final int cold = spilled();
+    return index < cold ? null : this.formatted[slot(index - cold)];
+  }
+
+  /**
+   * Caches display text for the value at the given index, where 0 is the
+   * bottom of the stack. Text for spilled values isn't kept.
+   */
+  public void setFormatted(final int index, final String text) {
+    checkIndex(index);
+    final int cold = spilled();
+    if (index >= cold) {
+      this.formatted[slot(index - cold)] = text;
+    }
+  }
+
+  /**
+   * Discards all cached display text, for when the display format changes.
+   */
+  public void clearFormatted() {
+    Arrays.fill(this.formatted, null);
+  }
+
+  /**
+   * Removes every value.
+   */
+  public void clear() {
+    if (isEmpty()) {
+      return;
+    }
+    if (isRecording()) {
+      // Hand the storage to the history rather than copying it.
+      restore(new RingStack());
+      return;
+    }
+    for (int i = 0; i < this.count; i++) {
+      this.formatted[slot(i)] = null;
+    }
+    this.head = 0;
+    this.count = 0;
+    this.bigs = new Decimal[0];
+    this.bigCount = 0;
+    this.freeCount = 0;
+    if (this.spill != null) {
+      this.spill.close();
+      this.spill = null;
+    }
+  }
+
+  /**
+   * Exchanges the top two values. The stack must hold at least two.
+   */
+  public void swap() {
+    fill(2);
+    exchange(slot(this.count - 1), slot(this.count - 2));
+    record(History.SWAP, 0, null);
+  }
+
+  /**
+   * Moves the top value to the bottom of the stack, shifting everything else
+   * up a level.
+   */
+  public void rollDown() {
+    if (size() < 2) {
+      return;
+    }
+    final int mask = this.unscaled.length - 1;
+    if (spilled() > 0) {
+      fill(1);
+      this.count--;
+      final int top = slot(this.count);
+      this.formatted[top] = null;
+      this.spill.addFirst(release(top));
+    } else if (this.count == this.unscaled.length) {
+      // The slot below the bottom is the top, so just move the head.
+      this.head = (this.head - 1) & mask;
+    } else {
+      final int top = slot(this.count - 1);
+      this.head = (this.head - 1) & mask;
+      move(top, this.head);
+    }
+    record(History.ROLL_UP, 0, null);
+  }
+
+  /**
+   * Moves the bottom value to the top of the stack, shifting everything else
+   * down a level.
+   */
+  public void rollUp() {
+    if (size() < 2) {
+      return;
+    }
+    final int mask = this.unscaled.length - 1;
+    if (spilled() > 0) {
+      final Decimal value = this.spill.removeFirst();
+      if (this.count >= this.spillLevels) {
+        spillBottom();
+      }
+      if (this.count == this.unscaled.length) {
+        grow();
+      }
+      final int top = slot(this.count);
+      store(top, value);
+      this.formatted[top] = null;
+      this.count++;
+    } else if (this.count == this.unscaled.length) {
+      this.head = (this.head + 1) & mask;
+    } else {
+      final int bottom = this.head;
+      this.head = (this.head + 1) & mask;
+      move(bottom, slot(this.count - 1));
+    }
+    record(History.ROLL_DOWN, 0, null);
+  }
+
+  /**
+   * Moves the third value to the top of the stack, shifting the top two
+   * down a level. The stack must hold at least three values.
+   */
+  public void rotate() {
+    fill(3);
+    final int x = slot(this.count - 1);
+    final int y = slot(this.count - 2);
+    final int z = slot(this.count - 3);
+    // The same as z <- y <- x <- z, as two exchanges.
+    exchange(z, y);
+    exchange(y, x);
+    record(History.UNROTATE, 0, null);
+  }
+
+  /**
+   * Moves the top value to the third level, shifting the next two up a
+   * level; the reverse of rotate. The stack must hold at least three values.
+   */
+  void unrotate() {
+    fill(3);
+    final int x = slot(this.count - 1);
+    final int y = slot(this.count - 2);
+    final int z = slot(this.count - 3);
+    exchange(x, y);
+    exchange(y, z);
+    record(History.ROTATE, 0, null);
+  }
+
+  /**
+   * Replaces the whole contents with the given values, bottom first,
+   * regardless of the maximum depth. The history records this as a single
+   * change, however deep the stack. Values are spilled as usual.
+   */
+  void replaceAll(final Decimal[] values) {
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < values.length &&
+        (this.spillDir == null || capacity < this.spillLevels)) {
+      capacity <<= 1;
+    }
+    final RingStack storage = new RingStack(capacity);
+    storage.spillDir = this.spillDir;
+    storage.spillLevels = this.spillLevels;
+    for (final Decimal value : values) {
+      storage.push(value);
+    }
+    restore(storage);
+  }
+
+  /**
+   * Replaces the whole contents with those of a stack saved by the history,
+   * which gets the current contents in exchange. The maximum depth and where
+   * values spill are unchanged. Cached text is discarded, as the display
+   * format may have changed since the contents were saved. If nothing is
+   * recording, the current contents are dropped and their spill files
+   * closed.
+   */
+  void restore(final RingStack saved) {
+    final RingStack old = new RingStack(0);
+    old.takeStorage(this);
+    takeStorage(saved);
+    // The spill files belong to this stack now, so closing saved mustn't
+    // close them.
+    saved.spill = null;
+    clearFormatted();
+    if (isRecording()) {
+      record(History.RESTORE, 0, old);
+    } else {
+      old.close();
+    }
+  }
+
+  /**
+   * Pushes a copy of the value at the given level, where 0 is the top.
+   * @throws IndexOutOfBoundsException if there is no such level
+   */
+  public void pick(final int level) {
+    final int index = size() - 1 - level;
+    final String text = getFormatted(index);
+    push(get(index));
+    this.formatted[slot(this.count - 1)] = text;
+  }
+
+  /**
+   * Discards the bottom value.
+   */
+  void removeBottom() {
+    if (spilled() > 0) {
+      record(History.PUSH_BOTTOM, 0, this.spill.removeFirst());
+      return;
+    }
+    final Decimal value = release(this.head);
+    this.formatted[this.head] = null;
+    this.head = (this.head + 1) & (this.unscaled.length - 1);
+    this.count--;
+    record(History.PUSH_BOTTOM, 0, value);
+  }
+
+  private boolean isRecording() {
+    return this.history != null && this.history.isRecording();
+  }
+
+  private void record(final int change, final int level,
+      final Object value) {
+    if (this.history != null) {
+      this.history.record(change, level, value);
+    }
+  }
+
+  private int slot(final int index) {
+    return (this.head + index) & (this.unscaled.length - 1);
+  }
+
+  /**
+   * Takes over the storage of another stack, which mustn't be used again
+   * except through the same method.
+   */
+  private void takeStorage(final RingStack other) {
+    this.unscaled = other.unscaled;
+    this.scales = other.scales;
+    this.formatted = other.formatted;
+    this.bigs = other.bigs;
+    this.freeBigs = other.freeBigs;
+    this.bigCount = other.bigCount;
+    this.freeCount = other.freeCount;
+    this.head = other.head;
+    this.count = other.count;
+    this.spill = other.spill;
+  }
+
+  /**
+   * Returns the number of values spilled to disk.
+   */
+  private int spilled() {
+    return this.spill == null ? 0 : this.spill.size();
+  }
+
+  /**
+   * Moves the bottom value in memory to the top of the spilled values. If
+   * the spill files can't be created, spilling is turned off and the value
+   * stays in memory.
+   */
+  private void spillBottom() {
+    if (this.spill == null) {
+      try {
+        this.spill = new SpillStore(this.spillDir);
+      } catch (IOException ex) {
+        Logger.w("RingStack", "Unable to spill values: " + ex.getMessage());
+        this.spillDir = null;
+        return;
+      }
+    }
+    this.formatted[this.head] = null;
+    final Decimal value = release(this.head);
+    this.head = (this.head + 1) & (this.unscaled.length - 1);
+    this.count--;
+    this.spill.addLast(value);
+  }
+
+  /**
+   * Brings spilled values back into memory until there are at least the
+   * given number there, or none are left spilled.
+   */
+  private void fill(final int levels) {
+    while (this.count < levels && spilled() > 0) {
+      hotPushBottom(this.spill.removeLast());
+    }
+  }
+
+  /**
+   * Puts a value below those in memory, without recording it.
+   */
+  private void hotPushBottom(final Decimal value) {
+    if (this.count == this.unscaled.length) {
+      grow();
+    }
+    this.head = (this.head - 1) & (this.unscaled.length - 1);
+    store(this.head, value);
+    this.formatted[this.head] = null;
+    this.count++;
+  }
+
+  /**
+   * Creates the value held in a slot.
+   */
+  private Decimal load(final int i) {
+    final long u = this.unscaled[i];
+    if (u == BIG) {
+      return this.bigs[this.scales[i]];
+    }
+    return Decimal.valueOf(u, this.scales[i]);
+  }
+
+  /**
+   * Packs a value into an empty slot.
+   */
+  private void store(final int i, final Decimal value) {
+    if (value.isCompact()) {
+      this.unscaled[i] = value.unscaledLong();
+      this.scales[i] = value.scale();
+      return;
+    }
+    final int b;
+    if (this.freeCount > 0) {
+      b = this.freeBigs[--this.freeCount];
+    } else {
+      if (this.bigCount == this.bigs.length) {
+        final int capacity = Math.max(INITIAL_CAPACITY, this.bigCount << 1);
+        this.bigs = Arrays.copyOf(this.bigs, capacity);
+        this.freeBigs = Arrays.copyOf(this.freeBigs, capacity);
+      }
+      b = this.bigCount++;
+    }
+    this.bigs[b] = value;
+    this.unscaled[i] = BIG;
+    this.scales[i] = b;
+  }
+
+  /**
+   * Empties a slot, freeing any side table entry.
+   * @return the value it held
+   */
+  private Decimal release(final int i) {
+    final Decimal value = load(i);
+    if (this.unscaled[i] == BIG) {
+      final int b = this.scales[i];
+      this.bigs[b] = null;
+      this.freeBigs[this.freeCount++] = b;
+    }
+    return value;
+  }
+
+  /**
+   * Moves the value and text in one slot to another, empty, slot. The side
+   * table index moves with the slot, so big values aren't touched.
+   */
+  private void move(final int from, final int to) {
+    this.unscaled[to] = this.unscaled[from];
+    this.scales[to] = this.scales[from];
+    this.formatted[to] = this.formatted[from];
+    this.formatted[from] = null;
+  }
+
+  /**
+   * Exchanges the values and text in two slots.
+   */
+  private void exchange(final int a, final int b) {
+    final long u = this.unscaled[a];
+    this.unscaled[a] = this.unscaled[b];
+    this.unscaled[b] = u;
+    final int s = this.scales[a];
+    this.scales[a] = this.scales[b];
+    this.scales[b] = s;
+    final String f = this.formatted[a];
+    this.formatted[a] = this.formatted[b];
+    this.formatted[b] = f;
+  }
+
+  private void checkIndex(final int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " +
+          size());
+    }
+  }
+
+  /**
+   * Doubles the capacity.
+   */
+  private void grow() {
+    resize(this.unscaled.length << 1);
+  }
+
+  /**
+   * Changes the capacity, which must hold the values in memory, unwrapping
+   * them so the bottom is at 0.
+   * @param capacity the new capacity, a power of two
+   */
+  private void resize(final int capacity) {
+    final int length = this.unscaled.length;
+    final int firstPart = Math.min(length - this.head, this.count);
+    final int secondPart = this.count - firstPart;
+    final long[] newUnscaled = new long[capacity];
+    System.arraycopy(this.unscaled, this.head, newUnscaled, 0, firstPart);
+    System.arraycopy(this.unscaled, 0, newUnscaled, firstPart, secondPart);
+    final int[] newScales = new int[capacity];
+    System.arraycopy(this.scales, this.head, newScales, 0, firstPart);
+    System.arraycopy(this.scales, 0, newScales, firstPart, secondPart);
+    final String[] newText = new String[capacity];
+    System.arraycopy(this.formatted, this.head, newText, 0, firstPart);
+    System.arraycopy(this.formatted, 0, newText, firstPart, secondPart);
+    this.unscaled = newUnscaled;
+    this.scales = newScales;
+    this.formatted = newText;
+    this.head = 0;
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.ath0.rpn;
+
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * How results of arithmetic are normalized before going back on the stack.
+ * Without normalization, multiplication adds the scales of its operands, so
+ * repeatedly multiplying divided values doubles their number of decimal
+ * places each time, and every later operation on them gets slower.
+ * Each policy takes a number of digits, whose meaning depends on the policy.
+ * Values which already satisfy the policy are returned unchanged, without
+ * allocating.
+ */
+public enum ScalePolicy {
+
+  /**
+   * Results are kept exactly as computed.
+   */
+  NONE {
+    @Override
+    public Decimal normalize(final Decimal value, final int digits) {
+      return value;
+    }
+  },
+
+  /**
+   * Results with more than the given number of decimal places are rounded,
+   * half even, to that many.
+   */
+  CAP {
+    @Override
+    public Decimal normalize(final Decimal value, final int digits) {
+      if (value.scale() <= digits) {
+        return value;
+      }
+      return value.setScale(digits, RoundingMode.HALF_EVEN);
+    }
+  },
+
+  /**
+   * As CAP, after which trailing zeros are removed, so that results such as
+   * 0.5 * 2 don't carry decimal places they don't need.
+   */
+  STRIP {
+    @Override
+    public Decimal normalize(final Decimal value, final int digits) {
+      return CAP.normalize(value, digits).stripTrailingZeros();
+    }
+  },
+
+  /**
+   * Results are rounded, half even, to the given number of significant
+   * digits, like a floating point calculator.
+   */
+  SIGNIFICANT {
+    @Override
+    public Decimal normalize(final Decimal value, final int digits) {
+      if (value.precision() <= digits) {
+        return value;
+      }
+      return value.round(new MathContext(digits, RoundingMode.HALF_EVEN));
+    }
+  };
+
+  /**
+   * Normalizes a result.
+   * @param value the result
+   * @param digits the decimal places or significant digits to keep
+   * @return the normalized result
+   */
+  public abstract Decimal normalize(Decimal value, int digits);
+
+}
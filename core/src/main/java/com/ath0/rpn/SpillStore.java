@@ -0,0 +1,573 @@
+package com.ath0.rpn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Disk storage for the deepest levels of a very deep stack, so that its
+ * depth is limited by storage rather than by the heap. Values are kept in a
+ * ring of fixed width records in a memory-mapped file: 16 bytes each, the
+ * unscaled long and scale of a compact value, or for the rare big value a
+ * marker and the offset of its bytes in a second, append-only, file. As the
+ * records are fixed width, reading or writing any index is O(1), and so is
+ * adding or removing at either end.
+ * The files are deleted as soon as they're opened, so the space goes back
+ * when they're closed or garbage collected, even if the process dies.
+ * Owners should close a store once it's no longer needed, rather than leave
+ * that to the garbage collector.
+ * A snapshot shares the files with the store it's taken from, so taking one
+ * only counts references to the mapped segments of records. Whichever of
+ * them next writes to a shared segment copies it first, so each sees only
+ * its own changes, and no more than one segment is copied per write. While
+ * the files are shared, big values are written to fresh space, as another
+ * store may still need the old bytes.
+ * Space in the blob file freed by removed big values is reused by later
+ * values of the same length, as when a value moves back and forth between
+ * the store and memory. Once more of the file is free than in use, the big
+ * values still held are copied to a new file, which replaces it.
+ * A store and its snapshots may be used on different threads, but each
+ * store by only one thread at a time.
+ */
+final class SpillStore {
+
+  // Bytes in each record.
+  private static final int RECORD = 16;
+  // Records in each mapped segment of the file, as a power of two.
+  private static final int SEGMENT_SHIFT = 16;
+  private static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+  private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD;
+  // Slot of a segment which has never been written.
+  private static final int NO_SLOT = -1;
+  // Unscaled value marking a big record. Decimal never uses it for a compact
+  // value.
+  private static final long BIG = Long.MIN_VALUE;
+  // Bytes before a big value's unscaled bytes: the scale and the length.
+  private static final int BIG_HEADER = 8;
+  // Free bytes in the blob file below which it isn't worth compacting.
+  private static final long MIN_COMPACT = 65536;
+
+  /**
+   * The files, shared by a store and its snapshots, which lock on it. The
+   * record file is divided into slots of one segment each, counted by the
+   * stores using them.
+   */
+  private static final class Files {
+
+    final File dir;
+    final RandomAccessFile records;
+    RandomAccessFile blobs;
+    // Mapped slots, and the stores using each.
+    MappedByteBuffer[] mapped = new MappedByteBuffer[1];
+    int[] refs = new int[1];
+    // Slots in the file, and those no store uses.
+    int slots;
+    final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    // End of the data in the blob file.
+    long blobEnd;
+    // Offsets of the free regions of the blob file, by length.
+    final Map<Integer, ArrayDeque<Long>> free =
+        new HashMap<Integer, ArrayDeque<Long>>();
+    // Open stores using the files.
+    int stores = 1;
+
+    Files(final File dir) throws IOException {
+      super();
+      this.dir = dir;
+      this.records = open(dir);
+      try {
+        this.blobs = open(dir);
+      } catch (IOException ex) {
+        this.records.close();
+        throw ex;
+      }
+    }
+
+    /**
+     * Takes a slot for one store, reusing a free one if there is one.
+     */
+    int allocate() {
+      final Integer reused = this.freeSlots.poll();
+      final int slot;
+      if (reused != null) {
+        slot = reused.intValue();
+      } else {
+        slot = this.slots++;
+        if (slot == this.refs.length) {
+          this.refs = Arrays.copyOf(this.refs, slot << 1);
+          this.mapped = Arrays.copyOf(this.mapped, slot << 1);
+        }
+      }
+      this.refs[slot] = 1;
+      return slot;
+    }
+
+    /**
+     * Gives up one store's use of a slot.
+     */
+    void release(final int slot) {
+      if (slot != NO_SLOT && --this.refs[slot] == 0) {
+        this.freeSlots.push(Integer.valueOf(slot));
+      }
+    }
+
+    /**
+     * Gets a slot's mapping, mapping it if necessary.
+     */
+    MappedByteBuffer map(final int slot) {
+      MappedByteBuffer b = this.mapped[slot];
+      if (b == null) {
+        try {
+          b = this.records.getChannel().map(FileChannel.MapMode.READ_WRITE,
+              slot * SEGMENT_BYTES, SEGMENT_BYTES);
+        } catch (IOException ex) {
+          throw new IllegalStateException("Unable to map stack storage", ex);
+        }
+        this.mapped[slot] = b;
+      }
+      return b;
+    }
+
+    void close() {
+      Arrays.fill(this.mapped, null);
+      try {
+        this.records.close();
+        this.blobs.close();
+      } catch (IOException ex) {
+        Logger.w("SpillStore", "Unable to close: " + ex.getMessage());
+      }
+    }
+  }
+
+  private final Files files;
+  // Slot holding each segment, or NO_SLOT.
+  private int[] segments;
+  // Capacity in records, a power of two and a whole number of segments.
+  private int capacity = SEGMENT_RECORDS;
+  // Physical record holding index 0.
+  private int head;
+  private int size;
+  // Bytes of the blob file this store's big values take.
+  private long blobBytes;
+  private boolean closed;
+
+  /**
+   * Creates an empty store.
+   * @param dir the directory for the files, such as the cache directory
+   * @throws IOException if the files can't be created
+   */
+  SpillStore(final File dir) throws IOException {
+    super();
+    this.files = new Files(dir);
+    this.segments = new int[] { NO_SLOT };
+  }
+
+  private SpillStore(final SpillStore from) {
+    super();
+    this.files = from.files;
+    this.segments = from.segments.clone();
+    this.capacity = from.capacity;
+    this.head = from.head;
+    this.size = from.size;
+    this.blobBytes = from.blobBytes;
+  }
+
+  /**
+   * Returns an independent copy of the store, sharing its files until
+   * either of them changes a segment. This is O(1) in the number of values,
+   * and does no I/O.
+   */
+  SpillStore snapshot() {
+    synchronized (this.files) {
+      final SpillStore result = new SpillStore(this);
+      for (final int slot : this.segments) {
+        if (slot != NO_SLOT) {
+          this.files.refs[slot]++;
+        }
+      }
+      this.files.stores++;
+      return result;
+    }
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * Gets the value at an index, where 0 is the deepest.
+   */
+  Decimal get(final int index) {
+    synchronized (this.files) {
+      return read(physical(index));
+    }
+  }
+
+  /**
+   * Replaces the value at an index, where 0 is the deepest.
+   */
+  void set(final int index, final Decimal value) {
+    synchronized (this.files) {
+      final int record = physical(index);
+      release(record);
+      write(record, value);
+      compactIfWasteful();
+    }
+  }
+
+  /**
+   * Adds a value above the others.
+   */
+  void addLast(final Decimal value) {
+    synchronized (this.files) {
+      if (this.size == this.capacity) {
+        grow();
+      }
+      this.size++;
+      write(physical(this.size - 1), value);
+    }
+  }
+
+  /**
+   * Removes and returns the value above the others.
+   */
+  Decimal removeLast() {
+    synchronized (this.files) {
+      final int record = physical(this.size - 1);
+      final Decimal value = read(record);
+      release(record);
+      this.size--;
+      removed();
+      return value;
+    }
+  }
+
+  /**
+   * Adds a value below the others.
+   */
+  void addFirst(final Decimal value) {
+    synchronized (this.files) {
+      if (this.size == this.capacity) {
+        grow();
+      }
+      this.head = (this.head - 1) & (this.capacity - 1);
+      this.size++;
+      write(this.head, value);
+    }
+  }
+
+  /**
+   * Removes and returns the value below the others.
+   */
+  Decimal removeFirst() {
+    synchronized (this.files) {
+      final Decimal value = read(this.head);
+      release(this.head);
+      this.head = (this.head + 1) & (this.capacity - 1);
+      this.size--;
+      removed();
+      return value;
+    }
+  }
+
+  /**
+   * Gives up the store's share of the files, closing them, and so freeing
+   * their space, once no snapshot uses them either. The store can't be used
+   * again. Closing more than once does nothing.
+   */
+  void close() {
+    synchronized (this.files) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      for (final int slot : this.segments) {
+        this.files.release(slot);
+      }
+      if (--this.files.stores == 0) {
+        this.files.close();
+      }
+    }
+  }
+
+  private int physical(final int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " +
+          this.size);
+    }
+    return (this.head + index) & (this.capacity - 1);
+  }
+
+  /**
+   * Gets the mapped segment holding a record, for reading.
+   */
+  private MappedByteBuffer segment(final int record) {
+    return this.files.map(this.segments[record >>> SEGMENT_SHIFT]);
+  }
+
+  /**
+   * Gets the mapped segment holding a record, for writing. A segment shared
+   * with a snapshot is copied to a slot of this store's own first.
+   */
+  private MappedByteBuffer writableSegment(final int record) {
+    final int s = record >>> SEGMENT_SHIFT;
+    final int slot = this.segments[s];
+    if (slot != NO_SLOT && this.files.refs[slot] == 1) {
+      return this.files.map(slot);
+    }
+    final int own = this.files.allocate();
+    final MappedByteBuffer target = this.files.map(own);
+    if (slot != NO_SLOT) {
+      final ByteBuffer from = this.files.map(slot).duplicate();
+      final ByteBuffer to = target.duplicate();
+      from.clear();
+      to.clear();
+      to.put(from);
+      this.files.release(slot);
+    }
+    this.segments[s] = own;
+    return target;
+  }
+
+  private Decimal read(final int record) {
+    final MappedByteBuffer b = segment(record);
+    final int offset = (record & (SEGMENT_RECORDS - 1)) * RECORD;
+    final long unscaled = b.getLong(offset);
+    final long second = b.getLong(offset + 8);
+    if (unscaled != BIG) {
+      return Decimal.valueOf(unscaled, (int) second);
+    }
+    try {
+      final FileChannel channel = this.files.blobs.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(BIG_HEADER);
+      readFully(channel, header, second);
+      final ByteBuffer bytes = ByteBuffer.allocate(header.getInt(4));
+      readFully(channel, bytes, second + BIG_HEADER);
+      return Decimal.valueOf(new BigDecimal(new BigInteger(bytes.array()),
+          header.getInt(0)));
+    } catch (IOException ex) {
+      throw new IllegalStateException("Unable to read stack storage", ex);
+    }
+  }
+
+  private void write(final int record, final Decimal value) {
+    final MappedByteBuffer b = writableSegment(record);
+    final int offset = (record & (SEGMENT_RECORDS - 1)) * RECORD;
+    if (value.isCompact()) {
+      b.putLong(offset, value.unscaledLong());
+      b.putLong(offset + 8, value.scale());
+      return;
+    }
+    final byte[] unscaled = value.toBigDecimal().unscaledValue()
+        .toByteArray();
+    final int length = BIG_HEADER + unscaled.length;
+    final ByteBuffer blob = ByteBuffer.allocate(length);
+    blob.putInt(value.scale()).putInt(unscaled.length).put(unscaled);
+    blob.flip();
+    // Regions on the free list aren't used by any store, even when shared.
+    final ArrayDeque<Long> regions =
+        this.files.free.get(Integer.valueOf(length));
+    final long position;
+    if (regions != null && !regions.isEmpty()) {
+      position = regions.pop().longValue();
+    } else {
+      position = this.files.blobEnd;
+      this.files.blobEnd += length;
+    }
+    try {
+      final FileChannel channel = this.files.blobs.getChannel();
+      long p = position;
+      while (blob.hasRemaining()) {
+        p += channel.write(blob, p);
+      }
+    } catch (IOException ex) {
+      throw new IllegalStateException("Unable to write stack storage", ex);
+    }
+    b.putLong(offset, BIG);
+    b.putLong(offset + 8, position);
+    this.blobBytes += length;
+  }
+
+  /**
+   * Frees the blob of a record about to be removed or overwritten, if it's
+   * a big record. While the files are shared, a snapshot may still need the
+   * blob, so it's left alone, and reclaimed by compaction later.
+   */
+  private void release(final int record) {
+    final MappedByteBuffer b = segment(record);
+    final int offset = (record & (SEGMENT_RECORDS - 1)) * RECORD;
+    if (b.getLong(offset) != BIG) {
+      return;
+    }
+    final long position = b.getLong(offset + 8);
+    final int length = blobLength(position);
+    this.blobBytes -= length;
+    if (this.files.stores > 1) {
+      return;
+    }
+    ArrayDeque<Long> regions = this.files.free.get(Integer.valueOf(length));
+    if (regions == null) {
+      regions = new ArrayDeque<Long>();
+      this.files.free.put(Integer.valueOf(length), regions);
+    }
+    regions.push(Long.valueOf(position));
+  }
+
+  /**
+   * Gets the length of the blob at a position, including its header.
+   */
+  private int blobLength(final long position) {
+    final ByteBuffer header = ByteBuffer.allocate(BIG_HEADER);
+    try {
+      readFully(this.files.blobs.getChannel(), header, position);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Unable to read stack storage", ex);
+    }
+    return BIG_HEADER + header.getInt(4);
+  }
+
+  /**
+   * Compacts the blob file if this store has it to itself, more of it is
+   * free than in use, and enough is free to be worth it. A failure is
+   * logged, and the file is left as it was.
+   */
+  private void compactIfWasteful() {
+    final long unused = this.files.blobEnd - this.blobBytes;
+    if (this.files.stores > 1 || unused < MIN_COMPACT ||
+        unused <= this.blobBytes) {
+      return;
+    }
+    try {
+      compact();
+    } catch (IOException ex) {
+      Logger.w("SpillStore", "Unable to compact: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Copies the blobs still in use to a new file, one after another, and
+   * points their records at the copies.
+   */
+  private void compact() throws IOException {
+    final RandomAccessFile fresh = open(this.files.dir);
+    final long[] positions = new long[this.size];
+    long end = 0;
+    try {
+      final FileChannel from = this.files.blobs.getChannel();
+      final FileChannel to = fresh.getChannel();
+      for (int i = 0; i < this.size; i++) {
+        final int record = physical(i);
+        final MappedByteBuffer b = segment(record);
+        final int offset = (record & (SEGMENT_RECORDS - 1)) * RECORD;
+        if (b.getLong(offset) == BIG) {
+          final long position = b.getLong(offset + 8);
+          final int length = blobLength(position);
+          transfer(from, position, length, to, end);
+          positions[i] = end;
+          end += length;
+        }
+      }
+    } catch (IOException ex) {
+      fresh.close();
+      throw ex;
+    }
+    // Only change the records once every blob is safely copied.
+    for (int i = 0; i < this.size; i++) {
+      final int record = physical(i);
+      final MappedByteBuffer b = segment(record);
+      final int offset = (record & (SEGMENT_RECORDS - 1)) * RECORD;
+      if (b.getLong(offset) == BIG) {
+        b.putLong(offset + 8, positions[i]);
+      }
+    }
+    this.files.blobs.close();
+    this.files.blobs = fresh;
+    this.files.blobEnd = end;
+    this.files.free.clear();
+  }
+
+  /**
+   * Doubles the capacity. If the ring wraps, the records before the head
+   * are copied to just after the old end, where they follow on from the
+   * rest.
+   */
+  private void grow() {
+    final int old = this.capacity;
+    this.capacity = old << 1;
+    final int n = this.capacity >>> SEGMENT_SHIFT;
+    final int filled = this.segments.length;
+    this.segments = Arrays.copyOf(this.segments, n);
+    Arrays.fill(this.segments, filled, n, NO_SLOT);
+    for (int r = 0; r < this.head; r++) {
+      final MappedByteBuffer source = segment(r);
+      final MappedByteBuffer target = writableSegment(old + r);
+      final int i = (r & (SEGMENT_RECORDS - 1)) * RECORD;
+      final int j = ((old + r) & (SEGMENT_RECORDS - 1)) * RECORD;
+      target.putLong(j, source.getLong(i));
+      target.putLong(j + 8, source.getLong(i + 8));
+    }
+  }
+
+  /**
+   * Starts the blob file again once there's nothing left in it, or
+   * otherwise compacts it if it's mostly free.
+   */
+  private void removed() {
+    if (this.size > 0) {
+      compactIfWasteful();
+      return;
+    }
+    this.head = 0;
+    if (this.files.stores > 1) {
+      return;
+    }
+    this.files.blobEnd = 0;
+    this.files.free.clear();
+    try {
+      this.files.blobs.setLength(0);
+    } catch (IOException ex) {
+      Logger.w("SpillStore", "Unable to truncate: " + ex.getMessage());
+    }
+  }
+
+  private static RandomAccessFile open(final File dir) throws IOException {
+    final File f = File.createTempFile("stack", ".spill", dir);
+    final RandomAccessFile file = new RandomAccessFile(f, "rw");
+    if (!f.delete()) {
+      f.deleteOnExit();
+    }
+    return file;
+  }
+
+  private static void readFully(final FileChannel channel,
+      final ByteBuffer buffer, final long position) throws IOException {
+    long p = position;
+    while (buffer.hasRemaining()) {
+      final int n = channel.read(buffer, p);
+      if (n < 0) {
+        throw new IOException("Unexpected end of stack storage");
+      }
+      p += n;
+    }
+  }
+
+  private static void transfer(final FileChannel from, final long position,
+      final long length, final FileChannel to, final long target)
+      throws IOException {
+    long done = 0;
+    while (done < length) {
+      done += from.transferTo(position + done, length - done,
+          to.position(target + done));
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.ath0.rpn;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the values on a stack as plain text: one number per line,
+ * or separated by commas as in CSV files. Both directions stream through
+ * fixed size buffers, so memory use doesn't grow with the length of the text
+ * beyond the values themselves. Values are written exactly, with all their
+ * decimal places and no digit grouping, so that reading them back gives the
+ * same stack.
+ */
+public final class StackText {
+
+  // Separators accepted between values, besides whitespace.
+  private static final String FIELD_SEPARATORS = ",;";
+  // Initial capacity of the array values are read into.
+  private static final int INITIAL_CAPACITY = 1024;
+  // How often, in values, to check for cancellation; one less than a power
+  // of two.
+  private static final int CHECK_MASK = 4095;
+
+  private StackText() {
+    super();
+  }
+
+  /**
+   * Reads numbers separated by whitespace, commas or semicolons. Values in
+   * double quotes, as some spreadsheets write them, are accepted.
+   * @param in the text; not closed
+   * @return the values, in the order read, so that pushing them in turn
+   * leaves the last on top
+   * @throws IOException if the text can't be read, or holds anything other
+   * than numbers
+   * @throws CancellationException if the thread was interrupted
+   */
+  public static Decimal[] read(final Reader in) throws IOException {
+    final Tokenizer tokenizer = new Tokenizer(in);
+    tokenizer.setFieldSeparators(FIELD_SEPARATORS);
+    Decimal[] values = new Decimal[INITIAL_CAPACITY];
+    int count = 0;
+    int kind;
+    while ((kind = tokenizer.next()) != Tokenizer.END) {
+      if (kind != Tokenizer.TOKEN) {
+        continue;
+      }
+      final String token = unquote(tokenizer.getToken());
+      if (token.length() == 0) {
+        continue;
+      }
+      if (!Tokenizer.isNumber(token)) {
+        throw notANumber(token, tokenizer);
+      }
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count << 1);
+      }
+      try {
+        values[count++] = Decimal.parse(token);
+      } catch (NumberFormatException e) {
+        throw notANumber(token, tokenizer);
+      }
+      if ((count & CHECK_MASK) == 0) {
+        Computation.checkCancelled();
+      }
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  /**
+   * Writes every value on a stack, deepest first, so that reading the text
+   * back rebuilds the stack. The text ends with a line end.
+   * @param stack the stack, which must not change while it's written
+   * @param out where to write the text; not closed or flushed
+   * @param separator the character between values, such as '\n' or ','
+   * @throws IOException if the Writer fails
+   * @throws CancellationException if the thread was interrupted
+   */
+  public static void write(final CalculatorStack stack, final Writer out,
+      final char separator) throws IOException {
+    final NumberFormatter formatter = new NumberFormatter();
+    formatter.setGrouping(',', 0);
+    for (int level = stack.size() - 1; level >= 0; level--) {
+      final Decimal value = stack.peek(level);
+      formatter.write(value, Math.max(value.scale(), 0), out);
+      if (level > 0) {
+        out.write(separator);
+      }
+      if ((level & CHECK_MASK) == 0) {
+        Computation.checkCancelled();
+      }
+    }
+    out.write('\n');
+  }
+
+  private static String unquote(final String token) {
+    final int len = token.length();
+    if (len >= 2 && token.charAt(0) == '"' && token.charAt(len - 1) == '"') {
+      return token.substring(1, len - 1).trim();
+    }
+    return token;
+  }
+
+  private static IOException notANumber(final String token,
+      final Tokenizer tokenizer) {
+    return new IOException("Not a number '" + token + "' on line " +
+        tokenizer.getLine());
+  }
+
+}
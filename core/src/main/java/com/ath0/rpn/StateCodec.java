@@ -0,0 +1,235 @@
+package com.ath0.rpn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes calculator state in a compact, versioned binary format,
+ * so that saving and restoring doesn't depend on Java serialization of the
+ * model classes.
+ * The layout is:
+ * <pre>
+ *   int    magic ("RPNS")
+ *   short  format version
+ *   long   journal generation (from version 2)
+ *   varint display scale (zigzag encoded)
+ *   varint stack depth
+ *   for each stack element, bottom first:
+ *     varint scale (zigzag encoded)
+ *     varint length of unscaled value
+ *     bytes  unscaled value, two's complement, big-endian, as
+ *            BigInteger.toByteArray() would give
+ *   UTF    input buffer contents
+ *   statistics registers (from version 3):
+ *     long   number of data points
+ *     the sums of x, x^2, y, y^2 and xy, each as a stack element
+ *   int    CRC32 of everything above
+ * </pre>
+ */
+public final class StateCodec {
+
+  private static final int MAGIC = 0x52504E53;
+  private static final int VERSION = 3;
+
+  // Buffer size for file I/O.
+  private static final int BUFFER_SIZE = 8192;
+
+  // Longest unscaled value accepted, in bytes. This is far beyond anything
+  // the digit limit lets arithmetic produce, and stops a corrupt length from
+  // allocating a huge array before the checksum is reached.
+  private static final int MAX_VALUE_BYTES = 1 << 20;
+
+  private StateCodec() {
+    super();
+  }
+
+  /**
+   * Writes the stack, its statistics registers and the input buffer to a
+   * stream. The stream is flushed but
+   * not closed.
+   * @param generation the first Journal generation not included in the state
+   * @throws IOException if the stream can't be written
+   */
+  public static void write(final OutputStream out, final CalculatorStack stack,
+      final InputBuffer buffer, final long generation) throws IOException {
+    final CRC32 crc = new CRC32();
+    final DataOutputStream data = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(out, BUFFER_SIZE), crc));
+    data.writeInt(MAGIC);
+    data.writeShort(VERSION);
+    data.writeLong(generation);
+    writeVarInt(data, zigzag(stack.getScale()));
+    final int depth = stack.size();
+    writeVarInt(data, depth);
+    // Reused for compact values, to avoid allocating per element.
+    final byte[] bytes = new byte[8];
+    for (int level = depth - 1; level >= 0; level--) {
+      writeDecimal(data, stack.peek(level), bytes);
+    }
+    data.writeUTF(buffer.get());
+    final Statistics statistics = stack.getStatistics();
+    data.writeLong(statistics.getCount());
+    writeDecimal(data, statistics.getSumX(), bytes);
+    writeDecimal(data, statistics.getSumX2(), bytes);
+    writeDecimal(data, statistics.getSumY(), bytes);
+    writeDecimal(data, statistics.getSumY2(), bytes);
+    writeDecimal(data, statistics.getSumXY(), bytes);
+    // The checksum itself is outside the checksummed region.
+    data.flush();
+    final int checksum = (int) crc.getValue();
+    new DataOutputStream(out).writeInt(checksum);
+    out.flush();
+  }
+
+  /**
+   * Reads state from a stream into an empty stack and input buffer.
+   * @return the first Journal generation not included in the state
+   * @throws IOException if the stream can't be read, isn't in this format,
+   * or is corrupt
+   */
+  public static long read(final InputStream in, final CalculatorStack stack,
+      final InputBuffer buffer) throws IOException {
+    final CRC32 crc = new CRC32();
+    final BufferedInputStream buffered = new BufferedInputStream(in,
+        BUFFER_SIZE);
+    final DataInputStream data = new DataInputStream(new CheckedInputStream(
+        buffered, crc));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a saved state file");
+    }
+    final int version = data.readUnsignedShort();
+    if (version > VERSION) {
+      throw new IOException("Unsupported state version " + version);
+    }
+    final long generation = version >= 2 ? data.readLong() : 0;
+    stack.setScale(unzigzag(readVarInt(data)));
+    final int depth = readVarInt(data);
+    if (depth < 0) {
+      throw new IOException("Saved state is corrupt");
+    }
+    final byte[] bytes = new byte[8];
+    for (int i = 0; i < depth; i++) {
+      stack.push(readDecimal(data, bytes));
+    }
+    buffer.set(data.readUTF());
+    if (version >= 3) {
+      final long count = data.readLong();
+      stack.getStatistics().set(count, readDecimal(data, bytes),
+          readDecimal(data, bytes), readDecimal(data, bytes),
+          readDecimal(data, bytes), readDecimal(data, bytes));
+    }
+    final int expected = (int) crc.getValue();
+    if (new DataInputStream(buffered).readInt() != expected) {
+      throw new IOException("Saved state is corrupt");
+    }
+    return generation;
+  }
+
+  /**
+   * Writes a value as a zigzag varint scale, a varint length, and the
+   * unscaled value's two's complement bytes.
+   * @param bytes scratch space of at least 8 bytes
+   */
+  static void writeDecimal(final DataOutputStream out, final Decimal d,
+      final byte[] bytes) throws IOException {
+    writeVarInt(out, zigzag(d.scale()));
+    if (d.isCompact()) {
+      final int len = longToBytes(d.unscaledLong(), bytes);
+      writeVarInt(out, len);
+      out.write(bytes, 0, len);
+    } else {
+      final byte[] big = d.toBigDecimal().unscaledValue().toByteArray();
+      writeVarInt(out, big.length);
+      out.write(big);
+    }
+  }
+
+  /**
+   * Reads a value written by writeDecimal.
+   * @param bytes scratch space of at least 8 bytes
+   */
+  static Decimal readDecimal(final DataInputStream in, final byte[] bytes)
+      throws IOException {
+    final int scale = unzigzag(readVarInt(in));
+    final int len = readVarInt(in);
+    if (len < 0 || len > MAX_VALUE_BYTES) {
+      throw new IOException("Saved state is corrupt");
+    } else if (len <= 8) {
+      in.readFully(bytes, 0, len);
+      return Decimal.valueOf(bytesToLong(bytes, len), scale);
+    }
+    final byte[] big = new byte[len];
+    in.readFully(big);
+    return Decimal.valueOf(new BigDecimal(new BigInteger(big), scale));
+  }
+
+  /**
+   * Puts the minimal two's complement big-endian form of a long into bytes,
+   * matching BigInteger.toByteArray().
+   * @return the number of bytes used
+   */
+  private static int longToBytes(final long value, final byte[] bytes) {
+    final int bitLength = 64 - Long.numberOfLeadingZeros(
+        value < 0 ? ~value : value);
+    final int len = (bitLength >> 3) + 1;
+    long v = value;
+    for (int i = len - 1; i >= 0; i--) {
+      bytes[i] = (byte) v;
+      v >>= 8;
+    }
+    return len;
+  }
+
+  private static long bytesToLong(final byte[] bytes, final int len) {
+    if (len == 0) {
+      return 0;
+    }
+    // Sign extend from the first byte.
+    long value = bytes[0];
+    for (int i = 1; i < len; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  private static int zigzag(final int n) {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  private static int unzigzag(final int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private static void writeVarInt(final DataOutputStream out, final int value)
+      throws IOException {
+    int v = value;
+    while ((v & ~0x7f) != 0) {
+      out.writeByte((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  private static int readVarInt(final DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Saved state is corrupt");
+  }
+
+}
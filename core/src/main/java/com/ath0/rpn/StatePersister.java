@@ -0,0 +1,234 @@
+package com.ath0.rpn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes calculator state to a file on a background thread, so that the
+ * speed of storage doesn't hold up the UI.
+ * Save requests are coalesced: if several arrive while a write is in
+ * progress, only the most recent is written once it finishes. Each write goes
+ * to a temporary file which is synced to storage and then renamed over the
+ * state file, so a crash part way through a write leaves the previous state
+ * intact.
+ */
+public class StatePersister {
+
+  /**
+   * Callback to let the owner know a save failed. Called on the background
+   * thread.
+   */
+  public static interface OnSaveFailed {
+
+    /**
+     * Called when state could not be written.
+     * @param ex the reason
+     */
+    void onSaveFailed(IOException ex);
+  }
+
+  /**
+   * Callback to let the owner know state has been durably written. Called on
+   * the background thread.
+   */
+  public static interface OnSaved {
+
+    /**
+     * Called when state has been written and synced.
+     * @param generation the journal generation passed to save
+     */
+    void onSaved(long generation);
+  }
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File file;
+  private final File temp;
+  private final ExecutorService executor;
+  private final OnSaveFailed listener;
+  private volatile OnSaved savedListener;
+
+  // Guards the fields below.
+  private final Object lock = new Object();
+  private CalculatorStack pendingStack;
+  private InputBuffer pendingBuffer;
+  private long pendingGeneration;
+  // Whether the writer task is queued or running.
+  private boolean busy;
+
+  private final Runnable writer = new Runnable() {
+    @Override
+    public void run() {
+      writePending();
+    }
+  };
+
+  /**
+   * @param file the state file to write
+   * @param listener told of any failures, or null
+   */
+  public StatePersister(final File file, final OnSaveFailed listener) {
+    super();
+    this.file = file;
+    this.temp = new File(file.getPath() + TEMP_SUFFIX);
+    this.listener = listener;
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "StatePersister");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Gets the state file written to.
+   */
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Sets a callback for successful writes.
+   * @param listener the callback, or null
+   */
+  public void setOnSaved(final OnSaved listener) {
+    this.savedListener = listener;
+  }
+
+  /**
+   * Asks for state to be saved. Returns immediately. The objects passed must
+   * not be modified afterwards, so callers should pass copies. The stack is
+   * closed once written, or once a later request replaces it.
+   * @param generation the first Journal generation not included in the state
+   */
+  public void save(final CalculatorStack stack, final InputBuffer buffer,
+      final long generation) {
+    synchronized (this.lock) {
+      if (this.pendingStack != null) {
+        this.pendingStack.close();
+      }
+      this.pendingStack = stack;
+      this.pendingBuffer = buffer;
+      this.pendingGeneration = generation;
+      if (!this.busy) {
+        this.busy = true;
+        this.executor.execute(this.writer);
+      }
+    }
+  }
+
+  /**
+   * Waits until every save requested so far has been written.
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void flush() throws InterruptedException {
+    synchronized (this.lock) {
+      while (this.busy) {
+        this.lock.wait();
+      }
+    }
+  }
+
+  /**
+   * Waits until every save requested so far has been written, or until the
+   * timeout expires.
+   * @param timeout the maximum time to wait, in milliseconds
+   * @return true if all saves were written, false if the timeout expired
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await(final long timeout) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeout;
+    synchronized (this.lock) {
+      while (this.busy) {
+        final long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        this.lock.wait(remaining);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes whatever is pending, repeating until no new request has arrived
+   * during the write. A failure is reported and the next request is written
+   * as usual; if anything escapes, the writer still stops being busy, so
+   * flush doesn't wait forever.
+   */
+  private void writePending() {
+    boolean finished = false;
+    try {
+      while (true) {
+        final CalculatorStack stack;
+        final InputBuffer buffer;
+        final long generation;
+        synchronized (this.lock) {
+          stack = this.pendingStack;
+          buffer = this.pendingBuffer;
+          generation = this.pendingGeneration;
+          this.pendingStack = null;
+          this.pendingBuffer = null;
+          if (stack == null) {
+            this.busy = false;
+            this.lock.notifyAll();
+            finished = true;
+            return;
+          }
+        }
+        try {
+          write(stack, buffer, generation);
+          final OnSaved saved = this.savedListener;
+          if (saved != null) {
+            saved.onSaved(generation);
+          }
+        } catch (IOException ex) {
+          failed(ex);
+        } catch (RuntimeException ex) {
+          failed(new IOException(ex.getMessage(), ex));
+        } finally {
+          stack.close();
+        }
+      }
+    } finally {
+      if (!finished) {
+        synchronized (this.lock) {
+          this.busy = false;
+          this.lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private void failed(final IOException ex) {
+    if (this.listener != null) {
+      this.listener.onSaveFailed(ex);
+    }
+  }
+
+  /**
+   * Writes state to the temporary file, syncs it, and renames it over the
+   * state file.
+   */
+  private void write(final CalculatorStack stack, final InputBuffer buffer,
+      final long generation) throws IOException {
+    final FileOutputStream fos = new FileOutputStream(this.temp);
+    try {
+      StateCodec.write(fos, stack, buffer, generation);
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    if (!this.temp.renameTo(this.file)) {
+      throw new IOException("Unable to replace " + this.file.getPath());
+    }
+  }
+
+}
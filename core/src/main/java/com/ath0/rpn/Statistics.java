@@ -0,0 +1,244 @@
+package com.ath0.rpn;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * HP-style statistics registers: the number of data points, and the sums of
+ * x, x squared, y, y squared and x times y, updated as each point is added
+ * or removed. The mean, standard deviation and least squares line are
+ * worked out from the sums in constant time, without keeping or rescanning
+ * the data.
+ * The sums are exact, so no rounding error builds up however many points
+ * there are, and points can be removed again exactly. The spreads are
+ * computed as n * sum(x^2) - sum(x)^2, also exactly, before any division.
+ * That avoids the catastrophic cancellation which makes that formula
+ * unstable in floating point, and which is the usual reason for Welford's
+ * update; only the final division and square root are rounded.
+ * If a History is attached, every change is reported to it, so it can be
+ * undone.
+ */
+public final class Statistics {
+
+  private static final String NO_DATA = "No data";
+  private static final String TOO_FEW = "Too few data points";
+  private static final String NO_SPREAD = "All x values are equal";
+
+  private long count;
+  private Decimal sumX = Decimal.ZERO;
+  private Decimal sumX2 = Decimal.ZERO;
+  private Decimal sumY = Decimal.ZERO;
+  private Decimal sumY2 = Decimal.ZERO;
+  private Decimal sumXY = Decimal.ZERO;
+  // Told of every change, or null.
+  private History history;
+
+  /**
+   * Returns an independent copy of the registers. As Decimal values are
+   * immutable, this is O(1).
+   */
+  public Statistics copy() {
+    final Statistics result = new Statistics();
+    result.copyFrom(this);
+    return result;
+  }
+
+  /**
+   * Adds a data point.
+   */
+  public void add(final Decimal x, final Decimal y) {
+    saveForUndo();
+    this.count++;
+    this.sumX = this.sumX.add(x);
+    this.sumX2 = this.sumX2.add(x.multiply(x));
+    this.sumY = this.sumY.add(y);
+    this.sumY2 = this.sumY2.add(y.multiply(y));
+    this.sumXY = this.sumXY.add(x.multiply(y));
+  }
+
+  /**
+   * Removes a data point, to correct one added in error.
+   */
+  public void remove(final Decimal x, final Decimal y) {
+    saveForUndo();
+    this.count--;
+    this.sumX = this.sumX.subtract(x);
+    this.sumX2 = this.sumX2.subtract(x.multiply(x));
+    this.sumY = this.sumY.subtract(y);
+    this.sumY2 = this.sumY2.subtract(y.multiply(y));
+    this.sumXY = this.sumXY.subtract(x.multiply(y));
+  }
+
+  /**
+   * Removes every data point.
+   */
+  public void clear() {
+    set(0, Decimal.ZERO, Decimal.ZERO, Decimal.ZERO, Decimal.ZERO,
+        Decimal.ZERO);
+  }
+
+  /**
+   * Sets all the registers, as when loading saved state.
+   */
+  public void set(final long n, final Decimal sx, final Decimal sx2,
+      final Decimal sy, final Decimal sy2, final Decimal sxy) {
+    saveForUndo();
+    this.count = n;
+    this.sumX = sx;
+    this.sumX2 = sx2;
+    this.sumY = sy;
+    this.sumY2 = sy2;
+    this.sumXY = sxy;
+  }
+
+  public long getCount() {
+    return this.count;
+  }
+
+  public Decimal getSumX() {
+    return this.sumX;
+  }
+
+  public Decimal getSumX2() {
+    return this.sumX2;
+  }
+
+  public Decimal getSumY() {
+    return this.sumY;
+  }
+
+  public Decimal getSumY2() {
+    return this.sumY2;
+  }
+
+  public Decimal getSumXY() {
+    return this.sumXY;
+  }
+
+  /**
+   * Gets the mean of the x values.
+   * @param scale the decimal places of the result
+   * @throws ArithmeticException if there is no data
+   */
+  public BigDecimal meanX(final int scale) {
+    return mean(this.sumX, scale);
+  }
+
+  /**
+   * Gets the mean of the y values.
+   * @param scale the decimal places of the result
+   * @throws ArithmeticException if there is no data
+   */
+  public BigDecimal meanY(final int scale) {
+    return mean(this.sumY, scale);
+  }
+
+  /**
+   * Gets the sample standard deviation of the x values.
+   * @param scale the decimal places of the result
+   * @throws ArithmeticException if there are fewer than two data points
+   */
+  public BigDecimal sdevX(final int scale) {
+    return sdev(spread(this.sumX2, this.sumX, this.sumX), scale);
+  }
+
+  /**
+   * Gets the sample standard deviation of the y values.
+   * @param scale the decimal places of the result
+   * @throws ArithmeticException if there are fewer than two data points
+   */
+  public BigDecimal sdevY(final int scale) {
+    return sdev(spread(this.sumY2, this.sumY, this.sumY), scale);
+  }
+
+  /**
+   * Fits the least squares line y = a + bx to the data.
+   * @param scale the decimal places of the results
+   * @return the intercept a and the slope b
+   * @throws ArithmeticException if there are fewer than two data points, or
+   * the x values are all the same
+   */
+  public BigDecimal[] line(final int scale) {
+    if (this.count < 2) {
+      throw new ArithmeticException(TOO_FEW);
+    }
+    final BigDecimal sxx = spread(this.sumX2, this.sumX, this.sumX);
+    if (sxx.signum() == 0) {
+      throw new ArithmeticException(NO_SPREAD);
+    }
+    final BigDecimal sxy = spread(this.sumXY, this.sumX, this.sumY);
+    // a = (sum(y) sum(x^2) - sum(x) sum(xy)) / sxx, exactly up to the
+    // division, rather than from the rounded slope.
+    final BigDecimal a = this.sumY.toBigDecimal()
+        .multiply(this.sumX2.toBigDecimal())
+        .subtract(this.sumX.toBigDecimal().multiply(
+            this.sumXY.toBigDecimal()));
+    return new BigDecimal[] {
+      a.divide(sxx, scale, RoundingMode.HALF_EVEN),
+      sxy.divide(sxx, scale, RoundingMode.HALF_EVEN)
+    };
+  }
+
+  private BigDecimal mean(final Decimal sum, final int scale) {
+    if (this.count == 0) {
+      throw new ArithmeticException(NO_DATA);
+    }
+    return sum.toBigDecimal().divide(BigDecimal.valueOf(this.count), scale,
+        RoundingMode.HALF_EVEN);
+  }
+
+  /**
+   * Computes n * sum(ab) - sum(a) sum(b) exactly.
+   */
+  private BigDecimal spread(final Decimal sumAB, final Decimal sumA,
+      final Decimal sumB) {
+    return sumAB.toBigDecimal().multiply(BigDecimal.valueOf(this.count))
+        .subtract(sumA.toBigDecimal().multiply(sumB.toBigDecimal()));
+  }
+
+  private BigDecimal sdev(final BigDecimal spread, final int scale) {
+    if (this.count < 2) {
+      throw new ArithmeticException(TOO_FEW);
+    }
+    final BigInteger n = BigInteger.valueOf(this.count);
+    // The square root only uses twice its scale of the variance.
+    final BigDecimal variance = spread.divide(new BigDecimal(
+        n.multiply(n.subtract(BigInteger.ONE))), 2 * scale + 2,
+        RoundingMode.HALF_EVEN);
+    return CalculatorStack.sqrt(variance.max(BigDecimal.ZERO), scale);
+  }
+
+  /**
+   * Attaches a history to record changes in, or detaches it if null. Copies
+   * don't share the history.
+   */
+  void setHistory(final History newHistory) {
+    this.history = newHistory;
+  }
+
+  /**
+   * Replaces the registers with saved ones, giving the history the current
+   * ones in exchange.
+   */
+  void restore(final Statistics saved) {
+    saveForUndo();
+    copyFrom(saved);
+  }
+
+  private void saveForUndo() {
+    if (this.history != null && this.history.isRecording()) {
+      this.history.record(History.STATISTICS, 0, copy());
+    }
+  }
+
+  private void copyFrom(final Statistics other) {
+    this.count = other.count;
+    this.sumX = other.sumX;
+    this.sumX2 = other.sumX2;
+    this.sumY = other.sumY;
+    this.sumY2 = other.sumY2;
+    this.sumXY = other.sumXY;
+  }
+
+}
@@ -0,0 +1,160 @@
+package com.ath0.rpn;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits RPN text into whitespace separated tokens, reading from a Reader
+ * through a fixed size buffer so that input of any length is handled in
+ * constant memory. Line ends are reported as well as tokens, so callers can
+ * treat each line as a separate calculation. Other characters, such as the
+ * commas of CSV data, can be made to separate tokens too.
+ * Instances are not thread safe.
+ */
+public class Tokenizer {
+
+  /** No more input. */
+  public static final int END = 0;
+  /** A token has been read; see token(). */
+  public static final int TOKEN = 1;
+  /** The end of a line has been read. */
+  public static final int LINE = 2;
+
+  // Size of the read buffer.
+  private static final int BUFFER_SIZE = 65536;
+  // Longest token accepted, so that a malformed input can't exhaust memory.
+  private static final int MAX_TOKEN = 100000;
+
+  private final Reader in;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private final StringBuilder token = new StringBuilder();
+  private long tokens;
+  private long line = 1;
+  // Whether the last character was a carriage return, so that CR LF is
+  // taken as one line end.
+  private boolean afterCR;
+  // Characters which separate tokens as well as whitespace.
+  private String fieldSeparators = "";
+
+  /**
+   * @param in the text to tokenize; not closed
+   */
+  public Tokenizer(final Reader in) {
+    super();
+    this.in = in;
+  }
+
+  /**
+   * Sets characters which separate tokens in the same way as spaces.
+   * @param separators the characters, such as "," for CSV
+   */
+  public void setFieldSeparators(final String separators) {
+    this.fieldSeparators = separators;
+  }
+
+  /**
+   * Reads the next token or line end.
+   * @return TOKEN, LINE or END
+   * @throws IOException if the input can't be read, or a token is too long
+   */
+  public int next() throws IOException {
+    this.token.setLength(0);
+    while (true) {
+      if (this.position == this.limit) {
+        this.limit = this.in.read(this.buffer);
+        this.position = 0;
+        if (this.limit <= 0) {
+          this.limit = 0;
+          if (this.token.length() > 0) {
+            return token();
+          }
+          return END;
+        }
+      }
+      final char c = this.buffer[this.position];
+      if (c == '\n' || c == '\r') {
+        if (this.token.length() > 0) {
+          // Leave the line end to be reported next time.
+          return token();
+        }
+        this.position++;
+        final boolean crlf = c == '\n' && this.afterCR;
+        this.afterCR = c == '\r';
+        if (!crlf) {
+          this.line++;
+          return LINE;
+        }
+      } else if (c == ' ' || c == '\t' || c == '\f' ||
+          this.fieldSeparators.indexOf(c) >= 0) {
+        this.position++;
+        this.afterCR = false;
+        if (this.token.length() > 0) {
+          return token();
+        }
+      } else {
+        // Take the rest of the token in the buffer in one go.
+        int end = this.position + 1;
+        while (end < this.limit && !isSeparator(this.buffer[end])) {
+          end++;
+        }
+        if (this.token.length() + end - this.position > MAX_TOKEN) {
+          throw new IOException("Token too long on line " + this.line);
+        }
+        this.token.append(this.buffer, this.position, end - this.position);
+        this.position = end;
+        this.afterCR = false;
+      }
+    }
+  }
+
+  /**
+   * Gets the token last read.
+   */
+  public String getToken() {
+    return this.token.toString();
+  }
+
+  /**
+   * Gets the number of the line being read, starting from 1.
+   */
+  public long getLine() {
+    return this.line;
+  }
+
+  /**
+   * Gets the number of tokens read so far.
+   */
+  public long getTokens() {
+    return this.tokens;
+  }
+
+  /**
+   * Returns whether a token looks like a number rather than an operation:
+   * it starts with a digit or point, or a sign followed by one.
+   */
+  public static boolean isNumber(final String token) {
+    final int len = token.length();
+    if (len == 0) {
+      return false;
+    }
+    char c = token.charAt(0);
+    if ((c == '-' || c == '+') && len > 1) {
+      c = token.charAt(1);
+    }
+    // 1/x starts with a digit but is an operation.
+    return (c >= '0' && c <= '9' || c == '.') && !"1/x".equals(token);
+  }
+
+  private int token() {
+    this.tokens++;
+    return TOKEN;
+  }
+
+  private boolean isSeparator(final char c) {
+    return c == ' ' || c == '\t' || c == '\f' || c == '\n' ||
+        c == '\r' || this.fieldSeparators.indexOf(c) >= 0;
+  }
+
+}
@@ -0,0 +1,121 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.BigMath;
+
+public class BigMathTest extends TestCase {
+
+  private static final MathContext MC40 = new MathContext(40);
+
+  private static final String E =
+      "2.718281828459045235360287471352662497757";
+  private static final String LN2 =
+      "0.6931471805599453094172321214581765680755";
+  private static final String LN10 =
+      "2.302585092994045684017991454684364207601";
+  private static final String SQRT2 =
+      "1.414213562373095048801688724209698078570";
+
+  public static void testExp() {
+    assertEquals("Incorrect e", E,
+        BigMath.exp(BigDecimal.ONE, MC40).toString());
+    assertEquals("Incorrect exp(0)", BigDecimal.ONE,
+        BigMath.exp(BigDecimal.ZERO, MC40));
+    assertEquals("Incorrect exp(ln 10)", 0, BigDecimal.TEN.compareTo(
+        BigMath.exp(new BigDecimal(LN10), new MathContext(38))));
+    assertEquals("Incorrect exp(-1000)",
+        "5.075958897549456765291809479574336919306E-435",
+        BigMath.exp(new BigDecimal(-1000), MC40).toString());
+  }
+
+  public static void testLn() {
+    assertEquals("Incorrect ln 2", LN2,
+        BigMath.ln(new BigDecimal(2), MC40).toString());
+    assertEquals("Incorrect ln 10", LN10,
+        BigMath.ln(BigDecimal.TEN, MC40).toString());
+    assertEquals("Incorrect ln 1", 0,
+        BigMath.ln(BigDecimal.ONE, MC40).signum());
+    assertEquals("Incorrect ln e", 0, BigDecimal.ONE.compareTo(
+        BigMath.ln(new BigDecimal(E), new MathContext(38))));
+    // Near 1, where reduction would cancel
+    assertEquals("Incorrect ln(1.0000001)",
+        "9.999999500000033333330833333533333316667E-8",
+        BigMath.ln(new BigDecimal("1.0000001"), MC40).toString());
+    try {
+      BigMath.ln(BigDecimal.ZERO, MC40);
+      fail("ln 0 not rejected");
+    } catch (ArithmeticException e) {
+      // expected
+    }
+  }
+
+  public static void testPow() {
+    assertEquals("Incorrect square root of 2", SQRT2,
+        BigMath.pow(new BigDecimal(2), new BigDecimal("0.5"), MC40)
+        .toString());
+    assertEquals("Incorrect negative integer power", "0.125",
+        BigMath.pow(new BigDecimal(2), -3, MC40).toString());
+    assertEquals("Incorrect large integer power",
+        "1.071508607186267320948425049060001810561E+301",
+        BigMath.pow(new BigDecimal(2), 1000, MC40).toString());
+    assertEquals("Incorrect power of 1", "1",
+        BigMath.pow(BigDecimal.ONE, new BigDecimal("0.3"), MC40).toString());
+    try {
+      BigMath.pow(new BigDecimal(-8), new BigDecimal("0.5"), MC40);
+      fail("Complex result not rejected");
+    } catch (ArithmeticException e) {
+      // expected
+    }
+  }
+
+  public static void testHugeIntegerPow() {
+    BigDecimal y = new BigDecimal("1E19");
+    assertEquals("Incorrect power of 1", 0, BigDecimal.ONE.compareTo(
+        BigMath.pow(BigDecimal.ONE, y, MC40)));
+    assertEquals("Incorrect power of -1", 0, BigDecimal.ONE.compareTo(
+        BigMath.pow(BigDecimal.ONE.negate(), y, MC40)));
+    assertEquals("Incorrect power of 1", 0, BigDecimal.ONE.compareTo(
+        BigMath.pow(BigDecimal.ONE, y.negate(), MC40)));
+    try {
+      BigMath.pow(new BigDecimal(2), y, MC40);
+      fail("Huge power accepted");
+    } catch (ArithmeticException e) {
+      assertEquals("Incorrect error", "Overflow", e.getMessage());
+    }
+    try {
+      BigMath.pow(new BigDecimal("0.5"), y, MC40);
+      fail("Tiny power accepted");
+    } catch (ArithmeticException e) {
+      assertEquals("Incorrect error", "Underflow", e.getMessage());
+    }
+    try {
+      BigMath.pow(new BigDecimal(2), y.negate(), MC40);
+      fail("Tiny power accepted");
+    } catch (ArithmeticException e) {
+      assertEquals("Incorrect error", "Underflow", e.getMessage());
+    }
+  }
+
+  public static void testExactRoots() {
+    assertEquals("Inexact square root", "2",
+        BigMath.pow(new BigDecimal(4), new BigDecimal("0.5"), MC40)
+        .toString());
+    assertEquals("Inexact square root of fraction", "1.1",
+        BigMath.pow(new BigDecimal("1.21"), new BigDecimal("0.5"), MC40)
+        .toString());
+    assertEquals("Inexact odd root of negative", "-2",
+        BigMath.pow(new BigDecimal(-32), new BigDecimal("0.2"), MC40)
+        .toString());
+    assertEquals("Inexact rational power", "8",
+        BigMath.pow(new BigDecimal(4), new BigDecimal("1.5"), MC40)
+        .toString());
+    assertNull("Root of non-power", BigMath.root(new BigDecimal(2), 2));
+    assertEquals("Incorrect root with scale padding", "0.1",
+        BigMath.root(new BigDecimal("0.001"), 3).toString());
+  }
+
+}
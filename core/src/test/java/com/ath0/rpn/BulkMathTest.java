@@ -0,0 +1,117 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.BulkMath;
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+
+public class BulkMathTest extends TestCase {
+
+  // Enough values to be split into chunks and worked on in parallel.
+  private static final int COUNT = 100000;
+
+  private static Decimal[] values(final int count, final long seed) {
+    Random r = new Random(seed);
+    Decimal[] result = new Decimal[count];
+    for (int i = 0; i < count; i++) {
+      // Mix compact values with some that need a BigDecimal.
+      long unscaled = r.nextInt(2000000) - 1000000;
+      result[i] = i % 97 == 0
+          ? Decimal.valueOf(BigDecimal.valueOf(unscaled).movePointLeft(3)
+              .multiply(BigDecimal.TEN.pow(20)))
+          : Decimal.valueOf(unscaled, r.nextInt(5));
+    }
+    return result;
+  }
+
+  public static void testSum() {
+    Decimal[] v = values(COUNT, 1);
+    BigDecimal expected = BigDecimal.ZERO;
+    for (Decimal d : v) {
+      expected = expected.add(d.toBigDecimal());
+    }
+    assertEquals("Incorrect parallel sum", expected,
+        BulkMath.sum(v).toBigDecimal());
+  }
+
+  public static void testProduct() {
+    Decimal[] v = new Decimal[10000];
+    BigDecimal expected = BigDecimal.ONE;
+    for (int i = 0; i < v.length; i++) {
+      v[i] = Decimal.valueOf(i % 7 + 1, i % 3);
+      expected = expected.multiply(v[i].toBigDecimal());
+    }
+    assertEquals("Incorrect parallel product", expected,
+        BulkMath.product(v, 100000).toBigDecimal());
+    try {
+      BulkMath.product(v, 100);
+      fail("Digit limit not enforced");
+    } catch (ArithmeticException e) {
+      // expected
+    }
+  }
+
+  public static void testMinMax() {
+    Decimal[] v = values(COUNT, 2);
+    BigDecimal min = v[0].toBigDecimal();
+    BigDecimal max = min;
+    for (Decimal d : v) {
+      min = min.min(d.toBigDecimal());
+      max = max.max(d.toBigDecimal());
+    }
+    assertEquals("Incorrect minimum", 0,
+        min.compareTo(BulkMath.min(v).toBigDecimal()));
+    assertEquals("Incorrect maximum", 0,
+        max.compareTo(BulkMath.max(v).toBigDecimal()));
+    // Ties keep the first value, so the scale is predictable.
+    Decimal[] ties = { Decimal.valueOf(20, 1), Decimal.valueOf(200, 2) };
+    assertEquals("Tie not resolved to first", "2.0",
+        BulkMath.max(ties).toString());
+  }
+
+  public static void testMap() {
+    Decimal[] v = values(COUNT, 3);
+    Decimal[] r = BulkMath.map(v, 1, v.length, new BulkMath.Mapper() {
+      @Override
+      public Decimal map(final Decimal value) {
+        return value.negate();
+      }
+    });
+    assertEquals("Incorrect result count", v.length - 1, r.length);
+    for (int i = 0; i < r.length; i++) {
+      assertEquals("Incorrect mapped value", v[i + 1].negate(), r[i]);
+    }
+  }
+
+  public static void testWholeStack() {
+    CalculatorStack s = new CalculatorStack();
+    for (int i = 1; i <= COUNT; i++) {
+      s.push(Decimal.valueOf(i, 0));
+    }
+    assertNull("Sum failed", s.sum());
+    assertEquals("Incorrect sum", "5000050000.00", s.toString());
+    assertEquals("Stack not replaced", 1, s.size());
+
+    s.push("4");
+    s.push("0");
+    s.push("2");
+    assertNull("Multiply all failed", s.multiplyAll());
+    assertEquals("Incorrect products", "10000100000.00\n8.00\n0.00",
+        s.toString(3).toString().replaceAll(",", ""));
+    assertNotNull("Reciprocal of zero not refused", s.reciprocalAll());
+    assertEquals("Stack changed by failed operation", 3, s.size());
+    s.drop();
+    assertNull("Reciprocal failed", s.reciprocalAll());
+    assertEquals("Incorrect reciprocal", 0,
+        new BigDecimal("0.125").compareTo(s.peek(0).toBigDecimal()));
+
+    CalculatorStack empty = new CalculatorStack();
+    assertNull("Sum of empty stack failed", empty.sum());
+    assertTrue("Sum of empty stack pushed a value", empty.isEmpty());
+  }
+
+}
@@ -0,0 +1,360 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Computation;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.Logger;
+import com.ath0.rpn.Program;
+import com.ath0.rpn.ScalePolicy;
+
+public class CalculatorStackTest extends TestCase {
+
+  // Decimal places to test.
+  // Should be less than CalculatorStack.INTERNAL_PRECISION.
+  private final int MAX_TEST_PRECISION = 20;
+
+  // Digits of precision to test.
+  // Must be greater than MAX_TEST_PRECISION.
+  private final int MAX_DIGITS = 40; 
+
+  // Number of rounds of testing for each numeric operation.
+  private final int TEST_ROUNDS = 100;
+
+  public static void testToString() {
+    CalculatorStack s = new CalculatorStack();
+    s.push("30.00");
+    s.push("1.15");
+    s.add();
+    s.setScale(4);
+    assertEquals("Incorrect padding of decimals", "31.1500", s.toString());
+    s.setScale(0);
+    assertEquals("Incorrect zero scaling", "31", s.toString());
+  }
+
+  public static void testPushAndDrop() {
+    CalculatorStack s = new CalculatorStack();
+    s.setScale(2);
+    s.push("0078704");
+    Logger.d("testEnterAndDrop", "stack = " + s.toString());
+    assertEquals("Incorrect string to decimal with leading zeros", "78704.00", s.toString());
+    s.push("42");
+    assertEquals("Second entered value failed", "42.00", s.toString());
+    s.drop();
+    assertEquals("Drop failed", "78704.00", s.toString());
+    s.drop();
+    assertEquals("Double drop failed to empty", "", s.toString());
+    s.drop();
+    assertEquals("Drop on empty stack failed", "", s.toString());
+  }
+
+  public static void testChs() {
+    CalculatorStack s = new CalculatorStack();
+    s.setScale(2);
+    s.chs();
+    assertEquals("Incorrect CHS on clean stack", "", s.toString());
+    s.push("00");
+    s.chs();
+    Logger.d("testChs", "stack = " + s.toString());
+    assertEquals("Incorrect CHS on zero", "0.00", s.toString());
+    s.push("003");
+    s.chs();
+    assertEquals("Incorrect CHS on non-zero with leading zeros", "-3.00", s.toString());
+    s.push("5");
+    s.chs();
+    assertEquals("Incorrect CHS on non-zero", "-5.00", s.toString());
+    s.chs();
+    assertEquals("Incorrect CHS on negative", "5.00", s.toString());
+  }
+
+  public static void testFormatCache() {
+    CalculatorStack s = new CalculatorStack();
+    s.setScale(2);
+    s.push("1234.5");
+    s.push("2");
+    assertEquals("Incorrect formatting", "1,234.50\n2.00", s.toString(2).toString());
+    s.swap();
+    assertEquals("Incorrect formatting after swap", "2.00\n1,234.50", s.toString(2).toString());
+    s.setScale(1);
+    assertEquals("Cached text not invalidated by scale change", "2.0\n1,234.5", s.toString(2).toString());
+    s.chs();
+    assertEquals("Cached text not invalidated by change of value", "-1,234.5", s.format(0));
+    s.setScale(3);
+    assertEquals("Incorrect uncached formatting", "2.000", s.formatUncached(1));
+    assertEquals("Uncached text differs", s.formatUncached(0), s.format(0));
+  }
+
+  public static void testPowerLimit() {
+    CalculatorStack s = new CalculatorStack();
+    s.push("9");
+    s.push("99999999");
+    assertEquals("Huge power not refused", "Result too large", s.power());
+    s.push("2");
+    s.push("10");
+    assertNull("Power failed", s.power());
+    assertEquals("Incorrect power", "1024.00", s.toString());
+    s.push("2");
+    s.push("0.5");
+    assertNull("Fractional power failed", s.power());
+    s.setScale(30);
+    assertEquals("Imprecise fractional power",
+        "1.414213562373095048801688724210", s.toString());
+    s.push("-2");
+    assertNull("Negative power failed", s.power());
+    assertEquals("Imprecise negative power",
+        "0.500000000000000000000000000000", s.toString());
+    s.setScale(2);
+    s.push("1");
+    s.push("1E19");
+    assertNull("Huge power of one failed", s.power());
+    assertEquals("Incorrect huge power of one", "1.00", s.toString());
+    s.push("1");
+    s.push("2000000000");
+    assertNull("Large integer power of one failed", s.power());
+    assertEquals("Incorrect large integer power of one", "1.00",
+        s.toString());
+    s.setScale(10);
+    s.push("1.0000001");
+    s.push("1000000");
+    assertNull("Long exact power refused", s.power());
+    assertEquals("Incorrect long exact power", "1.1051709125",
+        s.toString());
+  }
+
+  public static void testScalePolicy() {
+    CalculatorStack s = new CalculatorStack();
+    s.setScale(40);
+    s.push("1");
+    s.push("3");
+    s.divide();
+    s.dup();
+    s.multiply();
+    assertEquals("Scale not capped", "0.1111111111111111111111111111111100000000", s.toString());
+    assertEquals("Capped result not counted", 1, s.getStats().getNormalized());
+    assertEquals("Raw scale not counted", 64, s.getStats().getMaxScale());
+
+    s = new CalculatorStack();
+    s.setScalePolicy(ScalePolicy.NONE, 0);
+    s.push("0.5");
+    s.push("0.25");
+    s.multiply();
+    assertEquals("Result changed without policy", 3, s.peek(0).scale());
+    s.setScalePolicy(ScalePolicy.STRIP, 32);
+    s.push("8");
+    s.multiply();
+    assertEquals("Trailing zeros not stripped", 0, s.peek(0).scale());
+    s.setScalePolicy(ScalePolicy.SIGNIFICANT, 4);
+    s.push("3");
+    s.divide();
+    assertEquals("Not rounded to significant digits", "0.3333", s.peek(0).toString());
+  }
+
+  public static void testComputation() {
+    CalculatorStack s = new CalculatorStack();
+    s.push("16");
+    Computation c = s.sqrtComputation();
+    Decimal[] args = s.operands(c.getArity());
+    assertEquals("Operands removed before commit", 1, s.size());
+    s.commit(c.getArity(), c.compute(args));
+    assertEquals("Incorrect square root", "4.00", s.toString());
+    assertEquals("Operands not replaced by result", 1, s.size());
+    s.push("3");
+    c = s.powerComputation();
+    assertEquals("Too few operands not detected", null, s.operands(3));
+    args = s.operands(c.getArity());
+    s.commit(c.getArity(), c.compute(args));
+    assertEquals("Incorrect power", "64.00", s.toString());
+    s.push("36");
+    c = s.sumComputation();
+    assertEquals("Incorrect sum", 0, Decimal.parse("100").compareTo(
+        c.compute(s.operands(c.getArity()))));
+    c = s.chsAllComputation();
+    args = s.operands(c.getArity());
+    assertEquals("Incorrect number of results", 2, c.computeAll(args).length);
+    try {
+      c.compute(args);
+      fail("Several results returned as one");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public static void testUndo() {
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    s.setUndoLevels(10);
+    s.checkpoint(b);
+    s.push("2");
+    s.checkpoint(b);
+    b.set("3");
+    s.checkpoint(b);
+    s.push(b.get());
+    b.zap();
+    s.add();
+    assertEquals("Incorrect sum", "5.00", s.toString(2).toString().trim());
+    assertTrue("Nothing to undo", s.undo(b));
+    assertEquals("Stack not restored", "2.00", s.toString());
+    assertEquals("Incorrect depth after undo", 1, s.size());
+    assertEquals("Buffer not restored", "3", b.get());
+    assertTrue("Second undo failed", s.undo(b));
+    assertEquals("Typing not undone", "", b.get());
+    assertTrue("Redo failed", s.redo(b));
+    assertTrue("Second redo failed", s.redo(b));
+    assertEquals("Redo gives wrong stack", "5.00", s.toString());
+    assertEquals("Redo gives wrong buffer", "", b.get());
+    assertFalse("Redo past the end", s.redo(b));
+
+    // Clearing, rolling and changing scale are undone too.
+    s.checkpoint(b);
+    s.push("4");
+    s.push("4");
+    s.checkpoint(b);
+    s.setScale();
+    s.checkpoint(b);
+    s.rollDown();
+    s.rotate();
+    s.checkpoint(b);
+    s.clear();
+    assertTrue("Clear not undone", s.undo(b));
+    assertTrue("Roll not undone", s.undo(b));
+    assertEquals("Incorrect order after undo", "5.0000\n4.0000",
+        s.toString(2).toString());
+    assertTrue("Scale not undone", s.undo(b));
+    assertEquals("Incorrect scale after undo", 2, s.getScale());
+    assertEquals("Incorrect stack after undo", "5.00\n4.00\n4.00",
+        s.toString(3).toString());
+    // A new action forgets what could be redone.
+    s.checkpoint(b);
+    s.drop();
+    assertFalse("Redo after a new action", s.canRedo());
+  }
+
+  public static void testCommitCopy() {
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    s.setUndoLevels(10);
+    s.push("2");
+    s.push("5");
+    s.checkpoint(b);
+    CalculatorStack copy = s.copy();
+    assertNull("Program failed", Program.compile("3 * s+ 4 sdp").run(copy));
+    assertEquals("Original changed", "5.00", s.toString());
+    s.commit(copy);
+    assertEquals("Incorrect depth", 1, s.size());
+    assertEquals("Stack not committed", "2.0000", s.toString());
+    assertEquals("Statistics not committed", 1,
+        s.getStatistics().getCount());
+    assertTrue("Commit not undone", s.undo(b));
+    assertEquals("Stack not restored", "2.00\n5.00",
+        s.toString(2).toString());
+    assertEquals("Statistics not restored", 0, s.getStatistics().getCount());
+  }
+
+  public static void testUndoLimits() {
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    s.setUndoLevels(3);
+    s.setMaxDepth(2);
+    for (int i = 1; i <= 5; i++) {
+      s.checkpoint(b);
+      s.push(Integer.toString(i));
+    }
+    int undone = 0;
+    while (s.undo(b)) {
+      undone++;
+    }
+    assertEquals("History not bounded", 3, undone);
+    assertEquals("Discarded values not restored", "1.00\n2.00",
+        s.toString(2).toString());
+  }
+
+  private String randomNumber() {
+    StringBuilder s = new StringBuilder(this.MAX_DIGITS);
+    Random r = new Random();
+    if (r.nextBoolean()) {
+      s.append('-');
+    }
+    int leftdigits = this.MAX_DIGITS - this.MAX_TEST_PRECISION;
+    for (int i = 0; i < leftdigits; i++) {
+      s.append(Integer.toString(r.nextInt(10)));
+    }
+    s.append('.');
+    for (int i = 0; i < this.MAX_TEST_PRECISION; i++) {
+      s.append(Integer.toString(r.nextInt(10)));
+    } 
+    return s.toString();
+  }
+
+  public void testAdd() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      // Pick a random test display scale
+      Double testscale = Double.valueOf(this.MAX_TEST_PRECISION * Math.random());
+      int scale = testscale.intValue();
+      CalculatorStack s = new CalculatorStack();
+      String a = randomNumber();
+      String b = randomNumber();
+      BigDecimal da = new BigDecimal(a);
+      BigDecimal db = new BigDecimal(b);
+      BigDecimal dr = da.add(db);
+      BigDecimal xv = dr.setScale(scale, RoundingMode.HALF_UP);
+      Logger.d("testAdd", a + " + " + b + " = " + xv.toPlainString()
+          + " at scale " + Integer.toString(scale));
+      s.push(a);
+      s.push(b);
+      s.add();
+      s.setScale(scale);
+      assertEquals("Incorrect addition", xv.toPlainString(), s.toString());
+    }
+  }
+
+  public void testDivide() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      // Pick a random test display scale
+      Double testscale = Double.valueOf(this.MAX_TEST_PRECISION * Math.random());
+      int scale = testscale.intValue();
+      CalculatorStack s = new CalculatorStack();
+      String a = randomNumber();
+      String b = randomNumber();
+      BigDecimal da = new BigDecimal(a);
+      BigDecimal db = new BigDecimal(b);
+      BigDecimal dr = da.divide(db, this.MAX_TEST_PRECISION + 1, RoundingMode.HALF_EVEN);
+      BigDecimal xv = dr.setScale(scale, RoundingMode.HALF_UP);
+      Logger.d("testDivide", a + " / " + b + " = " + xv.toPlainString()
+          + " at scale " + Integer.toString(scale));
+      s.push(a);
+      s.push(b);
+      s.divide();
+      s.setScale(scale);
+      assertEquals("Incorrect division", xv.toPlainString(), s.toString());
+    }
+  }
+
+  public void testMultiply() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      // Pick a random test display scale
+      Double testscale = Double.valueOf(this.MAX_TEST_PRECISION * Math.random());
+      int scale = testscale.intValue();
+      CalculatorStack s = new CalculatorStack();
+      String a = randomNumber();
+      String b = randomNumber();
+      BigDecimal da = new BigDecimal(a);
+      BigDecimal db = new BigDecimal(b);
+      BigDecimal dr = da.multiply(db);
+      BigDecimal xv = dr.setScale(scale, RoundingMode.HALF_UP);
+      Logger.d("testMultiply", a + " * " + b + " = " + xv.toPlainString()
+          + " at scale " + Integer.toString(scale));
+      s.push(a);
+      s.push(b);
+      s.multiply();
+      s.setScale(scale);
+      assertEquals("Incorrect multiplication", xv.toPlainString(), s.toString());
+    }
+  }
+
+}
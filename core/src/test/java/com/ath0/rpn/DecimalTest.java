@@ -0,0 +1,146 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.Decimal;
+
+public class DecimalTest extends TestCase {
+
+  // Number of rounds of testing for each numeric operation.
+  private final int TEST_ROUNDS = 1000;
+
+  private final Random random = new Random();
+
+  public static void testParse() {
+    String[] inputs = { "0", "00", "0078704", "12.50", "0.", ".5", "-3", "+7",
+        "0.000123", "123456789012345678", "1234567890123456789",
+        "-99999999999999999999.5", "1E+3" };
+    for (String in : inputs) {
+      assertEquals("Incorrect parse of " + in, new BigDecimal(in),
+          Decimal.parse(in).toBigDecimal());
+    }
+    assertTrue("Short value not compact", Decimal.parse("12.50").isCompact());
+    try {
+      Decimal.parse("1.2.3");
+      fail("Malformed number accepted");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  // Mixes small values, values near the limits of a long, and values which
+  // need a BigDecimal, at a range of scales.
+  private BigDecimal randomNumber() {
+    long unscaled;
+    switch (this.random.nextInt(3)) {
+    case 0:
+      unscaled = this.random.nextInt(100000) - 50000;
+      break;
+    case 1:
+      unscaled = this.random.nextLong();
+      break;
+    default:
+      unscaled = this.random.nextLong() >> this.random.nextInt(64);
+    }
+    int scale = this.random.nextInt(24) - 2;
+    BigDecimal n = BigDecimal.valueOf(unscaled, scale);
+    if (this.random.nextInt(8) == 0) {
+      n = n.multiply(n);
+    }
+    return n;
+  }
+
+  public void testArithmetic() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      BigDecimal a = randomNumber();
+      BigDecimal b = randomNumber();
+      Decimal da = Decimal.valueOf(a);
+      Decimal db = Decimal.valueOf(b);
+      assertEquals("Incorrect addition", a.add(b), da.add(db).toBigDecimal());
+      assertEquals("Incorrect subtraction", a.subtract(b),
+          da.subtract(db).toBigDecimal());
+      assertEquals("Incorrect multiplication", a.multiply(b),
+          da.multiply(db).toBigDecimal());
+      assertEquals("Incorrect negation", a.negate(), da.negate().toBigDecimal());
+    }
+  }
+
+  public void testPow() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      BigDecimal a = randomNumber();
+      int n = this.random.nextInt(12);
+      assertEquals("Incorrect power", a.pow(n),
+          Decimal.valueOf(a).pow(n).toBigDecimal());
+    }
+  }
+
+  public static void testPowRange() {
+    String[] bases = { "0", "1", "-1", "2", "12345678901234567890.5" };
+    int[] exponents = { -1, 1000000000, Integer.MAX_VALUE };
+    for (String base : bases) {
+      for (int n : exponents) {
+        boolean bigFailed = false;
+        try {
+          new BigDecimal(base).pow(n);
+        } catch (ArithmeticException ex) {
+          bigFailed = true;
+        }
+        boolean failed = false;
+        try {
+          Decimal.parse(base).pow(n);
+        } catch (ArithmeticException ex) {
+          failed = true;
+        }
+        assertEquals("Inconsistent range check for " + base + "^" + n,
+            bigFailed, failed);
+      }
+    }
+  }
+
+  public static void testOverflow() {
+    Decimal max = Decimal.valueOf(Long.MAX_VALUE, 0);
+    assertEquals("Incorrect promotion on add",
+        BigDecimal.valueOf(Long.MAX_VALUE).add(BigDecimal.ONE),
+        max.add(Decimal.ONE).toBigDecimal());
+    assertEquals("Incorrect negation of minimum long",
+        BigDecimal.valueOf(Long.MIN_VALUE).negate(),
+        Decimal.valueOf(Long.MIN_VALUE, 0).negate().toBigDecimal());
+  }
+
+  public void testNormalize() {
+    MathContext mc = new MathContext(5, RoundingMode.HALF_EVEN);
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      BigDecimal a = randomNumber();
+      Decimal d = Decimal.valueOf(a);
+      assertEquals("Incorrect setScale", a.setScale(3, RoundingMode.HALF_EVEN),
+          d.setScale(3, RoundingMode.HALF_EVEN).toBigDecimal());
+      assertEquals("Incorrect round", a.round(mc), d.round(mc).toBigDecimal());
+      if (a.signum() != 0) {
+        assertEquals("Incorrect stripTrailingZeros", a.stripTrailingZeros(),
+            d.stripTrailingZeros().toBigDecimal());
+      }
+    }
+    assertEquals("Incorrect stripTrailingZeros of compact value",
+        new BigDecimal("1.2E+3"), Decimal.parse("1200.00").stripTrailingZeros()
+        .toBigDecimal());
+  }
+
+  public void testCompareTo() {
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      BigDecimal a = randomNumber();
+      BigDecimal b = randomNumber();
+      assertEquals("Incorrect compareTo", Integer.signum(a.compareTo(b)),
+          Integer.signum(Decimal.valueOf(a).compareTo(Decimal.valueOf(b))));
+    }
+    assertEquals("Scale not ignored", 0,
+        Decimal.parse("2.50").compareTo(Decimal.parse("2.5")));
+    assertTrue("Overflowing rescale misordered",
+        Decimal.valueOf(1, 0).compareTo(Decimal.valueOf(Long.MAX_VALUE, 30)) > 0);
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.ath0.rpn.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.Journal;
+
+public class JournalTest extends TestCase {
+
+  private static File tempDir() throws IOException {
+    File dir = File.createTempFile("journal", null);
+    dir.delete();
+    dir.mkdir();
+    return dir;
+  }
+
+  private static void enter(final Journal j, final InputBuffer b,
+      final String value) {
+    b.set(value);
+    j.recordBuffer(b);
+    b.zap();
+    j.record(Journal.ENTER);
+  }
+
+  public static void testReplay() throws IOException {
+    File dir = tempDir();
+    Journal j = new Journal(dir, 1000);
+    InputBuffer b = new InputBuffer();
+    assertEquals("Incorrect first generation", 1, j.startGeneration());
+    enter(j, b, "2");
+    enter(j, b, "3");
+    j.record(Journal.ADD);
+    assertEquals("Incorrect second generation", 2, j.startGeneration());
+    enter(j, b, "4");
+    j.record(Journal.MULTIPLY);
+    b.set("5.");
+    j.recordBuffer(b);
+    j.close();
+    // Simulate a crash part way through writing an entry.
+    FileOutputStream out = new FileOutputStream(new File(dir, "journal.2"),
+        true);
+    out.write(Journal.BUFFER);
+    out.close();
+
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer c = new InputBuffer();
+    Journal k = new Journal(dir, 1000);
+    assertEquals("Incorrect last generation", 2, k.replay(1, s, c));
+    assertEquals("Incorrect replayed stack", "20.00", s.toString());
+    assertEquals("Incorrect replayed buffer", "5.", c.get());
+
+    Journal.deleteBefore(dir, 2);
+    assertFalse("Old journal not deleted", new File(dir, "journal.1").exists());
+    assertTrue("Current journal deleted", new File(dir, "journal.2").exists());
+  }
+
+  public static void testStaleJournals() throws IOException {
+    File dir = tempDir();
+    Journal j = new Journal(dir, 1000);
+    InputBuffer b = new InputBuffer();
+    for (int i = 1; i <= 4; i++) {
+      j.startGeneration();
+      enter(j, b, Integer.toString(i));
+    }
+    j.close();
+    // A journal after a gap doesn't follow on from the snapshot.
+    assertTrue("Unable to make gap", new File(dir, "journal.3").delete());
+    CalculatorStack s = new CalculatorStack();
+    Journal k = new Journal(dir, 1000);
+    assertEquals("Incorrect last generation", 2, k.replay(1, s, b));
+    assertEquals("Incorrect replay up to gap", "1.00\n2.00",
+        s.toString(2).toString().replaceAll(",", ""));
+    assertFalse("Journal after gap kept", new File(dir, "journal.4").exists());
+
+    // When the snapshot is corrupt, the state starts again empty, and none
+    // of the journals may be replayed onto it, now or later.
+    k.discard();
+    CalculatorStack empty = new CalculatorStack();
+    assertEquals("Journals not discarded", -1, k.replay(0, empty, b));
+    assertEquals("Stale entries replayed", 0, empty.size());
+    assertEquals("Incorrect generation after discard", 0,
+        k.startGeneration());
+    enter(k, b, "9");
+    k.close();
+    CalculatorStack later = new CalculatorStack();
+    new Journal(dir, 1000).replay(0, later, b);
+    assertEquals("Incorrect replay after discard", "9.00", later.toString());
+  }
+
+  public static void testReplayStep() throws IOException {
+    File dir = tempDir();
+    Journal j = new Journal(dir, 1000);
+    j.startGeneration();
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    s.setUndoLevels(10);
+    s.checkpoint(b);
+    s.push("2");
+    j.record(Journal.ENTER);
+    s.checkpoint(b);
+    b.set("3");
+    j.recordBuffer(b);
+    s.checkpoint(b);
+    s.push(b.get());
+    b.zap();
+    j.record(Journal.ENTER);
+    s.statAdd();
+    j.record(Journal.STAT_ADD);
+    s.checkpoint(b);
+    s.setScale();
+    j.record(Journal.SET_SCALE);
+    assertTrue("Scale not undone", s.undo(b));
+    assertTrue("Undo not recorded", j.recordStep(s));
+    assertTrue("Statistics not undone", s.undo(b));
+    assertTrue("Undo not recorded", j.recordStep(s));
+    assertTrue("Redo failed", s.redo(b));
+    assertTrue("Redo not recorded", j.recordStep(s));
+    j.close();
+
+    CalculatorStack r = new CalculatorStack();
+    InputBuffer c = new InputBuffer();
+    new Journal(dir, 1000).replay(1, r, c);
+    assertEquals("Incorrect replayed stack", s.toString(2).toString(),
+        r.toString(2).toString());
+    assertEquals("Incorrect replayed scale", s.getScale(), r.getScale());
+    assertEquals("Incorrect replayed buffer", b.get(), c.get());
+    assertEquals("Incorrect replayed statistics", 1,
+        r.getStatistics().getCount());
+
+    // Undoing a clear restores the whole stack, which a snapshot records.
+    j.startGeneration();
+    s.checkpoint(b);
+    s.clear();
+    assertTrue("Clear not undone", s.undo(b));
+    assertFalse("Whole stack restore recorded", j.recordStep(s));
+    j.close();
+  }
+
+  public static void testSnapshotInterval() throws IOException {
+    Journal j = new Journal(tempDir(), 3);
+    j.startGeneration();
+    j.record(Journal.DUP);
+    j.record(Journal.DUP);
+    assertFalse("Snapshot requested early", j.needsSnapshot());
+    j.record(Journal.DUP);
+    assertTrue("Snapshot not requested", j.needsSnapshot());
+    j.startGeneration();
+    assertFalse("Snapshot requested after new generation", j.needsSnapshot());
+    j.recordCommit(1, new Decimal[] { Decimal.ONE, Decimal.ONE });
+    assertTrue("Commit results not counted", j.needsSnapshot());
+    j.close();
+  }
+
+  public static void testReplayCommit() throws IOException {
+    File dir = tempDir();
+    Journal j = new Journal(dir, 1000);
+    InputBuffer b = new InputBuffer();
+    j.startGeneration();
+    enter(j, b, "7");
+    enter(j, b, "2");
+    enter(j, b, "10");
+    // The result of "pow", journaled in place of the operation.
+    j.recordCommit(2, new Decimal[] { Decimal.parse("1024") });
+    j.close();
+
+    CalculatorStack s = new CalculatorStack();
+    new Journal(dir, 1000).replay(1, s, new InputBuffer());
+    assertEquals("Incorrect depth", 2, s.size());
+    assertEquals("Result not replayed", Decimal.parse("1024"), s.peek(0));
+    assertEquals("Operand below not kept", Decimal.parse("7"), s.peek(1));
+  }
+
+}
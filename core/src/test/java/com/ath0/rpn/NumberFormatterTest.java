@@ -0,0 +1,66 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.NumberFormatter;
+
+public class NumberFormatterTest extends TestCase {
+
+  // Number of rounds of random testing.
+  private final int TEST_ROUNDS = 2000;
+
+  /**
+   * The original insert-based formatting, as a reference.
+   */
+  private static String reference(final BigDecimal number, final int scale) {
+    final StringBuilder result = new StringBuilder();
+    result.append(number.setScale(scale, RoundingMode.HALF_UP).toPlainString());
+    int dot = result.indexOf(".");
+    if (dot < 1) {
+      dot = result.length();
+    }
+    int lowindex = 0;
+    if (result.charAt(0) == '-') {
+      lowindex = 1;
+    }
+    for (int i = dot - 3; i > lowindex; i -= 3) {
+      result.insert(i, ',');
+    }
+    return result.toString();
+  }
+
+  public static void testExamples() {
+    NumberFormatter f = new NumberFormatter();
+    assertEquals("Incorrect padding", "31.1500", f.format(Decimal.parse("31.15"), 4));
+    assertEquals("Incorrect rounding", "0.01", f.format(Decimal.parse("0.005"), 2));
+    assertEquals("Incorrect negative zero", "0.00", f.format(Decimal.parse("-0.001"), 2));
+    assertEquals("Incorrect grouping", "-1,234,567", f.format(Decimal.parse("-1234567.4"), 0));
+    assertEquals("Incorrect negative scale", "12,300", f.format(Decimal.parse("12345"), -2));
+    f.setGrouping('.', 3);
+    f.setDecimalSeparator(',');
+    assertEquals("Incorrect separators", "1.234,50", f.format(Decimal.parse("1234.5"), 2));
+    f.setGrouping(' ', 0);
+    assertEquals("Incorrect ungrouped", "1234,50", f.format(Decimal.parse("1234.5"), 2));
+  }
+
+  public void testAgainstReference() {
+    Random r = new Random();
+    NumberFormatter f = new NumberFormatter();
+    for (int j = 0; j < this.TEST_ROUNDS; j++) {
+      long unscaled = r.nextLong() >> r.nextInt(64);
+      BigDecimal n = BigDecimal.valueOf(unscaled, r.nextInt(40) - 4);
+      if (r.nextInt(4) == 0) {
+        n = n.multiply(n);
+      }
+      int scale = r.nextInt(24) - 2;
+      assertEquals("Incorrect format of " + n + " at scale " + scale,
+          reference(n, scale), f.format(Decimal.valueOf(n), scale));
+    }
+  }
+
+}
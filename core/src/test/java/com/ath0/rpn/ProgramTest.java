@@ -0,0 +1,80 @@
+package com.ath0.rpn.test;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Program;
+
+public class ProgramTest extends TestCase {
+
+  public static void testRun() {
+    Program p = Program.compile("dup * 3 *\n1 +");
+    CalculatorStack s = new CalculatorStack();
+    for (int i = 1; i <= 3; i++) {
+      s.push(Integer.toString(i));
+      assertNull("Program failed", p.run(s));
+    }
+    assertEquals("Incorrect results", "4.00\n13.00\n28.00",
+        s.toString(3).toString());
+  }
+
+  public static void testFolding() {
+    Program p = Program.compile("1 2 + 3 * swap 4 5 swap -");
+    assertEquals("Constants not folded", "9 swap 1", p.toString());
+    assertEquals("Incorrect length", 3, p.getLength());
+    CalculatorStack s = new CalculatorStack();
+    s.push("7");
+    p.run(s);
+    assertEquals("Folded program gives wrong result", "9.00\n7.00\n1.00",
+        s.toString(3).toString());
+
+    assertFalse("Quick program marked slow", p.isSlow());
+
+    // Operations which can be slow aren't folded.
+    p = Program.compile("2.5 25000.5 pow 1 +");
+    assertEquals("Slow operation folded", "2.5 25000.5 pow 1 +",
+        p.toString());
+    assertTrue("Slow program not marked", p.isSlow());
+
+    // Operations on values from the stack can't be folded.
+    assertEquals("Unknown operand folded", "2 + 3 *",
+        Program.compile("2 + 3 *").toString());
+  }
+
+  public static void testErrors() {
+    Program p = Program.compile("1 0 /");
+    assertEquals("Error folded away", "1 0 /", p.toString());
+    assertNotNull("Error not reported", p.run(new CalculatorStack()));
+    try {
+      Program.compile("1 frobnicate");
+      fail("Unknown word accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public static void testBulkData() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 1; i <= 10000; i++) {
+      text.append(i).append(".5\r\n");
+    }
+    text.append("+ +");
+    CalculatorStack s = new CalculatorStack();
+    assertNull("Bulk data failed", Program.compile(text.toString()).run(s));
+    assertEquals("Incorrect depth", 9998, s.size());
+    assertEquals("Incorrect top", "29998.50", s.toString());
+    assertEquals("Incorrect bottom", "1.50", s.format(s.size() - 1));
+  }
+
+  public static void testRoundTrip() {
+    Program p = Program.compile("2 sqrt * 1/x .5 pow");
+    CalculatorStack a = new CalculatorStack();
+    CalculatorStack b = new CalculatorStack();
+    a.push("8");
+    b.push("8");
+    p.run(a);
+    Program.compile(p.toString()).run(b);
+    assertEquals("Recompiled program differs", a.peek(0), b.peek(0));
+  }
+
+}
@@ -0,0 +1,338 @@
+package com.ath0.rpn.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.RingStack;
+
+public class RingStackTest extends TestCase {
+
+  private static RingStack stackOf(final int depth) {
+    RingStack s = new RingStack();
+    for (int i = 1; i <= depth; i++) {
+      s.push(Decimal.valueOf(i, 0));
+    }
+    return s;
+  }
+
+  private static String contents(final RingStack s) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < s.size(); i++) {
+      if (i != 0) {
+        result.append(' ');
+      }
+      result.append(s.get(i).toString());
+    }
+    return result.toString();
+  }
+
+  public static void testPushAndPop() {
+    RingStack s = stackOf(40);
+    assertEquals("Incorrect depth after growth", 40, s.size());
+    assertEquals("Incorrect top", "40", s.pop().toString());
+    assertEquals("Incorrect level 1", "38", s.peek(1).toString());
+    s.clear();
+    assertTrue("Clear failed", s.isEmpty());
+  }
+
+  public static void testRoll() {
+    // 16 fills the initial capacity exactly; 5 leaves room to wrap.
+    for (int depth : new int[] { 5, 16 }) {
+      RingStack s = stackOf(depth);
+      String original = contents(s);
+      s.rollDown();
+      assertEquals("Incorrect roll down", "" + depth, s.get(0).toString());
+      assertEquals("Incorrect top after roll down", "" + (depth - 1),
+          s.peek().toString());
+      s.rollUp();
+      assertEquals("Roll up did not undo roll down", original, contents(s));
+      s.rollUp();
+      s.push(Decimal.ONE);
+      assertEquals("Incorrect push after wrapping", "1", s.pop().toString());
+      assertEquals("Incorrect top after roll up", "1", s.peek().toString());
+    }
+  }
+
+  public static void testSwapRotatePick() {
+    RingStack s = stackOf(3);
+    s.swap();
+    assertEquals("Incorrect swap", "1 3 2", contents(s));
+    s.rotate();
+    assertEquals("Incorrect rotate", "3 2 1", contents(s));
+    s.pick(2);
+    assertEquals("Incorrect pick", "3 2 1 3", contents(s));
+  }
+
+  public static void testMaxDepth() {
+    RingStack s = stackOf(6);
+    s.setMaxDepth(4);
+    assertEquals("Incorrect truncation", "3 4 5 6", contents(s));
+    s.push(Decimal.valueOf(7, 0));
+    assertEquals("Incorrect push at maximum depth", "4 5 6 7", contents(s));
+  }
+
+  public static void testBigValues() {
+    // Values too big for a long are kept in a side table, which must follow
+    // them as they move, and reuse entries once they're popped.
+    RingStack s = new RingStack();
+    String big = "123456789012345678901234567890.5";
+    for (int i = 0; i < 40; i++) {
+      s.push(Decimal.parse(i % 3 == 0 ? big + i : "-1." + i));
+    }
+    String original = contents(s);
+    s.swap();
+    s.rotate();
+    s.rollDown();
+    s.rollUp();
+    s.rotate();
+    s.rotate();
+    s.swap();
+    assertEquals("Big values lost moving", original, contents(s));
+    assertEquals("Incorrect big top", big + "39", s.pop().toString());
+    s.push(Decimal.parse(big));
+    s.set(1, Decimal.parse("-" + big));
+    assertEquals("Incorrect big set", "-" + big, s.peek(1).toString());
+    RingStack copy = s.copy();
+    for (int i = 0; i < 40; i++) {
+      s.pop();
+    }
+    s.push(Decimal.valueOf(5, 1));
+    assertEquals("Incorrect reuse", "0.5", s.peek().toString());
+    assertEquals("Copy changed", big, copy.peek().toString());
+    assertEquals("Incorrect copy depth", 40, copy.size());
+  }
+
+  public static void testSpill() throws IOException {
+    // A stack which spills all but a few levels must behave exactly like
+    // one kept in memory, whatever is done to it.
+    File dir = File.createTempFile("spill", "");
+    assertTrue("Unable to make directory", dir.delete() && dir.mkdir());
+    try {
+      RingStack memory = new RingStack();
+      RingStack spilled = new RingStack();
+      spilled.setSpill(dir, 4);
+      Random random = new Random(42);
+      for (int step = 0; step < 5000; step++) {
+        int size = memory.size();
+        int op = random.nextInt(9);
+        if (op < 3 || size < 3) {
+          Decimal value = Decimal.parse(random.nextInt(10) == 0 ?
+              "123456789012345678901234567890." + step : "-1." + step);
+          memory.push(value);
+          spilled.push(value);
+        } else if (op == 3) {
+          memory.pop();
+          spilled.pop();
+        } else if (op == 4) {
+          memory.swap();
+          spilled.swap();
+        } else if (op == 5) {
+          memory.rotate();
+          spilled.rotate();
+        } else if (op == 6) {
+          memory.rollUp();
+          spilled.rollUp();
+        } else if (op == 7) {
+          memory.rollDown();
+          spilled.rollDown();
+        } else {
+          int level = random.nextInt(size);
+          memory.pick(level);
+          spilled.pick(level);
+          memory.set(size - 1, Decimal.valueOf(step, 2));
+          spilled.set(size - 1, Decimal.valueOf(step, 2));
+        }
+        assertEquals("Incorrect depth at step " + step, memory.size(),
+            spilled.size());
+      }
+      assertEquals("Contents differ", contents(memory), contents(spilled));
+      RingStack copy = spilled.copy();
+      spilled.clear();
+      assertEquals("Copy differs", contents(memory), contents(copy));
+      memory.setMaxDepth(100);
+      copy.setMaxDepth(100);
+      assertEquals("Truncated copy differs", contents(memory),
+          contents(copy));
+      copy.setSpill(null, 0);
+      assertEquals("Unspilled copy differs", contents(memory),
+          contents(copy));
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  public static void testSpillBigChurn() throws IOException {
+    // Big values moving back and forth between memory and disk must come
+    // back intact while their blobs are reused and the file compacted.
+    File dir = File.createTempFile("spill", "");
+    assertTrue("Unable to make directory", dir.delete() && dir.mkdir());
+    try {
+      RingStack memory = new RingStack();
+      RingStack spilled = new RingStack();
+      spilled.setSpill(dir, 2);
+      Random random = new Random(7);
+      StringBuilder digits = new StringBuilder();
+      for (int step = 0; step < 3000; step++) {
+        int size = memory.size();
+        // Grow and shrink in turn, so that most of the file comes free
+        // while some values stay spilled.
+        boolean growing = (step / 500) % 2 == 0;
+        int op = random.nextInt(6);
+        if (!growing && op < 2) {
+          op = 2;
+        }
+        if (growing && op < 3 || size < (growing ? 3 : 20)) {
+          digits.setLength(0);
+          int length = 500 + random.nextInt(4) * 100;
+          for (int i = 0; i < length; i++) {
+            digits.append((char) ('1' + random.nextInt(9)));
+          }
+          Decimal value = Decimal.parse(digits + "." + step);
+          memory.push(value);
+          spilled.push(value);
+        } else if (op == 2) {
+          memory.pop();
+          spilled.pop();
+        } else if (op == 3) {
+          memory.rollDown();
+          spilled.rollDown();
+        } else if (op == 4) {
+          memory.rollUp();
+          spilled.rollUp();
+        } else {
+          int level = random.nextInt(size);
+          memory.set(level, Decimal.valueOf(step, 1));
+          spilled.set(level, Decimal.valueOf(step, 1));
+        }
+      }
+      assertEquals("Contents differ", contents(memory), contents(spilled));
+      RingStack copy = spilled.copy();
+      spilled.close();
+      spilled.close();
+      assertEquals("Copy differs", contents(memory), contents(copy));
+      while (!copy.isEmpty()) {
+        assertEquals("Incorrect pop", memory.pop(), copy.pop());
+      }
+      copy.close();
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  public static void testDoubleClose() throws IOException {
+    File dir = File.createTempFile("spill", "");
+    assertTrue("Unable to make directory", dir.delete() && dir.mkdir());
+    try {
+      RingStack s = new RingStack();
+      s.setSpill(dir, 2);
+      for (int i = 1; i <= 10; i++) {
+        s.push(Decimal.valueOf(i, 0));
+      }
+      RingStack copy = s.copy();
+      copy.close();
+      copy.close();
+      assertEquals("Original changed by closing copy",
+          "1 2 3 4 5 6 7 8 9 10", contents(s));
+      s.close();
+      s.close();
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void randomStep(final Random random, final int step,
+      final RingStack memory, final RingStack spilled) {
+    int size = memory.size();
+    int op = random.nextInt(7);
+    if (op < 3 || size < 3) {
+      Decimal value = Decimal.parse(random.nextInt(8) == 0 ?
+          "123456789012345678901234567890." + step : "-1." + step);
+      memory.push(value);
+      spilled.push(value);
+    } else if (op == 3) {
+      memory.pop();
+      spilled.pop();
+    } else if (op == 4) {
+      memory.rollUp();
+      spilled.rollUp();
+    } else if (op == 5) {
+      memory.rollDown();
+      spilled.rollDown();
+    } else {
+      int level = random.nextInt(size);
+      memory.set(level, Decimal.valueOf(step, 3));
+      spilled.set(level, Decimal.valueOf(step, 3));
+    }
+  }
+
+  public static void testSharedSpill() throws IOException {
+    // Copies share spilled values until one of them changes, and each must
+    // then only see its own changes.
+    File dir = File.createTempFile("spill", "");
+    assertTrue("Unable to make directory", dir.delete() && dir.mkdir());
+    try {
+      RingStack memory = new RingStack();
+      RingStack spilled = new RingStack();
+      spilled.setSpill(dir, 3);
+      Random random = new Random(11);
+      // Enough values to fill more than one segment, and with the ring
+      // wrapped when it grows.
+      for (int i = 0; i < 70000; i++) {
+        memory.push(Decimal.valueOf(i, 0));
+        spilled.push(Decimal.valueOf(i, 0));
+      }
+      for (int i = 0; i < 1000; i++) {
+        memory.rollDown();
+        spilled.rollDown();
+      }
+      for (int step = 0; step < 10000; step++) {
+        randomStep(random, step, memory, spilled);
+      }
+      String expected = contents(memory);
+      RingStack before = spilled.copy();
+      for (int i = 0; i < 70000; i++) {
+        memory.push(Decimal.valueOf(i, 1));
+        spilled.push(Decimal.valueOf(i, 1));
+      }
+      assertEquals("Earlier copy changed", expected, contents(before));
+      before.close();
+      RingStack memoryCopy = memory.copy();
+      RingStack copy = spilled.copy();
+      RingStack dropped = spilled.copy();
+      for (int step = 0; step < 3000; step++) {
+        randomStep(random, step, memory, spilled);
+        randomStep(random, step + 100000, memoryCopy, copy);
+        if (step == 1500) {
+          dropped.close();
+        }
+      }
+      assertEquals("Original differs", contents(memory), contents(spilled));
+      assertEquals("Copy differs", contents(memoryCopy), contents(copy));
+      spilled.close();
+      while (!copy.isEmpty()) {
+        assertEquals("Incorrect pop after original closed", memoryCopy.pop(),
+            copy.pop());
+      }
+      copy.close();
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.ath0.rpn.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.StackText;
+
+public class StackTextTest extends TestCase {
+
+  private static String write(final CalculatorStack stack, final char sep)
+      throws IOException {
+    StringWriter out = new StringWriter();
+    StackText.write(stack, out, sep);
+    return out.toString();
+  }
+
+  public static void testWrite() throws IOException {
+    CalculatorStack stack = new CalculatorStack();
+    stack.push("1234567.5");
+    stack.push("-0.001");
+    stack.push("123456789012345678901234567890.25");
+    stack.push(Decimal.parse("1E+3"));
+    assertEquals("Incorrect lines",
+        "1234567.5\n-0.001\n123456789012345678901234567890.25\n1000\n",
+        write(stack, '\n'));
+    assertEquals("Incorrect CSV",
+        "1234567.5,-0.001,123456789012345678901234567890.25,1000\n",
+        write(stack, ','));
+    assertEquals("Empty stack not a blank line", "\n",
+        write(new CalculatorStack(), '\n'));
+  }
+
+  public static void testRead() throws IOException {
+    Decimal[] values = StackText.read(new StringReader(
+        "1,2.5;\"3\"\r\n, -4e2 ,\n\n5"));
+    assertEquals("Incorrect count", 5, values.length);
+    String[] expected = { "1", "2.5", "3", "-400", "5" };
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("Incorrect value " + i, 0, values[i].compareTo(
+          Decimal.parse(expected[i])));
+    }
+    try {
+      StackText.read(new StringReader("1\n2\nx,3"));
+      fail("Non-number accepted");
+    } catch (IOException e) {
+      assertEquals("Incorrect error", "Not a number 'x' on line 3",
+          e.getMessage());
+    }
+  }
+
+  public static void testRoundTrip() throws IOException {
+    CalculatorStack stack = new CalculatorStack();
+    for (int i = 0; i < 5000; i++) {
+      stack.push(Integer.toString(i * 37 - 90000) + "." + i);
+    }
+    String text = write(stack, '\n');
+    CalculatorStack copy = new CalculatorStack();
+    copy.push("42");
+    copy.pushAll(StackText.read(new StringReader(text)));
+    assertEquals("Incorrect depth", 5001, copy.size());
+    assertEquals("Existing value lost", "42",
+        copy.peek(5000).toBigDecimal().toPlainString());
+    for (int level = 0; level < stack.size(); level++) {
+      assertEquals("Value changed at level " + level,
+          stack.peek(level).toBigDecimal(), copy.peek(level).toBigDecimal());
+    }
+    copy.setMaxDepth(100);
+    copy.pushAll(StackText.read(new StringReader("1,2")));
+    assertEquals("Maximum depth ignored", 100, copy.size());
+    assertEquals("Incorrect top", "2",
+        copy.peek(0).toBigDecimal().toPlainString());
+  }
+
+}
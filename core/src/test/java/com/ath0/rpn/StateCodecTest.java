@@ -0,0 +1,97 @@
+package com.ath0.rpn.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.StateCodec;
+import com.ath0.rpn.Statistics;
+
+public class StateCodecTest extends TestCase {
+
+  private static byte[] save(final CalculatorStack s, final InputBuffer b)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StateCodec.write(out, s, b, 7);
+    return out.toByteArray();
+  }
+
+  public static void testRoundTrip() throws IOException {
+    CalculatorStack s = new CalculatorStack();
+    s.setScale(5);
+    String[] values = { "0", "-1", "127", "128", "-129", "12.50",
+        "-9223372036854775807", "123456789012345678901234567890.123" };
+    for (String v : values) {
+      s.push(v);
+    }
+    s.push("1");
+    s.push("3");
+    s.divide();
+    InputBuffer b = new InputBuffer("42.1");
+    s.getStatistics().add(Decimal.parse("2.5"), Decimal.parse("-3"));
+    s.getStatistics().add(Decimal.parse("1E+40"), Decimal.ONE);
+
+    CalculatorStack t = new CalculatorStack();
+    InputBuffer c = new InputBuffer();
+    long generation = StateCodec.read(new ByteArrayInputStream(save(s, b)), t,
+        c);
+    assertEquals("Incorrect journal generation", 7, generation);
+    assertEquals("Incorrect depth", s.size(), t.size());
+    for (int i = 0; i < s.size(); i++) {
+      assertEquals("Incorrect value at level " + i, s.peek(i), t.peek(i));
+    }
+    assertEquals("Incorrect scale", 5, t.getScale());
+    assertEquals("Incorrect buffer", "42.1", c.get());
+    Statistics u = t.getStatistics();
+    assertEquals("Incorrect data count", 2, u.getCount());
+    assertEquals("Incorrect sum of x", s.getStatistics().getSumX(),
+        u.getSumX());
+    assertEquals("Incorrect sum of xy", s.getStatistics().getSumXY(),
+        u.getSumXY());
+  }
+
+  public static void testCorruption() throws IOException {
+    CalculatorStack s = new CalculatorStack();
+    s.push("1234.5");
+    byte[] data = save(s, new InputBuffer());
+    data[data.length - 8] ^= 1;
+    try {
+      StateCodec.read(new ByteArrayInputStream(data), new CalculatorStack(),
+          new InputBuffer());
+      fail("Corrupt state accepted");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public static void testCorruptLength() throws IOException {
+    CalculatorStack s = new CalculatorStack();
+    s.push("1");
+    byte[] data = save(s, new InputBuffer());
+    // Magic, version, generation, display scale, depth, then the first
+    // value's scale and length; make the length a huge varint.
+    int at = 4 + 2 + 8 + 1 + 1 + 1;
+    byte[] corrupt = new byte[data.length + 4];
+    System.arraycopy(data, 0, corrupt, 0, at);
+    corrupt[at] = (byte) 0xff;
+    corrupt[at + 1] = (byte) 0xff;
+    corrupt[at + 2] = (byte) 0xff;
+    corrupt[at + 3] = (byte) 0xff;
+    corrupt[at + 4] = (byte) 0x07;
+    System.arraycopy(data, at + 1, corrupt, at + 5, data.length - at - 1);
+    try {
+      StateCodec.read(new ByteArrayInputStream(corrupt), new CalculatorStack(),
+          new InputBuffer());
+      fail("Corrupt length accepted");
+    } catch (IOException e) {
+      assertEquals("Incorrect message", "Saved state is corrupt",
+          e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.ath0.rpn.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.StateCodec;
+import com.ath0.rpn.StatePersister;
+
+public class StatePersisterTest extends TestCase {
+
+  public static void testCoalescedSaves() throws IOException,
+      InterruptedException {
+    File file = File.createTempFile("state", null);
+    StatePersister p = new StatePersister(file, null);
+    CalculatorStack s = new CalculatorStack();
+    for (int i = 0; i < 100; i++) {
+      s.push(Integer.toString(i));
+      p.save(s.copy(), new InputBuffer(Integer.toString(i)), i);
+    }
+    assertTrue("Saves not written in time", p.await(10000));
+
+    CalculatorStack t = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    FileInputStream in = new FileInputStream(file);
+    StateCodec.read(in, t, b);
+    in.close();
+    assertEquals("Latest stack not saved", 100, t.size());
+    assertEquals("Latest buffer not saved", "99", b.get());
+    assertFalse("Temporary file left behind",
+        new File(file.getPath() + ".tmp").exists());
+    file.delete();
+  }
+
+  public static void testRuntimeFailure() throws IOException,
+      InterruptedException {
+    File file = File.createTempFile("state", null);
+    final IOException[] failure = new IOException[1];
+    StatePersister p = new StatePersister(file,
+        new StatePersister.OnSaveFailed() {
+          @Override
+          public void onSaveFailed(final IOException ex) {
+            failure[0] = ex;
+          }
+        });
+    // A missing buffer makes the encoder throw a RuntimeException.
+    p.save(new CalculatorStack(), null, 1);
+    assertTrue("Writer still busy after a failure", p.await(10000));
+    assertNotNull("Failure not reported", failure[0]);
+
+    p.save(new CalculatorStack(), new InputBuffer("7"), 2);
+    p.flush();
+    CalculatorStack t = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    FileInputStream in = new FileInputStream(file);
+    assertEquals("Incorrect generation", 2, StateCodec.read(in, t, b));
+    in.close();
+    assertEquals("Later save not written", "7", b.get());
+    file.delete();
+  }
+
+}
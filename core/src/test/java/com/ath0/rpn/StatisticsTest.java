@@ -0,0 +1,94 @@
+package com.ath0.rpn.test;
+
+import java.math.BigDecimal;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.CalculatorStack;
+import com.ath0.rpn.Decimal;
+import com.ath0.rpn.InputBuffer;
+import com.ath0.rpn.Statistics;
+
+public class StatisticsTest extends TestCase {
+
+  private static Statistics of(final String... xy) {
+    Statistics s = new Statistics();
+    for (int i = 0; i < xy.length; i += 2) {
+      s.add(Decimal.parse(xy[i]), Decimal.parse(xy[i + 1]));
+    }
+    return s;
+  }
+
+  public static void testMeanAndDeviation() {
+    Statistics s = of("2", "0", "4", "0", "4", "0", "4", "0", "5", "0", "5",
+        "0", "7", "0", "9", "0");
+    assertEquals("Incorrect mean", new BigDecimal("5.0000"), s.meanX(4));
+    // Sample variance is 32/7.
+    assertEquals("Incorrect deviation", new BigDecimal("2.1380899352"),
+        s.sdevX(10));
+    s.remove(Decimal.parse("9"), Decimal.ZERO);
+    assertEquals("Incorrect count after removal", 7, s.getCount());
+    assertEquals("Incorrect mean after removal", new BigDecimal("4.43"),
+        s.meanX(2));
+  }
+
+  public static void testStability() {
+    // A large offset wipes out the spread in the naive floating point
+    // formula; exact sums keep it.
+    Statistics s = of("1000000000000000000004", "0",
+        "1000000000000000000007", "0", "1000000000000000000013", "0",
+        "1000000000000000000016", "0");
+    assertEquals("Offset changed mean", new BigDecimal(
+        "1000000000000000000010.0"), s.meanX(1));
+    // Sample variance is 30.
+    assertEquals("Offset changed deviation", new BigDecimal("5.477225575"),
+        s.sdevX(9));
+  }
+
+  public static void testLine() {
+    Statistics s = of("1", "3", "2", "5", "3", "7", "4", "9");
+    BigDecimal[] ab = s.line(3);
+    assertEquals("Incorrect intercept", new BigDecimal("1.000"), ab[0]);
+    assertEquals("Incorrect slope", new BigDecimal("2.000"), ab[1]);
+    try {
+      of("1", "2", "1", "3").line(3);
+      fail("Vertical line accepted");
+    } catch (ArithmeticException e) {
+      // expected
+    }
+    try {
+      new Statistics().meanX(2);
+      fail("Mean of no data accepted");
+    } catch (ArithmeticException e) {
+      // expected
+    }
+  }
+
+  public static void testStackOperations() {
+    CalculatorStack s = new CalculatorStack();
+    InputBuffer b = new InputBuffer();
+    s.setUndoLevels(10);
+    for (String v : new String[] { "3", "5", "7" }) {
+      s.checkpoint(b);
+      s.push(v);
+      s.statAdd();
+    }
+    assertTrue("Values left on the stack", s.isEmpty());
+    s.checkpoint(b);
+    assertNull("Mean failed", s.mean());
+    assertEquals("Incorrect mean", "5.00", s.toString());
+
+    // Undo takes the last data point back out of the registers, along with
+    // the mean pushed after it.
+    s.checkpoint(b);
+    s.statClear();
+    s.undo(b);
+    s.undo(b);
+    s.undo(b);
+    assertEquals("Registers not restored", 2, s.getStatistics().getCount());
+    assertTrue("Stack not restored", s.isEmpty());
+    s.redo(b);
+    assertEquals("Registers not redone", 3, s.getStatistics().getCount());
+  }
+
+}
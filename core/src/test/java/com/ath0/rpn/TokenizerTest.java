@@ -0,0 +1,65 @@
+package com.ath0.rpn.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import com.ath0.rpn.Tokenizer;
+
+public class TokenizerTest extends TestCase {
+
+  /**
+   * Tokenizes text, returning the tokens with line ends shown as "|".
+   */
+  private static String tokenize(final Reader in) throws IOException {
+    Tokenizer t = new Tokenizer(in);
+    StringBuilder result = new StringBuilder();
+    int type;
+    while ((type = t.next()) != Tokenizer.END) {
+      if (result.length() > 0) {
+        result.append(' ');
+      }
+      result.append(type == Tokenizer.LINE ? "|" : t.getToken());
+    }
+    return result.toString();
+  }
+
+  public static void testTokens() throws IOException {
+    assertEquals("Incorrect tokens", "1 2.5 + | 3 sqrt | | 1/x",
+        tokenize(new StringReader("  1\t2.5 +\n3 sqrt\r\n\r1/x")));
+    assertEquals("Empty input not empty", "", tokenize(new StringReader("")));
+  }
+
+  public static void testBufferBoundary() throws IOException {
+    // A token which straddles reads must come out whole.
+    final String text = "12345 678 swap\n";
+    Reader slow = new Reader() {
+      private int i;
+      @Override
+      public int read(final char[] buf, final int off, final int len) {
+        if (this.i == text.length()) {
+          return -1;
+        }
+        buf[off] = text.charAt(this.i++);
+        return 1;
+      }
+      @Override
+      public void close() {
+        // Nothing to close
+      }
+    };
+    assertEquals("Token split across reads", "12345 678 swap |",
+        tokenize(slow));
+  }
+
+  public static void testIsNumber() {
+    assertTrue("Number not recognised", Tokenizer.isNumber("12"));
+    assertTrue("Negative number not recognised", Tokenizer.isNumber("-.5"));
+    assertFalse("Operator taken as number", Tokenizer.isNumber("-"));
+    assertFalse("1/x taken as number", Tokenizer.isNumber("1/x"));
+    assertFalse("Word taken as number", Tokenizer.isNumber("swap"));
+  }
+
+}